@@ -0,0 +1,56 @@
+package org.demo.propstoyaml;
+
+import java.util.concurrent.TimeUnit;
+
+import org.demo.propstoyaml.CorpusGenerator.Shape;
+import org.demo.propstoyaml.PropertiesToYamlConverter.YamlConversionResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of carrying comments over into the yaml: converts a file with a
+ * two line comment above every property, with and without
+ * {@link PropertiesToYamlConverter.Builder#preserveComments(boolean)}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class CommentBenchmarks {
+
+	@Param({"1000", "100000"})
+	public int keys;
+
+	@Param({"FLAT", "DEEP", "LISTS", "WIDE"})
+	public Shape shape;
+
+	@Param({"false", "true"})
+	public boolean preserveComments;
+
+	private String text;
+	private PropertiesToYamlConverter converter;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		text = new CorpusGenerator(shape, keys).commentedPropertiesText();
+		converter = PropertiesToYamlConverter.builder().preserveComments(preserveComments).build();
+	}
+
+	@Benchmark
+	public YamlConversionResult convertCommented() {
+		return converter.convert(text);
+	}
+
+}
@@ -0,0 +1,71 @@
+package org.demo.propstoyaml;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.demo.propstoyaml.PropertiesToYamlConverter.YamlConversionResult;
+import org.demo.propstoyaml.PropertiesToYamlConverter.YamlEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end benchmarks for the public <code>convert</code> entry points.
+ * <p>
+ * Run with <code>-prof gc</code> to get allocation rates next to throughput.
+ * All benchmark threads share one converter, so <code>-t 8</code> measures
+ * eight threads converting through the same instance.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class ConvertBenchmarks {
+
+	@Param({"NATIVE", "SNAKEYAML", "SWEEP"})
+	public YamlEngine engine;
+
+	/**
+	 * The default threshold, and one that never resolves in parallel.
+	 */
+	@Param({"100000", "2147483647"})
+	public int parallelThreshold;
+
+	private PropertiesToYamlConverter converter;
+
+	@Setup(Level.Trial)
+	public void createConverter() {
+		converter = PropertiesToYamlConverter.builder()
+				.engine(engine)
+				.charset(StandardCharsets.ISO_8859_1)
+				.parallelThreshold(parallelThreshold)
+				.build();
+	}
+
+	@Benchmark
+	public YamlConversionResult convertString(CorpusState corpus) {
+		return converter.convert(corpus.text);
+	}
+
+	@Benchmark
+	public YamlConversionResult convertFile(CorpusState corpus) {
+		return converter.convert(corpus.file);
+	}
+
+	@Benchmark
+	public YamlConversionResult convertMap(CorpusState corpus) {
+		return converter.convert(corpus.map);
+	}
+
+}
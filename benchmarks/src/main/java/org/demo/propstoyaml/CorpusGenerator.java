@@ -0,0 +1,124 @@
+package org.demo.propstoyaml;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Generates synthetic, deterministic .properties corpora for the benchmarks.
+ * <p>
+ * The shape of the generated key space is controlled by three knobs: the
+ * nesting depth of every key, the fan-out (number of distinct children) at
+ * each level, and the list-index density (the fraction of nodes whose
+ * children are rendered as <code>[n]</code> sequence items rather than map
+ * keys). List-ness is decided per parent node, so the generated files never
+ * contain conflicts and convert with an OK status.
+ */
+public class CorpusGenerator {
+
+	public enum Shape {
+		FLAT(2, 64, 0.0),
+		DEEP(8, 4, 0.0),
+		LISTS(4, 8, 0.5),
+		WIDE(2, 4096, 0.0);
+
+		final int depth;
+		final int fanout;
+		final double listDensity;
+
+		Shape(int depth, int fanout, double listDensity) {
+			this.depth = depth;
+			this.fanout = fanout;
+			this.listDensity = listDensity;
+		}
+	}
+
+	private static final String[] NAMES = {
+		"spring", "datasource", "url", "username", "password", "enabled", "server", "port",
+		"management", "endpoints", "web", "exposure", "include", "logging", "level", "root",
+		"jpa", "hibernate", "ddl-auto", "cache", "redis", "host", "timeout", "pool"
+	};
+
+	private static final String[] VALUES = {
+		"true", "8080", "jdbc:mysql://localhost:3306/db", "some plain text", "See ya # later",
+		"Good morning!", "-1", "INFO", "", "http://example.com/path?query=x"
+	};
+
+	private final Shape shape;
+	private final int keys;
+
+	public CorpusGenerator(Shape shape, int keys) {
+		this.shape = shape;
+		this.keys = keys;
+	}
+
+	public String key(int i) {
+		StringBuilder buf = new StringBuilder();
+		int[] digits = new int[shape.depth];
+		int rest = i;
+		for (int level = shape.depth - 1; level > 0; level--) {
+			digits[level] = rest % shape.fanout;
+			rest = rest / shape.fanout;
+		}
+		digits[0] = rest;
+		for (int level = 0; level < shape.depth; level++) {
+			int d = digits[level];
+			if (level > 0 && isList(buf)) {
+				buf.append('[').append(d).append(']');
+			} else {
+				if (level > 0) {
+					buf.append('.');
+				}
+				buf.append(NAMES[d % NAMES.length]);
+				if (d >= NAMES.length) {
+					buf.append(d / NAMES.length);
+				}
+			}
+		}
+		return buf.toString();
+	}
+
+	public String value(int i) {
+		return VALUES[i % VALUES.length];
+	}
+
+	private boolean isList(CharSequence parent) {
+		if (shape.listDensity <= 0) {
+			return false;
+		}
+		int h = parent.toString().hashCode() * 0x9E3779B1;
+		return ((h >>> 8) % 1000) < shape.listDensity * 1000;
+	}
+
+	public String propertiesText() {
+		StringBuilder buf = new StringBuilder(keys * 48);
+		for (int i = 0; i < keys; i++) {
+			buf.append(key(i)).append('=').append(value(i)).append('\n');
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Like {@link #propertiesText()}, but with a block of two comment lines
+	 * above every property, as in a heavily documented file.
+	 */
+	public String commentedPropertiesText() {
+		StringBuilder buf = new StringBuilder(keys * 112);
+		for (int i = 0; i < keys; i++) {
+			buf.append("# Setting number ").append(i).append('\n');
+			buf.append("# ").append(value(i)).append(" by default\n");
+			buf.append(key(i)).append('=').append(value(i)).append('\n');
+		}
+		return buf.toString();
+	}
+
+	public Map<String, Collection<String>> propertiesMap() {
+		Map<String, Collection<String>> map = new LinkedHashMap<>(keys * 2);
+		for (int i = 0; i < keys; i++) {
+			map.put(key(i), Collections.singleton(value(i)));
+		}
+		return map;
+	}
+
+}
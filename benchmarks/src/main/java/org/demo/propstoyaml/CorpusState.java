@@ -0,0 +1,54 @@
+package org.demo.propstoyaml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Map;
+
+import org.demo.propstoyaml.CorpusGenerator.Shape;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Shared benchmark input: one generated corpus per (keys, shape) combination,
+ * available as text, as a file on disk and as a property map.
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+
+	@Param({"10", "1000", "100000", "1000000"})
+	public int keys;
+
+	@Param({"FLAT", "DEEP", "LISTS", "WIDE"})
+	public Shape shape;
+
+	public String text;
+	public File file;
+	public Map<String, Collection<String>> map;
+	public String[] propertyNames;
+
+	@Setup(Level.Trial)
+	public void generate() throws IOException {
+		CorpusGenerator generator = new CorpusGenerator(shape, keys);
+		text = generator.propertiesText();
+		map = generator.propertiesMap();
+		propertyNames = map.keySet().toArray(new String[map.size()]);
+		file = File.createTempFile("bench-" + shape + "-" + keys, ".properties");
+		file.deleteOnExit();
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() {
+		if (file != null) {
+			file.delete();
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+package org.demo.propstoyaml;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Collection;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Heap retained by the property tree once every property has been added,
+ * for {@link YamlBuilder} and for the {@link LegacyYamlBuilder} it replaced.
+ * The retained size is reported as the <code>retainedBytes</code> secondary
+ * result, e.g.
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar FootprintBenchmarks -p keys=1000000
+ * </pre>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class FootprintBenchmarks {
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+		private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+		public long retainedBytes;
+		private long before;
+		Object tree;
+
+		@Setup(Level.Iteration)
+		public void before() {
+			retainedBytes = 0;
+			before = usedHeap();
+		}
+
+		@TearDown(Level.Iteration)
+		public void after() {
+			retainedBytes = usedHeap() - before;
+			tree = null;
+		}
+
+		private static long usedHeap() {
+			for (int i = 0; i < 3; i++) {
+				System.gc();
+			}
+			return MEMORY.getHeapMemoryUsage().getUsed();
+		}
+	}
+
+	@Benchmark
+	public void trie(CorpusState corpus, Footprint footprint) {
+		footprint.tree = PhaseBenchmarks.addAll(corpus);
+	}
+
+	@Benchmark
+	public void legacyTreeMaps(CorpusState corpus, Footprint footprint) {
+		LegacyYamlBuilder root = new LegacyYamlBuilder(YamlPath.EMPTY);
+		for (Entry<String, Collection<String>> e : corpus.map.entrySet()) {
+			for (String v : e.getValue()) {
+				root.addProperty(YamlPath.fromProperty(e.getKey()), v);
+			}
+		}
+		footprint.tree = root;
+	}
+
+}
@@ -0,0 +1,62 @@
+package org.demo.propstoyaml;
+
+import java.util.concurrent.TimeUnit;
+
+import org.demo.propstoyaml.CorpusGenerator.Shape;
+import org.demo.propstoyaml.PropertiesToYamlConverter.KeyOrder;
+import org.demo.propstoyaml.PropertiesToYamlConverter.YamlConversionResult;
+import org.demo.propstoyaml.PropertiesToYamlConverter.YamlEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What each {@link KeyOrder} costs, mostly on wide maps where sorting the
+ * keys is most of the work of resolving the tree. The
+ * {@link YamlEngine#SWEEP} engine can't keep the insertion order, so it is
+ * left out here; {@link ConvertBenchmarks} covers its default order.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class KeyOrderBenchmarks {
+
+	@Param({"100000"})
+	public int keys;
+
+	@Param({"WIDE", "FLAT"})
+	public Shape shape;
+
+	@Param({"NATIVE", "SNAKEYAML"})
+	public YamlEngine engine;
+
+	@Param({"SORTED", "INSERTION", "HASH"})
+	public KeyOrder keyOrder;
+
+	private String text;
+	private PropertiesToYamlConverter converter;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		text = new CorpusGenerator(shape, keys).propertiesText();
+		converter = PropertiesToYamlConverter.builder().engine(engine).keyOrder(keyOrder).build();
+	}
+
+	@Benchmark
+	public YamlConversionResult convert() {
+		return converter.convert(text);
+	}
+
+}
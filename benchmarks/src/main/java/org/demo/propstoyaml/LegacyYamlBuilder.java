@@ -0,0 +1,46 @@
+package org.demo.propstoyaml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.demo.propstoyaml.YamlPathSegment.AtIndex;
+
+/**
+ * The tree building part of the YamlBuilder that {@link YamlBuilder} replaced:
+ * a full {@link YamlPath}, a list and two TreeMaps per node. Kept only to
+ * compare heap footprints against.
+ */
+class LegacyYamlBuilder {
+	final YamlPath path;
+	final List<String> scalars = new ArrayList<>();
+	final TreeMap<Integer, LegacyYamlBuilder> listItems = new TreeMap<>();
+	final TreeMap<String, LegacyYamlBuilder> mapEntries = new TreeMap<>();
+
+	LegacyYamlBuilder(YamlPath path) {
+		this.path = path;
+	}
+
+	void addProperty(YamlPath path, String value) {
+		if (path.isEmpty()) {
+			scalars.add(value);
+		} else {
+			YamlPathSegment segment = path.getSegment(0);
+			LegacyYamlBuilder subBuilder;
+			if (segment instanceof AtIndex) {
+				subBuilder = getSubBuilder(listItems, segment, segment.toIndex());
+			} else {
+				subBuilder = getSubBuilder(mapEntries, segment, segment.toPropString());
+			}
+			subBuilder.addProperty(path.dropFirst(1), value);
+		}
+	}
+
+	private <T> LegacyYamlBuilder getSubBuilder(TreeMap<T, LegacyYamlBuilder> subBuilders, YamlPathSegment segment, T key) {
+		LegacyYamlBuilder existing = subBuilders.get(key);
+		if (existing == null) {
+			subBuilders.put(key, existing = new LegacyYamlBuilder(path.append(segment)));
+		}
+		return existing;
+	}
+}
@@ -0,0 +1,107 @@
+package org.demo.propstoyaml;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Benchmarks for the individual phases of the conversion pipeline, each run
+ * in isolation over the same generated corpora.
+ * <p>
+ * Run with <code>-prof gc</code> to get allocation rates next to throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class PhaseBenchmarks {
+
+	/**
+	 * The object graph produced by {@link YamlBuilder#build(ConversionStatus)}
+	 * and the resolved builder tree, so the dump / emit phases can be
+	 * measured on their own.
+	 */
+	@State(Scope.Benchmark)
+	public static class BuiltTree {
+		Object tree;
+		YamlBuilder resolved;
+
+		@Setup(Level.Trial)
+		public void build(CorpusState corpus) {
+			tree = addAll(corpus).build(new ConversionStatus());
+			resolved = addAll(corpus);
+			resolved.resolve(new ConversionStatus());
+		}
+	}
+
+	@Benchmark
+	public Properties loadProperties(CorpusState corpus) throws IOException {
+		Properties p = new Properties();
+		p.load(new StringReader(corpus.text));
+		return p;
+	}
+
+	@Benchmark
+	public void parsePaths(CorpusState corpus, Blackhole bh) {
+		for (String name : corpus.propertyNames) {
+			bh.consume(YamlPath.fromProperty(name));
+		}
+	}
+
+	@Benchmark
+	public YamlBuilder addProperties(CorpusState corpus) {
+		return addAll(corpus);
+	}
+
+	@Benchmark
+	public Object addPropertiesAndBuild(CorpusState corpus) {
+		return addAll(corpus).build(new ConversionStatus());
+	}
+
+	@Benchmark
+	public String snakeYamlDump(BuiltTree built) {
+		DumperOptions options = new DumperOptions();
+		options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+		options.setPrettyFlow(true);
+		return new Yaml(options).dump(built.tree);
+	}
+
+	@Benchmark
+	public String emit(BuiltTree built) throws IOException {
+		StringBuilder buf = new StringBuilder();
+		YamlEmitter emitter = new YamlEmitter(buf);
+		built.resolved.emit(emitter);
+		emitter.endDocument();
+		return buf.toString();
+	}
+
+	static YamlBuilder addAll(CorpusState corpus) {
+		YamlBuilder root = new YamlBuilder();
+		for (Entry<String, Collection<String>> e : corpus.map.entrySet()) {
+			for (String v : e.getValue()) {
+				root.addProperty(YamlPath.fromProperty(e.getKey()), v);
+			}
+		}
+		return root;
+	}
+
+}
@@ -0,0 +1,61 @@
+package org.demo.propstoyaml;
+
+import java.util.concurrent.TimeUnit;
+
+import org.demo.propstoyaml.CorpusGenerator.Shape;
+import org.demo.propstoyaml.PropertiesToYamlConverter.YamlConversionResult;
+import org.demo.propstoyaml.PropertiesToYamlConverter.YamlEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link PropertiesToYamlConverter#validate(String)} next to a full
+ * conversion of the same text, to show what skipping the yaml saves.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class ValidateBenchmarks {
+
+	@Param({"100000"})
+	public int keys;
+
+	@Param({"DEEP", "LISTS"})
+	public Shape shape;
+
+	@Param({"NATIVE", "SWEEP"})
+	public YamlEngine engine;
+
+	private String text;
+	private PropertiesToYamlConverter converter;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		text = new CorpusGenerator(shape, keys).propertiesText();
+		converter = new PropertiesToYamlConverter(engine);
+	}
+
+	@Benchmark
+	public YamlConversionResult convert() {
+		return converter.convert(text);
+	}
+
+	@Benchmark
+	public ConversionStatus validate() {
+		return converter.validate(text);
+	}
+
+}
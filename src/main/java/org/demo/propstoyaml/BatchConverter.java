@@ -0,0 +1,479 @@
+package org.demo.propstoyaml;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.demo.propstoyaml.ConversionStatus.ConversionMessage;
+import org.demo.propstoyaml.ConversionStatus.MessageCode;
+import org.demo.propstoyaml.PropertiesToYamlConverter.YamlEngine;
+import org.demo.propstoyaml.PropertiesToYamlConverter.YamlWriteResult;
+
+/**
+ * Converts every matching .properties file in a directory tree, writing the
+ * yaml for <code>foo.properties</code> to <code>foo.yml</code> next to it.
+ * <p>
+ * Directories and files are converted as tasks on a work-stealing
+ * {@link ForkJoinPool}. Directory reads, and the creation and renaming of
+ * the files written, are done as {@link ManagedBlocker}s, so the pool can
+ * keep other workers busy converting while a worker waits for the file
+ * system. No more conversions run at once than the parallelism, even while
+ * the pool has added workers for those that are blocked. The yaml is written to a temp file that replaces
+ * <code>foo.yml</code> once complete, so a failed conversion leaves an
+ * existing <code>foo.yml</code> as it was.
+ *
+ * @author Kris De Volder
+ */
+public class BatchConverter {
+
+	public static final String DEFAULT_PATTERN = "application*.properties";
+
+	private final PropertiesToYamlConverter converter;
+	private final int parallelism;
+	private final PathMatcher matcher;
+
+	public BatchConverter(PropertiesToYamlConverter converter) {
+		this(converter, Runtime.getRuntime().availableProcessors(), DEFAULT_PATTERN);
+	}
+
+	/**
+	 * @param parallelism the number of worker threads.
+	 * @param pattern glob pattern that the names of the files to convert
+	 *        must match.
+	 */
+	public BatchConverter(PropertiesToYamlConverter converter, int parallelism, String pattern) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+		}
+		this.converter = converter;
+		this.parallelism = parallelism;
+		this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+	}
+
+	/**
+	 * Converts all matching files below <code>root</code>. Problems with
+	 * individual files are reported in their status, rather than thrown.
+	 */
+	public BatchReport convert(Path root) {
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			List<FileResult> results = pool.invoke(new DirectoryTask(root, new Semaphore(parallelism)));
+			return new BatchReport(results, System.nanoTime() - start);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * @return the file the yaml for a .properties file is written to.
+	 */
+	static Path outputFile(Path input) {
+		String name = input.getFileName().toString();
+		if (name.endsWith(".properties")) {
+			name = name.substring(0, name.length() - ".properties".length());
+		}
+		return input.resolveSibling(name + ".yml");
+	}
+
+	private class DirectoryTask extends RecursiveTask<List<FileResult>> {
+		private static final long serialVersionUID = 1L;
+
+		private final Path dir;
+		private final Semaphore converting;
+
+		DirectoryTask(Path dir, Semaphore converting) {
+			this.dir = dir;
+			this.converting = converting;
+		}
+
+		@Override
+		protected List<FileResult> compute() {
+			List<Path> entries;
+			try {
+				entries = blocking(() -> {
+					List<Path> list = new ArrayList<>();
+					try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+						for (Path entry : stream) {
+							list.add(entry);
+						}
+					}
+					return list;
+				});
+			} catch (IOException e) {
+				ConversionStatus status = new ConversionStatus();
+				status.add(MessageCode.IO_ERROR, "Problem reading directory " + dir + ": " + e.getMessage());
+				return Collections.singletonList(new FileResult(dir, null, status, 0, 0));
+			}
+			Collections.sort(entries);
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			for (Path entry : entries) {
+				if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+					tasks.add(new DirectoryTask(entry, converting));
+				} else if (matcher.matches(entry.getFileName()) && Files.isRegularFile(entry)) {
+					tasks.add(new FileTask(entry, converting));
+				}
+			}
+			invokeAll(tasks);
+			List<FileResult> results = new ArrayList<>();
+			for (ForkJoinTask<?> task : tasks) {
+				Object result = task.join();
+				if (result instanceof FileResult) {
+					results.add((FileResult) result);
+				} else {
+					@SuppressWarnings("unchecked")
+					List<FileResult> nested = (List<FileResult>) result;
+					results.addAll(nested);
+				}
+			}
+			return results;
+		}
+	}
+
+	private class FileTask extends RecursiveTask<FileResult> {
+		private static final long serialVersionUID = 1L;
+
+		private final Path input;
+		/**
+		 * Permits for the conversions that may run at once. The pool adds
+		 * workers while others are blocked on I/O, so its parallelism alone
+		 * doesn't bound them.
+		 */
+		private final Semaphore converting;
+
+		FileTask(Path input, Semaphore converting) {
+			this.input = input;
+			this.converting = converting;
+		}
+
+		@Override
+		protected FileResult compute() {
+			Path output = outputFile(input);
+			long bytesRead = input.toFile().length();
+			Path tmp = null;
+			try {
+				tmp = blocking(() -> createTempFile(output));
+				//The conversion itself is CPU bound, so it runs as part of the
+				//task rather than as a managed block.
+				YamlWriteResult result;
+				converting.acquireUninterruptibly();
+				try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+					result = converter.convert(input.toFile(), out);
+				} finally {
+					converting.release();
+				}
+				ConversionStatus status = result.getStatus();
+				if (!isComplete(status)) {
+					return new FileResult(input, null, status, bytesRead, 0);
+				}
+				Path written = tmp;
+				blocking(() -> Files.move(written, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE));
+				tmp = null;
+				return new FileResult(input, output, status, bytesRead, result.getByteCount());
+			} catch (IOException e) {
+				return failed(input, "Problem writing file " + output + ": " + e.getMessage(), bytesRead);
+			} catch (RuntimeException e) {
+				//E.g. a malformed unicode escape; one bad file mustn't stop the batch.
+				return failed(input, "Problem converting file " + input + ": " + e.getMessage(), bytesRead);
+			} finally {
+				if (tmp != null) {
+					deleteQuietly(tmp);
+				}
+			}
+		}
+	}
+
+	private static FileResult failed(Path input, String message, long bytesRead) {
+		ConversionStatus status = new ConversionStatus();
+		status.add(MessageCode.IO_ERROR, message);
+		return new FileResult(input, null, status, bytesRead, 0);
+	}
+
+	/**
+	 * Creates the temp file that the yaml is written to before it replaces
+	 * the output file. Unlike with {@link Files#createTempFile}, which
+	 * makes a file only its owner can read, the yaml ends up with the
+	 * permissions of the output file it replaces, or the defaults for new
+	 * files if there is none.
+	 */
+	static Path createTempFile(Path output) throws IOException {
+		String prefix = output.getFileName() + ".";
+		while (true) {
+			Path tmp = output.resolveSibling(prefix + Integer.toUnsignedString(ThreadLocalRandom.current().nextInt()) + ".tmp");
+			try {
+				Files.newByteChannel(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE).close();
+			} catch (FileAlreadyExistsException e) {
+				continue;
+			}
+			try {
+				Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(output));
+			} catch (NoSuchFileException | UnsupportedOperationException e) {
+				//No output yet, or no posix permissions: keep the defaults.
+			} catch (IOException e) {
+				deleteQuietly(tmp);
+				throw e;
+			}
+			return tmp;
+		}
+	}
+
+	static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			file.toFile().deleteOnExit();
+		}
+	}
+
+	/**
+	 * @return false if the input couldn't be read or the output written, or
+	 *         the conversion stopped at its first error, so that the yaml
+	 *         written is incomplete.
+	 */
+	private static boolean isComplete(ConversionStatus status) {
+		return status.getCount(MessageCode.IO_ERROR) == 0
+				&& !(status.isFailFast() && status.getSeverity() == ConversionStatus.ERROR);
+	}
+
+	private interface IOCallable<T> {
+		T call() throws IOException;
+	}
+
+	/**
+	 * Runs blocking I/O, letting the pool compensate for the blocked worker.
+	 */
+	private static <T> T blocking(IOCallable<T> io) throws IOException {
+		class Blocker implements ManagedBlocker {
+			T result;
+			IOException error;
+			boolean done = false;
+
+			@Override
+			public boolean block() {
+				try {
+					result = io.call();
+				} catch (IOException e) {
+					error = e;
+				}
+				done = true;
+				return true;
+			}
+
+			@Override
+			public boolean isReleasable() {
+				return done;
+			}
+		}
+		Blocker blocker = new Blocker();
+		try {
+			ForkJoinPool.managedBlock(blocker);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		if (blocker.error != null) {
+			throw blocker.error;
+		}
+		return blocker.result;
+	}
+
+	/**
+	 * The outcome of converting a single file.
+	 */
+	public static class FileResult {
+		private final Path input;
+		private final Path output;
+		private final ConversionStatus status;
+		private final long bytesRead;
+		private final long bytesWritten;
+
+		FileResult(Path input, Path output, ConversionStatus status, long bytesRead, long bytesWritten) {
+			this.input = input;
+			this.output = output;
+			this.status = status;
+			this.bytesRead = bytesRead;
+			this.bytesWritten = bytesWritten;
+		}
+
+		public Path getInput() {
+			return input;
+		}
+
+		/**
+		 * @return the yaml file, or null if nothing was written.
+		 */
+		public Path getOutput() {
+			return output;
+		}
+
+		public ConversionStatus getStatus() {
+			return status;
+		}
+
+		public long getBytesRead() {
+			return bytesRead;
+		}
+
+		public long getBytesWritten() {
+			return bytesWritten;
+		}
+	}
+
+	/**
+	 * The results of a batch conversion, in the order of the files' paths.
+	 */
+	public static class BatchReport {
+		private final List<FileResult> files;
+		private final long elapsedNanos;
+
+		BatchReport(List<FileResult> files, long elapsedNanos) {
+			this.files = Collections.unmodifiableList(files);
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		public List<FileResult> getFiles() {
+			return files;
+		}
+
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		public int getFailureCount() {
+			return count(ConversionStatus.ERROR);
+		}
+
+		public int getWarningCount() {
+			return count(ConversionStatus.WARNING);
+		}
+
+		private int count(int severity) {
+			int count = 0;
+			for (FileResult file : files) {
+				if (file.getStatus().getSeverity() == severity) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		public long getBytesRead() {
+			long total = 0;
+			for (FileResult file : files) {
+				total += file.getBytesRead();
+			}
+			return total;
+		}
+
+		public long getBytesWritten() {
+			long total = 0;
+			for (FileResult file : files) {
+				total += file.getBytesWritten();
+			}
+			return total;
+		}
+
+		public double getFilesPerSecond() {
+			return perSecond(files.size());
+		}
+
+		/**
+		 * @return the number of .properties bytes converted per second.
+		 */
+		public double getBytesPerSecond() {
+			return perSecond(getBytesRead());
+		}
+
+		private double perSecond(long count) {
+			return elapsedNanos == 0 ? 0 : count * 1e9 / elapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Converted %d files (%d failed, %d with warnings) in %.3fs: %.1f files/s, %.1f KB/s",
+					files.size(), getFailureCount(), getWarningCount(), elapsedNanos / 1e9,
+					getFilesPerSecond(), getBytesPerSecond() / 1024);
+		}
+	}
+
+	/**
+	 * Command line entry point:
+	 * <pre>
+	 * BatchConverter &lt;directory&gt; [--parallelism N] [--pattern GLOB] [--engine NATIVE|SNAKEYAML|SWEEP]
+	 * </pre>
+	 * Exits with status 1 if any file could not be converted cleanly.
+	 */
+	public static void main(String[] args) {
+		Path root = null;
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		String pattern = DEFAULT_PATTERN;
+		YamlEngine engine = YamlEngine.NATIVE;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("--parallelism")) {
+					parallelism = Integer.parseInt(args[++i]);
+				} else if (arg.equals("--pattern")) {
+					pattern = args[++i];
+				} else if (arg.equals("--engine")) {
+					engine = YamlEngine.valueOf(args[++i]);
+				} else if (root == null && !arg.startsWith("--")) {
+					root = Paths.get(arg);
+				} else {
+					throw new IllegalArgumentException("Unknown argument: " + arg);
+				}
+			}
+			if (root == null) {
+				throw new IllegalArgumentException("No directory given");
+			}
+		} catch (RuntimeException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: BatchConverter <directory> [--parallelism N] [--pattern GLOB] [--engine NATIVE|SNAKEYAML|SWEEP]");
+			System.exit(2);
+			return;
+		}
+		PropertiesToYamlConverter converter = PropertiesToYamlConverter.builder().engine(engine).build();
+		BatchReport report = new BatchConverter(converter, parallelism, pattern).convert(root);
+		print(report, System.out);
+		System.exit(report.getFailureCount() > 0 ? 1 : 0);
+	}
+
+	private static void print(BatchReport report, PrintStream out) {
+		for (FileResult file : report.getFiles()) {
+			print(file, out);
+		}
+		out.println(report);
+	}
+
+	/**
+	 * Prints the problems found in a file, one per line.
+	 */
+	static void print(FileResult file, PrintStream out) {
+		for (ConversionMessage message : file.getStatus().getEntries()) {
+			out.println((message.getSeverity() == ConversionStatus.ERROR ? "ERROR " : "WARNING ")
+					+ file.getInput() + ": " + message.getMessage());
+		}
+	}
+
+}
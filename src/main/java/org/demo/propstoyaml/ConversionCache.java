@@ -0,0 +1,467 @@
+package org.demo.propstoyaml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.demo.propstoyaml.ConversionStatus.ConversionMessage;
+import org.demo.propstoyaml.ConversionStatus.MessageCode;
+import org.demo.propstoyaml.PropertiesToYamlConverter.YamlConversionResult;
+import org.demo.propstoyaml.YamlPathSegment.AtIndex;
+
+/**
+ * Cache of conversion results, keyed by a 128-bit hash of the converted
+ * content together with the options that affect the result. Identical
+ * .properties files therefore only get converted once.
+ * <p>
+ * Results are kept in memory in least recently used order, and evicted once
+ * their estimated size exceeds a byte budget. Optionally, results are also
+ * written to a directory, from which they are read back when they are not
+ * in memory; e.g. after a restart. The directory is not bounded by the
+ * budget, and can be cleaned up by deleting its files at any time.
+ * <p>
+ * A cache can be shared by several converters and threads.
+ *
+ * @author Kris De Volder
+ */
+public class ConversionCache {
+
+	private static final int FILE_MAGIC = 0x50325943;
+	private static final int FILE_VERSION = 3;
+	private static final String FILE_SUFFIX = ".yaml-cache";
+
+	/**
+	 * Rough size of the objects making up an entry, not counting its text.
+	 */
+	private static final int ENTRY_OVERHEAD = 160;
+	private static final int MESSAGE_OVERHEAD = 64;
+	private static final int STRING_OVERHEAD = 40;
+
+	/**
+	 * Kinds of detail of a message in the directory.
+	 */
+	private static final byte NO_DETAIL = 0;
+	private static final byte KEY_DETAIL = 1;
+	private static final byte INDEX_DETAIL = 2;
+
+	private final long maxBytes;
+	private final Path directory;
+
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes = 0;
+
+	private long hits = 0;
+	private long diskHits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * Creates a cache that is only kept in memory.
+	 */
+	public ConversionCache(long maxBytes) {
+		this(maxBytes, null);
+	}
+
+	/**
+	 * Creates a cache that is also persisted to a directory, which is created
+	 * if it doesn't exist yet.
+	 */
+	public ConversionCache(long maxBytes, Path directory) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("Budget must not be negative: " + maxBytes);
+		}
+		this.maxBytes = maxBytes;
+		this.directory = directory;
+		if (directory != null) {
+			try {
+				Files.createDirectories(directory);
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Can't create cache directory " + directory + ": " + e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * The hash of some content plus the options it's converted with.
+	 */
+	static final class Key {
+		final long h1;
+		final long h2;
+
+		Key(long[] hash) {
+			this.h1 = hash[0];
+			this.h2 = hash[1];
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return h1 == other.h1 && h2 == other.h2;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) h1;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%016x%016x", h1, h2);
+		}
+	}
+
+	private static final class Entry {
+		final YamlConversionResult result;
+		final long size;
+
+		Entry(YamlConversionResult result, long size) {
+			this.result = result;
+			this.size = size;
+		}
+	}
+
+	static Key key(String options, String content) {
+		return new Key(new MurmurHash3(0).update(options).update(content).finish());
+	}
+
+	/**
+	 * @return the key for the contents of a file.
+	 */
+	static Key key(String options, byte[] content) {
+		return new Key(new MurmurHash3(0).update(options).update(ByteBuffer.wrap(content)).finish());
+	}
+
+	/**
+	 * @param newStatus makes an empty status for a result read back from
+	 *        the directory, with the limits of the converter asking.
+	 * @return a copy of the cached result, or null if there is none.
+	 */
+	YamlConversionResult get(Key key, Supplier<ConversionStatus> newStatus) {
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				hits++;
+				return copy(entry.result);
+			}
+		}
+		YamlConversionResult result = directory == null ? null : read(key, newStatus);
+		synchronized (this) {
+			if (result == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+			diskHits++;
+			store(key, result);
+			return copy(result);
+		}
+	}
+
+	void put(Key key, YamlConversionResult result) {
+		result = copy(result);
+		synchronized (this) {
+			store(key, result);
+		}
+		if (directory != null) {
+			write(key, result);
+		}
+	}
+
+	private void store(Key key, YamlConversionResult result) {
+		long size = sizeOf(result);
+		if (size > maxBytes) {
+			return;
+		}
+		Entry old = entries.put(key, new Entry(result, size));
+		if (old != null) {
+			bytes -= old.size;
+		}
+		bytes += size;
+		Iterator<Entry> lru = entries.values().iterator();
+		while (bytes > maxBytes) {
+			bytes -= lru.next().size;
+			lru.remove();
+			evictions++;
+		}
+	}
+
+	private static long sizeOf(YamlConversionResult result) {
+		long size = ENTRY_OVERHEAD + 2L * result.getYaml().length();
+		for (ConversionMessage m : result.getStatus().getEntries()) {
+			size += sizeOf(m);
+		}
+		return size;
+	}
+
+	/**
+	 * @return an estimate of the bytes a message takes, from the data it is
+	 *         formatted from rather than its text. The segments of paths are
+	 *         mostly shared, so only the references to them are counted.
+	 */
+	private static long sizeOf(ConversionMessage m) {
+		long size = MESSAGE_OVERHEAD;
+		String text = m.getText();
+		if (text != null) {
+			size += 2L * text.length();
+		}
+		if (m.getPath() != null) {
+			size += 8L * m.getPath().size();
+		}
+		for (String value : m.getValues()) {
+			size += STRING_OVERHEAD + 2L * value.length();
+		}
+		if (m.getDetail() instanceof String) {
+			size += STRING_OVERHEAD + 2L * ((String) m.getDetail()).length();
+		}
+		return size;
+	}
+
+	/**
+	 * Callers may add to the status of the result they get, so each gets a
+	 * status of its own.
+	 */
+	private static YamlConversionResult copy(YamlConversionResult result) {
+		if (result.getStatus().getMessageCount() == 0) {
+			return new YamlConversionResult(ConversionStatus.EMPTY, result.getYaml());
+		}
+		return new YamlConversionResult(result.getStatus().copy(), result.getYaml());
+	}
+
+	private Path file(Key key) {
+		return directory.resolve(key + FILE_SUFFIX);
+	}
+
+	/**
+	 * @return the result stored for a key, or null if there is none or it
+	 *         can't be read.
+	 */
+	private YamlConversionResult read(Key key, Supplier<ConversionStatus> newStatus) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file(key))))) {
+			if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+				return null;
+			}
+			ConversionStatus status = newStatus.get();
+			for (int i = in.readInt(); i > 0; i--) {
+				status.restore(readMessage(in));
+			}
+			for (int i = in.readInt(); i > 0; i--) {
+				status.setCount(MessageCode.valueOf(in.readUTF()), in.readInt());
+			}
+			return new YamlConversionResult(status, readString(in));
+		} catch (IOException | RuntimeException e) {
+			//Not there, or damaged; either way it's a miss.
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a result to a temporary file, then moves it in place, so that
+	 * readers never see a partly written file.
+	 */
+	private void write(Key key, YamlConversionResult result) {
+		Path tmp = null;
+		try {
+			tmp = Files.createTempFile(directory, key.toString(), ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				out.writeInt(FILE_MAGIC);
+				out.writeInt(FILE_VERSION);
+				ConversionStatus status = result.getStatus();
+				out.writeInt(status.getEntries().size());
+				for (ConversionMessage m : status.getEntries()) {
+					writeMessage(out, m);
+				}
+				out.writeInt(MessageCode.values().length);
+				for (MessageCode code : MessageCode.values()) {
+					out.writeUTF(code.name());
+					out.writeInt(status.getCount(code));
+				}
+				writeString(out, result.getYaml());
+			}
+			Files.move(tmp, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			//The cache is only an optimization; the result is still in memory.
+			if (tmp != null) {
+				try {
+					Files.deleteIfExists(tmp);
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a message as its code, its text if it has one, and otherwise
+	 * the data it is formatted from: the path as a segment count (-1 for
+	 * none) followed by the segments, the values and the detail.
+	 */
+	private static void writeMessage(DataOutputStream out, ConversionMessage m) throws IOException {
+		out.writeUTF(m.getCode().name());
+		String text = m.getText();
+		out.writeBoolean(text != null);
+		if (text != null) {
+			writeString(out, text);
+			return;
+		}
+		YamlPath path = m.getPath();
+		out.writeInt(path == null ? -1 : path.size());
+		for (int i = 0; path != null && i < path.size(); i++) {
+			YamlPathSegment segment = path.getSegment(i);
+			if (segment instanceof AtIndex) {
+				out.writeByte('[');
+				out.writeInt(((AtIndex) segment).getIndex());
+			} else {
+				out.writeByte('.');
+				writeString(out, segment.toPropString());
+			}
+		}
+		List<String> values = m.getValues();
+		out.writeInt(values.size());
+		for (String value : values) {
+			writeString(out, value);
+		}
+		Object detail = m.getDetail();
+		if (detail instanceof Integer) {
+			out.writeByte(INDEX_DETAIL);
+			out.writeInt((Integer) detail);
+		} else if (detail != null) {
+			out.writeByte(KEY_DETAIL);
+			writeString(out, detail.toString());
+		} else {
+			out.writeByte(NO_DETAIL);
+		}
+	}
+
+	private static ConversionMessage readMessage(DataInputStream in) throws IOException {
+		MessageCode code = MessageCode.valueOf(in.readUTF());
+		if (in.readBoolean()) {
+			return new ConversionMessage(code, readString(in));
+		}
+		YamlPath path = null;
+		int size = in.readInt();
+		if (size >= 0) {
+			YamlPathSegment[] segments = new YamlPathSegment[size];
+			for (int i = 0; i < size; i++) {
+				if (in.readByte() == '[') {
+					segments[i] = YamlPathSegment.valueAt(in.readInt());
+				} else {
+					segments[i] = YamlPathSegment.valueAt(readString(in));
+				}
+			}
+			path = size == 0 ? YamlPath.EMPTY : new YamlPath(segments);
+		}
+		String[] values = new String[in.readInt()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = readString(in);
+		}
+		Object detail;
+		switch (in.readByte()) {
+		case INDEX_DETAIL:
+			detail = in.readInt();
+			break;
+		case KEY_DETAIL:
+			detail = readString(in);
+			break;
+		default:
+			detail = null;
+		}
+		return new ConversionMessage(code, path, values.length == 0 ? null : values, detail);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Removes all results from memory, and from the directory if there is one.
+	 */
+	public void clear() {
+		synchronized (this) {
+			entries.clear();
+			bytes = 0;
+		}
+		if (directory != null) {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+				for (Path file : files) {
+					Files.deleteIfExists(file);
+				}
+			} catch (IOException e) {
+				//Whatever is left gets overwritten or ignored.
+			}
+		}
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return the estimated size of the results held in memory.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of lookups that found a result, in memory or on
+	 *         disk.
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of hits that had to be read from the directory.
+	 */
+	public synchronized long getDiskHitCount() {
+		return diskHits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	public synchronized void resetStats() {
+		hits = 0;
+		diskHits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("ConversionCache[%d entries, %d/%d bytes, %d hits (%d from disk), %d misses, %d evictions]",
+				entries.size(), bytes, maxBytes, hits, diskHits, misses, evictions);
+	}
+
+}
@@ -0,0 +1,159 @@
+package org.demo.propstoyaml;
+
+/**
+ * Java Flight Recorder events for conversions, so that they show up in a
+ * recording next to GC and allocation events.
+ * <p>
+ * The events themselves are declared in {@link JfrEvents}, which is only
+ * loaded if the runtime has the <code>jdk.jfr</code> module (JDK 8u262 or
+ * later). Elsewhere, e.g. on older JDK 8 builds, OpenJ9, or a jlink image
+ * without the module, the events are never enabled. When the events aren't
+ * enabled in the recording, or nothing is being recorded, creating and
+ * committing them does nothing.
+ *
+ * @author Kris De Volder
+ */
+final class ConversionEvents {
+
+	/**
+	 * Null if the runtime has no Flight Recorder.
+	 */
+	private static final Recorder RECORDER = recorder();
+
+	private ConversionEvents() {
+	}
+
+	private static Recorder recorder() {
+		try {
+			ClassLoader loader = ConversionEvents.class.getClassLoader();
+			Class.forName("jdk.jfr.Event", false, loader);
+			//Loaded by name, so that nothing refers to the jdk.jfr types otherwise
+			return (Recorder) Class.forName("org.demo.propstoyaml.JfrEvents", true, loader)
+					.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates, begins and commits the Flight Recorder events. The events are
+	 * passed around as Objects, so that this interface doesn't depend on
+	 * <code>jdk.jfr</code>.
+	 */
+	interface Recorder {
+		/**
+		 * @return the begun event, or null if conversion events aren't
+		 *         enabled.
+		 */
+		Object beginConversion();
+
+		/**
+		 * @return the begun event, or null if phase events aren't enabled.
+		 */
+		Object beginPhase();
+
+		boolean shouldCommit(Object event);
+
+		void commit(Object event, ConversionEvent conversion);
+
+		void commit(Object event, PhaseEvent phase);
+	}
+
+	/**
+	 * A call to one of the convert methods of a PropertiesToYamlConverter.
+	 */
+	static class ConversionEvent {
+
+		String engine;
+		/**
+		 * Whether the result was taken from a conversion cache.
+		 */
+		boolean cached;
+		/**
+		 * Size of the input file, or -1 if the input wasn't a file.
+		 */
+		long inputBytes = -1;
+		long inputChars = -1;
+		int propertyCount;
+		int nodeCount;
+		long outputChars;
+		String severity;
+		int messageCount;
+		/**
+		 * Time spent parsing property names, summed over all properties.
+		 */
+		long parsePathsNanos;
+		/**
+		 * Time spent adding values to the property tree, summed over all
+		 * properties.
+		 */
+		long buildTreeNanos;
+
+		private Object event;
+
+		void begin() {
+			if (RECORDER != null) {
+				event = RECORDER.beginConversion();
+			}
+		}
+
+		boolean isEnabled() {
+			return event != null;
+		}
+
+		boolean shouldCommit() {
+			return event != null && RECORDER.shouldCommit(event);
+		}
+
+		void commit() {
+			if (event != null) {
+				RECORDER.commit(event, this);
+			}
+		}
+
+		void setStatus(ConversionStatus status) {
+			severity = severityName(status.getSeverity());
+			messageCount = status.getMessageCount();
+		}
+	}
+
+	/**
+	 * A phase of a conversion: loading the properties, building the yaml
+	 * tree or emitting the yaml.
+	 */
+	static class PhaseEvent {
+
+		String phase;
+		int propertyCount;
+
+		private Object event;
+
+		void begin() {
+			if (RECORDER != null) {
+				event = RECORDER.beginPhase();
+			}
+		}
+
+		boolean shouldCommit() {
+			return event != null && RECORDER.shouldCommit(event);
+		}
+
+		void commit() {
+			if (event != null) {
+				RECORDER.commit(event, this);
+			}
+		}
+	}
+
+	private static String severityName(int severity) {
+		switch (severity) {
+		case ConversionStatus.OK:
+			return "OK";
+		case ConversionStatus.WARNING:
+			return "WARNING";
+		default:
+			return "ERROR";
+		}
+	}
+
+}
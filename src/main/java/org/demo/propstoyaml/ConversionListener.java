@@ -0,0 +1,23 @@
+package org.demo.propstoyaml;
+
+/**
+ * Receives the {@link ConversionMetrics} of every conversion done by a
+ * {@link PropertiesToYamlConverter}.
+ * <p>
+ * The listener is called on the thread that did the conversion, before the
+ * convert method returns, so it should be quick and must be safe to call
+ * from several threads at once.
+ *
+ * @author Kris De Volder
+ */
+public interface ConversionListener {
+
+	/**
+	 * Listener that ignores all conversions. With this listener, the
+	 * converter doesn't measure anything at all.
+	 */
+	ConversionListener NONE = metrics -> {};
+
+	void conversionFinished(ConversionMetrics metrics);
+
+}
@@ -0,0 +1,169 @@
+package org.demo.propstoyaml;
+
+/**
+ * Measurements of a single conversion, handed to a
+ * {@link ConversionListener} when the conversion is done.
+ * <p>
+ * Reading and lexing the .properties text, parsing property names and
+ * adding them to the tree are interleaved, one property at a time, so their
+ * times are sums over all properties rather than spans.
+ *
+ * @author Kris De Volder
+ */
+public final class ConversionMetrics {
+
+	/**
+	 * The phases of a conversion.
+	 */
+	public enum Phase {
+		/**
+		 * Reading characters from the input, including decoding them.
+		 */
+		READ,
+		/**
+		 * Splitting the .properties text into names and values.
+		 */
+		LEX,
+		/**
+		 * Parsing property names into paths.
+		 */
+		PARSE_PATHS,
+		/**
+		 * Adding the values to the property tree, or collecting them for
+		 * the sweep engine.
+		 */
+		BUILD_TREE,
+		/**
+		 * Applying the conflict rules to the tree; sorting the properties
+		 * for the sweep engine, which applies the rules while writing.
+		 */
+		RESOLVE,
+		/**
+		 * Turning the tree into Maps and Lists for SnakeYAML; not used by the
+		 * native engine.
+		 */
+		TO_OBJECTS,
+		/**
+		 * Writing the yaml.
+		 */
+		WRITE
+	}
+
+	private final long startNanos;
+	private final long[] phaseNanos = new long[Phase.values().length];
+	private long totalNanos;
+	private boolean cached = false;
+
+	int propertyCount = 0;
+	private int nodeCount = 0;
+	private int maxDepth = 0;
+	long bytesIn = -1;
+	long charsIn = -1;
+	long charsOut = 0;
+	long bytesOut = -1;
+	private ConversionStatus status = ConversionStatus.EMPTY;
+
+	ConversionMetrics(long startNanos) {
+		this.startNanos = startNanos;
+	}
+
+	void add(Phase phase, long nanos) {
+		phaseNanos[phase.ordinal()] += nanos;
+	}
+
+	/**
+	 * Records the time since <code>start</code> for a phase.
+	 *
+	 * @return the current time.
+	 */
+	long end(Phase phase, long start) {
+		long now = System.nanoTime();
+		phaseNanos[phase.ordinal()] += now - start;
+		return now;
+	}
+
+	void setTree(int nodeCount, int maxDepth) {
+		this.nodeCount = nodeCount;
+		this.maxDepth = maxDepth;
+	}
+
+	void finish(ConversionStatus status, boolean cached) {
+		this.totalNanos = System.nanoTime() - startNanos;
+		this.status = status;
+		this.cached = cached;
+	}
+
+	public long getNanos(Phase phase) {
+		return phaseNanos[phase.ordinal()];
+	}
+
+	/**
+	 * @return the time the whole conversion took.
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * @return whether the result came from a {@link ConversionCache}, in which
+	 *         case only the total time, the input size and the status are
+	 *         known.
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+
+	/**
+	 * @return the number of property assignments read.
+	 */
+	public int getPropertyCount() {
+		return propertyCount;
+	}
+
+	/**
+	 * @return the number of nodes in the property tree, not counting the
+	 *         root.
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * @return the number of segments in the longest property path.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return the size of the input file, or -1 if the input wasn't a file.
+	 */
+	public long getBytesIn() {
+		return bytesIn;
+	}
+
+	/**
+	 * @return the number of characters of .properties text read, or -1 if
+	 *         the input wasn't text.
+	 */
+	public long getCharsIn() {
+		return charsIn;
+	}
+
+	public long getCharsOut() {
+		return charsOut;
+	}
+
+	/**
+	 * @return the number of bytes of yaml written, or -1 if the yaml was
+	 *         not encoded.
+	 */
+	public long getBytesOut() {
+		return bytesOut;
+	}
+
+	public ConversionStatus getStatus() {
+		return status;
+	}
+
+}
@@ -1,7 +1,10 @@
 package org.demo.propstoyaml;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Supplier;
 
 public class ConversionStatus {
 
@@ -11,42 +14,318 @@ public class ConversionStatus {
 	public static final int WARNING = 1;
 	public static final int ERROR = 2;
 
+	/**
+	 * The number of messages a status keeps by default. Messages beyond that
+	 * are still counted, but not kept.
+	 */
+	public static final int DEFAULT_MAX_MESSAGES = 1000;
+
+	/**
+	 * The kinds of problems a conversion can report.
+	 */
+	public enum MessageCode {
+		/**
+		 * Several values are assigned to the same property; they become a
+		 * sequence.
+		 */
+		MULTIPLE_VALUES(WARNING),
+		/**
+		 * A property has a value as well as sub-properties; the value is
+		 * dropped.
+		 */
+		SCALAR_AND_MAP(ERROR),
+		/**
+		 * A property has a value as well as list items; the value is
+		 * dropped.
+		 */
+		SCALAR_AND_SEQUENCE(ERROR),
+		/**
+		 * A property has both list items and sub-properties; the list items
+		 * become map entries.
+		 */
+		SEQUENCE_AND_MAP(WARNING),
+		/**
+		 * The .properties file has comments, which yaml can't carry over.
+		 */
+		COMMENTS_LOST(WARNING),
+		/**
+		 * Input or output could not be read or written.
+		 */
+		IO_ERROR(ERROR),
+		/**
+		 * Yaml input is malformed, or refers to an anchor it doesn't
+		 * define.
+		 */
+		YAML_ERROR(ERROR),
+		/**
+		 * Yaml input has a node that has no equivalent in a .properties
+		 * file, such as a map key that isn't a scalar; the node is dropped.
+		 */
+		UNSUPPORTED_NODE(WARNING);
+
+		private final int severity;
+
+		MessageCode(int severity) {
+			this.severity = severity;
+		}
+
+		public int getSeverity() {
+			return severity;
+		}
+	}
+
+	/**
+	 * Thrown to stop a conversion at its first error, when the status is
+	 * set to fail fast.
+	 */
+	static class FailFastException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		FailFastException() {
+			super(null, null, false, false);
+		}
+	}
+
+	private final int maxMessages;
+	private final boolean failFast;
+
 	private int severity = 0;
 	private List<ConversionMessage> entries = new ArrayList<>();
+	private final int[] counts = new int[MessageCode.values().length];
 
+	/**
+	 * A problem found during a conversion. The data describing the problem
+	 * is kept, and only turned into a message text when that is asked for.
+	 */
 	static class ConversionMessage {
 
-		private int severity;
+		private final MessageCode code;
+		private final YamlPath path;
+		private final String[] values;
+		private final Object detail;
 		private String message;
 
-		public ConversionMessage(int severity, String message) {
-			this.severity = severity;
+		ConversionMessage(MessageCode code, String message) {
+			this(code, null, null, null);
 			this.message = message;
 		}
 
+		/**
+		 * @param values the values assigned to the property at path. The
+		 *        array is not copied.
+		 * @param detail the key or index of the conflicting sub-property,
+		 *        if any.
+		 */
+		ConversionMessage(MessageCode code, YamlPath path, String[] values, Object detail) {
+			this.code = code;
+			this.path = path;
+			this.values = values;
+			this.detail = detail;
+		}
+
 		public int getSeverity() {
-			return severity;
+			return code.getSeverity();
+		}
+
+		public MessageCode getCode() {
+			return code;
+		}
+
+		/**
+		 * @return the property the message is about, or null if it isn't
+		 *         about a property.
+		 */
+		public YamlPath getPath() {
+			return path;
+		}
+
+		/**
+		 * @return the values assigned to the property the message is about.
+		 */
+		public List<String> getValues() {
+			return values == null ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(values));
+		}
+
+		/**
+		 * @return the key or index of the conflicting sub-property, if any.
+		 */
+		Object getDetail() {
+			return detail;
+		}
+
+		/**
+		 * @return the text of a message that isn't about a property, if it
+		 *         has one yet. Messages about a property are formatted from
+		 *         their data when asked for.
+		 */
+		String getText() {
+			return path == null ? message : null;
 		}
 
 		public String getMessage() {
-			return message;
+			String m = message;
+			if (m == null) {
+				message = m = format();
+			}
+			return m;
+		}
+
+		private String format() {
+			if (code == MessageCode.COMMENTS_LOST) {
+				return "The properties file has comments, which will be lost in the refactoring!";
+			}
+			String p = path.toPropString();
+			switch (code) {
+			case MULTIPLE_VALUES:
+				return "Multiple values " + Arrays.asList(values) + " assigned to '" + p
+						+ "'. Values will be merged into a yaml sequence node.";
+			case SCALAR_AND_MAP:
+				return "Direct assignment '" + p + "=" + values[0]
+						+ "' can not be combined " + "with sub-property assignment '" + p
+						+ "." + detail + "...'. "
+						+ "Direct assignment will be dropped!";
+			case SCALAR_AND_SEQUENCE:
+				return "Direct assignment '" + p + "=" + values[0]
+						+ "' can not be combined " + "with sequence assignment '" + p + "["
+						+ detail + "]...' "
+						+ "Direct assignments will be dropped!";
+			case SEQUENCE_AND_MAP:
+				return "'" + p
+						+ "' has some entries that look like list items and others that look like map entries. "
+						+ "All these entries will be treated as map entries";
+			default:
+				throw new IllegalStateException("No message for " + code);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return code + ": " + getMessage();
+		}
+	}
+
+	public ConversionStatus() {
+		this(DEFAULT_MAX_MESSAGES, false);
+	}
+
+	/**
+	 * @param maxMessages the number of messages to keep; further messages
+	 *        are only counted.
+	 * @param failFast whether to stop the conversion at the first error.
+	 */
+	public ConversionStatus(int maxMessages, boolean failFast) {
+		if (maxMessages < 0) {
+			throw new IllegalArgumentException("Maximum must not be negative: " + maxMessages);
 		}
+		this.maxMessages = maxMessages;
+		this.failFast = failFast;
+	}
+
+	/**
+	 * @return an empty status with the same limits as this one.
+	 */
+	ConversionStatus newStatus() {
+		return new ConversionStatus(maxMessages, failFast);
+	}
+
+	void add(MessageCode code) {
+		add(new ConversionMessage(code, null, null, null));
+	}
+
+	void add(MessageCode code, String message) {
+		add(new ConversionMessage(code, message));
 	}
 
-	void addError(String message) {
-		entries.add(new ConversionMessage(ERROR, message));
-		if (severity < ERROR) {
-			severity = ERROR;
+	/**
+	 * Reports a problem with a property. The path is only asked for if the
+	 * message is kept.
+	 */
+	void add(MessageCode code, Supplier<YamlPath> path, String[] values, Object detail) {
+		if (entries.size() < maxMessages) {
+			add(new ConversionMessage(code, path.get(), values, detail));
+		} else {
+			count(code);
 		}
 	}
 
-	void addWarning(String message) {
-		entries.add(new ConversionMessage(WARNING, message));
-		if (severity < WARNING) {
-			severity = WARNING;
+	/**
+	 * @throws FailFastException if the message is an error and this status
+	 *         fails fast.
+	 */
+	void add(ConversionMessage message) {
+		if (entries.size() < maxMessages) {
+			entries.add(message);
 		}
+		count(message.code);
 	}
 
+	private void count(MessageCode code) {
+		counts[code.ordinal()]++;
+		if (severity < code.getSeverity()) {
+			severity = code.getSeverity();
+		}
+		if (failFast && severity == ERROR) {
+			throw new FailFastException();
+		}
+	}
+
+	/**
+	 * Appends all messages of another status to this one, as far as they
+	 * fit, and adds up the counts.
+	 */
+	void addAll(ConversionStatus other) {
+		for (ConversionMessage m : other.entries) {
+			if (entries.size() >= maxMessages) {
+				break;
+			}
+			entries.add(m);
+		}
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		if (severity < other.severity) {
+			severity = other.severity;
+		}
+		if (failFast && severity == ERROR) {
+			throw new FailFastException();
+		}
+	}
+
+	/**
+	 * @return a status with the same messages and counts as this one.
+	 */
+	ConversionStatus copy() {
+		ConversionStatus copy = newStatus();
+		copy.entries.addAll(entries);
+		System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+		copy.severity = severity;
+		return copy;
+	}
+
+	/**
+	 * Restores a kept message, e.g. after reading a status back. Unlike
+	 * {@link #add(ConversionMessage)}, it isn't counted; see
+	 * {@link #setCount(MessageCode, int)}.
+	 */
+	void restore(ConversionMessage message) {
+		if (entries.size() < maxMessages) {
+			entries.add(message);
+		}
+	}
+
+	/**
+	 * Restores the count of a code, e.g. after reading a status back.
+	 */
+	void setCount(MessageCode code, int count) {
+		counts[code.ordinal()] = count;
+		if (count > 0 && severity < code.getSeverity()) {
+			severity = code.getSeverity();
+		}
+	}
+
+	/**
+	 * @return the messages kept, which are the first ones reported.
+	 */
 	public List<ConversionMessage> getEntries() {
 		return entries;
 	}
@@ -55,4 +334,39 @@ public class ConversionStatus {
 		return severity;
 	}
 
+	/**
+	 * @return the number of messages reported with the given code,
+	 *         including those that weren't kept.
+	 */
+	public int getCount(MessageCode code) {
+		return counts[code.ordinal()];
+	}
+
+	/**
+	 * @return the number of messages reported, including those that weren't
+	 *         kept.
+	 */
+	public int getMessageCount() {
+		int total = 0;
+		for (int count : counts) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * @return the number of messages that were reported but not kept.
+	 */
+	public int getDroppedCount() {
+		return getMessageCount() - entries.size();
+	}
+
+	public int getMaxMessages() {
+		return maxMessages;
+	}
+
+	public boolean isFailFast() {
+		return failFast;
+	}
+
 }
@@ -0,0 +1,122 @@
+package org.demo.propstoyaml;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Histogram of non-negative long values, e.g. latencies in nanoseconds.
+ * <p>
+ * Values are counted in buckets that are a power of two wide, each split into
+ * {@value #SUB_BUCKETS} equal parts, so percentiles are accurate to within
+ * 1/{@value #SUB_BUCKETS} of their value while the histogram itself has a
+ * small fixed size.
+ *
+ * @author Kris De Volder
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final long[] counts = new long[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+	private long count = 0;
+	private long sum = 0;
+	private long min = Long.MAX_VALUE;
+	private long max = 0;
+
+	public synchronized void record(long value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("Negative value: " + value);
+		}
+		counts[bucket(value)]++;
+		count++;
+		sum += value;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	private static int bucket(long value) {
+		int magnitude = 64 - Long.numberOfLeadingZeros(value >>> SUB_BUCKET_BITS);
+		if (magnitude == 0) {
+			return (int) value;
+		}
+		return magnitude * SUB_BUCKETS + (int) ((value >>> (magnitude - 1)) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @return the largest value that falls into a bucket.
+	 */
+	private static long highestInBucket(int bucket) {
+		int magnitude = bucket / SUB_BUCKETS;
+		long sub = bucket % SUB_BUCKETS;
+		if (magnitude == 0) {
+			return sub;
+		}
+		int shift = magnitude - 1;
+		long lowest = (SUB_BUCKETS | sub) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	public synchronized long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	public synchronized long getMax() {
+		return max;
+	}
+
+	public synchronized long getSum() {
+		return sum;
+	}
+
+	public synchronized double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * @param percentile between 0 and 100.
+	 * @return a value such that the given percentage of recorded values is
+	 *         at most that value, or 0 if nothing was recorded.
+	 */
+	public synchronized long getValueAtPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(max, Math.max(min, highestInBucket(i)));
+			}
+		}
+		return max;
+	}
+
+	public synchronized void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	/**
+	 * @return a summary, reading the values as nanoseconds.
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.format("count=%d min=%.1fms p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+				count, millis(getMin()), millis(getValueAtPercentile(50)), millis(getValueAtPercentile(90)),
+				millis(getValueAtPercentile(99)), millis(max));
+	}
+
+	private static double millis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+}
@@ -0,0 +1,463 @@
+package org.demo.propstoyaml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import org.demo.propstoyaml.PropertiesToYamlConverter.YamlConversionResult;
+import org.demo.propstoyaml.YamlPathSegment.AtIndex;
+
+/**
+ * Converts a set of properties that changes a little at a time, re-rendering
+ * only the parts of the yaml whose properties changed.
+ * <p>
+ * The converter keeps a tree of the property paths. Where a node and all its
+ * ancestors are plain maps, each of its entries is a separate fragment of the
+ * document. For each such fragment the rendered yaml text and conversion
+ * messages are cached, together with a content hash of the subtree it was
+ * rendered from. A conversion walks the map-only part of the tree, reusing
+ * every fragment whose hash is unchanged and rendering the others, and
+ * splices the fragments together. The result is the same as converting all
+ * properties with a {@link PropertiesToYamlConverter}, for which the
+ * properties are passed in the order they were first added.
+ * <p>
+ * Yaml is always written with {@link PropertiesToYamlConverter.YamlEngine#NATIVE}.
+ * The methods of this class are synchronized; an instance holds the state of
+ * one evolving set of properties.
+ *
+ * @author Kris De Volder
+ */
+public class IncrementalConverter {
+
+	/**
+	 * Dummy key used to nest a fragment at the right indentation.
+	 */
+	private static final String DUMMY = "x";
+
+	private final Map<String, Collection<String>> properties = new LinkedHashMap<>();
+	private final Node root = new Node(null, null, -1);
+
+	private int rendered = 0;
+	private int reused = 0;
+
+	/**
+	 * Makes the given properties the current ones and converts them. Only
+	 * properties that differ from the current ones are treated as changes.
+	 */
+	public synchronized YamlConversionResult convert(Map<String, ? extends Collection<String>> newProperties) {
+		Map<String, Collection<String>> changed = new LinkedHashMap<>();
+		for (Entry<String, ? extends Collection<String>> e : newProperties.entrySet()) {
+			Collection<String> old = properties.get(e.getKey());
+			if (old == null || !sameValues(old, e.getValue())) {
+				changed.put(e.getKey(), e.getValue());
+			}
+		}
+		List<String> removed = new ArrayList<>();
+		for (String key : properties.keySet()) {
+			if (!newProperties.containsKey(key)) {
+				removed.add(key);
+			}
+		}
+		return update(changed, removed);
+	}
+
+	/**
+	 * Applies changes to the current properties and converts the result.
+	 *
+	 * @param changed properties that are added, or whose values changed.
+	 * @param removed names of properties that are removed.
+	 */
+	public synchronized YamlConversionResult update(Map<String, ? extends Collection<String>> changed, Collection<String> removed) {
+		for (String key : removed) {
+			if (properties.remove(key) != null) {
+				Node node = root.descend(YamlPath.fromProperty(key));
+				node.rawKeys.remove(key);
+				node.prune();
+			}
+		}
+		for (Entry<String, ? extends Collection<String>> e : changed.entrySet()) {
+			String key = e.getKey();
+			Node node = root.descend(YamlPath.fromProperty(key));
+			if (properties.put(key, new ArrayList<>(e.getValue())) == null) {
+				node.rawKeys.add(key);
+			}
+		}
+		return convert();
+	}
+
+	/**
+	 * Converts the current properties.
+	 */
+	public synchronized YamlConversionResult convert() {
+		rendered = 0;
+		reused = 0;
+		if (root.isEmpty()) {
+			return YamlConversionResult.EMPTY;
+		}
+		ConversionStatus status = new ConversionStatus();
+		StringBuilder out = new StringBuilder();
+		if (root.isSplittable()) {
+			for (Node child : root.keyChildren.values()) {
+				appendEntry(child, 0, out, status);
+			}
+		} else {
+			YamlBuilder builder = new YamlBuilder();
+			addAll(root, builder, new ArrayList<>());
+			builder.resolve(status);
+			render(out, 0, null, builder);
+			rendered++;
+		}
+		return new YamlConversionResult(status, out.toString());
+	}
+
+	/**
+	 * @return the number of fragments rendered by the last conversion.
+	 */
+	public synchronized int getRenderedFragments() {
+		return rendered;
+	}
+
+	/**
+	 * @return the number of fragments the last conversion took from the
+	 *         cache.
+	 */
+	public synchronized int getReusedFragments() {
+		return reused;
+	}
+
+	private void appendEntry(Node node, int depth, StringBuilder out, ConversionStatus status) {
+		if (node.isSplittable()) {
+			String header = node.header(depth);
+			if (header != null) {
+				node.fragment = null;
+				out.append(header);
+				for (Node child : node.keyChildren.values()) {
+					appendEntry(child, depth + 1, out, status);
+				}
+				return;
+			}
+		}
+		long hash = node.hash();
+		Fragment fragment = node.fragment;
+		if (fragment == null || fragment.hash != hash) {
+			YamlBuilder scratch = new YamlBuilder();
+			YamlBuilder builder = scratch.descend(node.path());
+			addAll(node, builder, new ArrayList<>());
+			ConversionStatus fragmentStatus = new ConversionStatus();
+			builder.resolve(fragmentStatus);
+			StringBuilder text = new StringBuilder();
+			render(text, depth, node.key, builder);
+			node.fragment = fragment = new Fragment(hash, text.toString(), fragmentStatus);
+			rendered++;
+		} else {
+			reused++;
+		}
+		out.append(fragment.text);
+		status.addAll(fragment.status);
+	}
+
+	/**
+	 * Adds the values of all properties in a subtree to a builder.
+	 */
+	private void addAll(Node node, YamlBuilder builder, List<YamlPathSegment> relativePath) {
+		if (!node.rawKeys.isEmpty()) {
+			YamlPath path = new YamlPath(relativePath);
+			for (String rawKey : node.rawKeys) {
+				for (String value : properties.get(rawKey)) {
+					builder.addProperty(path, value);
+				}
+			}
+		}
+		for (Node child : node.children()) {
+			relativePath.add(child.segment());
+			addAll(child, builder, relativePath);
+			relativePath.remove(relativePath.size() - 1);
+		}
+	}
+
+	/**
+	 * Renders a resolved builder as the value of <code>key</code> in a map
+	 * nested <code>depth</code> levels deep, or as the whole document if key
+	 * is null.
+	 */
+	private static void render(StringBuilder out, int depth, String key, YamlBuilder builder) {
+		renderNested(out, depth, emitter -> {
+			if (key == null) {
+				builder.emit(emitter);
+			} else {
+				emitter.startMapping(false);
+				emitter.scalar(key);
+				builder.emit(emitter);
+				emitter.endMapping();
+			}
+		});
+	}
+
+	private interface EmitterAction {
+		void run(YamlEmitter emitter) throws IOException;
+	}
+
+	/**
+	 * Emits some yaml nested inside <code>depth</code> single entry maps,
+	 * then strips the lines of those maps' keys. This leaves the yaml exactly
+	 * as it appears at that depth in a document.
+	 */
+	private static void renderNested(StringBuilder out, int depth, EmitterAction action) {
+		StringBuilder buf = new StringBuilder();
+		try {
+			YamlEmitter emitter = new YamlEmitter(buf);
+			for (int i = 0; i < depth; i++) {
+				emitter.startMapping(false);
+				emitter.scalar(DUMMY);
+			}
+			action.run(emitter);
+			for (int i = 0; i < depth; i++) {
+				emitter.endMapping();
+			}
+			emitter.endDocument();
+		} catch (IOException e) {
+			//Can't happen, StringBuilder doesn't throw
+			throw new IllegalStateException(e);
+		}
+		int start = 0;
+		for (int i = 0; i < depth; i++) {
+			start = buf.indexOf("\n", start) + 1;
+		}
+		out.append(buf, start, buf.length());
+	}
+
+	private static boolean sameValues(Collection<String> a, Collection<String> b) {
+		if (a.size() != b.size()) {
+			return false;
+		}
+		Iterator<String> i = b.iterator();
+		for (String value : a) {
+			if (!Objects.equals(value, i.next())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static final class Fragment {
+		final long hash;
+		final String text;
+		final ConversionStatus status;
+
+		Fragment(long hash, String text, ConversionStatus status) {
+			this.hash = hash;
+			this.text = text;
+			this.status = status;
+		}
+	}
+
+	private final class Node {
+		final Node parent;
+		/**
+		 * The map key of this node, or null if it is a list item.
+		 */
+		final String key;
+		final int index;
+
+		/**
+		 * Names of the properties assigned to this node, in the order they
+		 * were added.
+		 */
+		final List<String> rawKeys = new ArrayList<>(1);
+		TreeMap<String, Node> keyChildren;
+		TreeMap<Integer, Node> indexChildren;
+
+		boolean dirty = true;
+		long hash;
+		Fragment fragment;
+		/**
+		 * The first line(s) of this node's entry when its value is a map,
+		 * or null if they can't be rendered separately from the entries.
+		 */
+		String header;
+		boolean headerComputed = false;
+
+		Node(Node parent, String key, int index) {
+			this.parent = parent;
+			this.key = key;
+			this.index = index;
+		}
+
+		boolean isEmpty() {
+			return rawKeys.isEmpty() && children().isEmpty();
+		}
+
+		/**
+		 * @return whether this node is certain to become a plain yaml map,
+		 *         with no conflicts of its own to resolve.
+		 */
+		boolean isSplittable() {
+			return rawKeys.isEmpty() && indexChildren == null && keyChildren != null;
+		}
+
+		List<Node> children() {
+			if (keyChildren == null && indexChildren == null) {
+				return Collections.emptyList();
+			}
+			List<Node> children = new ArrayList<>();
+			if (indexChildren != null) {
+				children.addAll(indexChildren.values());
+			}
+			if (keyChildren != null) {
+				children.addAll(keyChildren.values());
+			}
+			return children;
+		}
+
+		YamlPathSegment segment() {
+			return key == null ? YamlPathSegment.valueAt(index) : YamlPathSegment.valueAt(key);
+		}
+
+		YamlPath path() {
+			List<YamlPathSegment> segments = new ArrayList<>();
+			for (Node n = this; n.parent != null; n = n.parent) {
+				segments.add(n.segment());
+			}
+			Collections.reverse(segments);
+			return new YamlPath(segments);
+		}
+
+		/**
+		 * @return the node at the given path, creating it if needed. All
+		 *         nodes on the path are marked dirty.
+		 */
+		Node descend(YamlPath path) {
+			Node node = this;
+			node.dirty = true;
+			for (int i = 0; i < path.size(); i++) {
+				YamlPathSegment segment = path.getSegment(i);
+				Node child;
+				if (segment instanceof AtIndex) {
+					int index = ((AtIndex) segment).getIndex();
+					if (node.indexChildren == null) {
+						node.indexChildren = new TreeMap<>();
+					}
+					child = node.indexChildren.get(index);
+					if (child == null) {
+						node.indexChildren.put(index, child = new Node(node, null, index));
+					}
+				} else {
+					String key = segment.toPropString();
+					if (node.keyChildren == null) {
+						node.keyChildren = new TreeMap<>();
+					}
+					child = node.keyChildren.get(key);
+					if (child == null) {
+						node.keyChildren.put(key, child = new Node(node, key, -1));
+					}
+				}
+				node = child;
+				node.dirty = true;
+			}
+			return node;
+		}
+
+		/**
+		 * Removes this node, and then its ancestors, as long as they are
+		 * empty.
+		 */
+		void prune() {
+			Node node = this;
+			while (node.parent != null && node.isEmpty()) {
+				Node parent = node.parent;
+				if (node.key == null) {
+					parent.indexChildren.remove(node.index);
+					if (parent.indexChildren.isEmpty()) {
+						parent.indexChildren = null;
+					}
+				} else {
+					parent.keyChildren.remove(node.key);
+					if (parent.keyChildren.isEmpty()) {
+						parent.keyChildren = null;
+					}
+				}
+				node = parent;
+			}
+		}
+
+		/**
+		 * @return the content hash of this subtree, recomputed only if
+		 *         something in it changed.
+		 */
+		long hash() {
+			if (dirty) {
+				long h = 17;
+				for (String rawKey : rawKeys) {
+					for (String value : properties.get(rawKey)) {
+						h = mix(h, stringHash(value));
+					}
+				}
+				if (indexChildren != null) {
+					for (Node child : indexChildren.values()) {
+						h = mix(mix(h, child.index), child.hash());
+					}
+				}
+				if (keyChildren != null) {
+					for (Node child : keyChildren.values()) {
+						h = mix(mix(h, stringHash(child.key)), child.hash());
+					}
+				}
+				hash = h;
+				dirty = false;
+			}
+			return hash;
+		}
+
+		String header(int depth) {
+			if (!headerComputed) {
+				headerComputed = true;
+				StringBuilder buf = new StringBuilder();
+				renderNested(buf, depth, emitter -> {
+					emitter.startMapping(false);
+					emitter.scalar(key);
+					emitter.startMapping(false);
+					emitter.scalar(DUMMY);
+					emitter.scalar(DUMMY);
+					emitter.endMapping();
+					emitter.endMapping();
+				});
+				StringBuilder lastLine = new StringBuilder();
+				for (int i = 0; i <= depth; i++) {
+					lastLine.append("  ");
+				}
+				lastLine.append(DUMMY).append(": ").append(DUMMY).append('\n');
+				int end = buf.length() - lastLine.length();
+				if (end > 0 && buf.substring(end).equals(lastLine.toString()) && buf.charAt(end - 1) == '\n') {
+					header = buf.substring(0, end);
+				}
+			}
+			return header;
+		}
+	}
+
+	private static long stringHash(String s) {
+		if (s == null) {
+			return 0;
+		}
+		long h = 1125899906842597L;
+		for (int i = 0; i < s.length(); i++) {
+			h = 31 * h + s.charAt(i);
+		}
+		return h;
+	}
+
+	private static long mix(long h, long value) {
+		h ^= value;
+		h *= 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 29);
+	}
+
+}
@@ -0,0 +1,138 @@
+package org.demo.propstoyaml;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import org.demo.propstoyaml.ConversionEvents.ConversionEvent;
+import org.demo.propstoyaml.ConversionEvents.PhaseEvent;
+
+/**
+ * The Flight Recorder events behind {@link ConversionEvents}. This is the
+ * only class that refers to <code>jdk.jfr</code>, and it is only loaded
+ * once the runtime is known to have it.
+ *
+ * @author Kris De Volder
+ */
+final class JfrEvents implements ConversionEvents.Recorder {
+
+	private static final String CATEGORY = "Properties to Yaml";
+
+	@Override
+	public Object beginConversion() {
+		Conversion event = new Conversion();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public Object beginPhase() {
+		Phase event = new Phase();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public boolean shouldCommit(Object event) {
+		return ((Event) event).shouldCommit();
+	}
+
+	@Override
+	public void commit(Object event, ConversionEvent conversion) {
+		Conversion e = (Conversion) event;
+		e.engine = conversion.engine;
+		e.cached = conversion.cached;
+		e.inputBytes = conversion.inputBytes;
+		e.inputChars = conversion.inputChars;
+		e.propertyCount = conversion.propertyCount;
+		e.nodeCount = conversion.nodeCount;
+		e.outputChars = conversion.outputChars;
+		e.severity = conversion.severity;
+		e.messageCount = conversion.messageCount;
+		e.parsePathsNanos = conversion.parsePathsNanos;
+		e.buildTreeNanos = conversion.buildTreeNanos;
+		e.commit();
+	}
+
+	@Override
+	public void commit(Object event, PhaseEvent phase) {
+		Phase e = (Phase) event;
+		e.phase = phase.phase;
+		e.propertyCount = phase.propertyCount;
+		e.commit();
+	}
+
+	@Name("org.demo.propstoyaml.Conversion")
+	@Label("Conversion")
+	@Category(CATEGORY)
+	@Description("A call to one of the convert methods of a PropertiesToYamlConverter")
+	@StackTrace(false)
+	static class Conversion extends Event {
+
+		@Label("Engine")
+		String engine;
+
+		@Label("Cached")
+		@Description("Whether the result was taken from a conversion cache")
+		boolean cached;
+
+		@Label("Input Size")
+		@Description("Size of the input file, or -1 if the input wasn't a file")
+		@DataAmount
+		long inputBytes = -1;
+
+		@Label("Input Characters")
+		long inputChars = -1;
+
+		@Label("Properties")
+		int propertyCount;
+
+		@Label("Nodes")
+		int nodeCount;
+
+		@Label("Output Characters")
+		long outputChars;
+
+		@Label("Severity")
+		String severity;
+
+		@Label("Messages")
+		int messageCount;
+
+		@Label("Path Parsing Time")
+		@Description("Time spent parsing property names, summed over all properties")
+		@Timespan
+		long parsePathsNanos;
+
+		@Label("Tree Building Time")
+		@Description("Time spent adding values to the property tree, summed over all properties")
+		@Timespan
+		long buildTreeNanos;
+	}
+
+	@Name("org.demo.propstoyaml.ConversionPhase")
+	@Label("Conversion Phase")
+	@Category(CATEGORY)
+	@Description("A phase of a conversion: loading the properties, building the yaml tree or emitting the yaml")
+	@StackTrace(false)
+	static class Phase extends Event {
+
+		@Label("Phase")
+		String phase;
+
+		@Label("Properties")
+		int propertyCount;
+	}
+
+}
@@ -0,0 +1,175 @@
+package org.demo.propstoyaml;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.demo.propstoyaml.ConversionMetrics.Phase;
+import org.demo.propstoyaml.ConversionStatus.MessageCode;
+
+/**
+ * {@link ConversionListener} that aggregates the metrics of all conversions
+ * in memory: a {@link Histogram} of the time spent per phase and in total,
+ * and totals of the counters. {@link #scrape()} renders them as text in the
+ * Prometheus exposition format.
+ *
+ * @author Kris De Volder
+ */
+public class MetricsRecorder implements ConversionListener {
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+	private final Histogram total = new Histogram();
+	private final Histogram[] phases = new Histogram[Phase.values().length];
+	private final LongAdder conversions = new LongAdder();
+	private final LongAdder cached = new LongAdder();
+	private final LongAdder properties = new LongAdder();
+	private final LongAdder nodes = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder charsIn = new LongAdder();
+	private final LongAdder charsOut = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final Histogram depths = new Histogram();
+	private final LongAdder[] messages = new LongAdder[MessageCode.values().length];
+
+	public MetricsRecorder() {
+		for (int i = 0; i < phases.length; i++) {
+			phases[i] = new Histogram();
+		}
+		for (int i = 0; i < messages.length; i++) {
+			messages[i] = new LongAdder();
+		}
+	}
+
+	@Override
+	public void conversionFinished(ConversionMetrics metrics) {
+		conversions.increment();
+		total.record(metrics.getTotalNanos());
+		for (MessageCode code : MessageCode.values()) {
+			messages[code.ordinal()].add(metrics.getStatus().getCount(code));
+		}
+		addIfKnown(bytesIn, metrics.getBytesIn());
+		addIfKnown(charsIn, metrics.getCharsIn());
+		if (metrics.isCached()) {
+			cached.increment();
+			return;
+		}
+		for (Phase phase : Phase.values()) {
+			phases[phase.ordinal()].record(metrics.getNanos(phase));
+		}
+		properties.add(metrics.getPropertyCount());
+		nodes.add(metrics.getNodeCount());
+		depths.record(metrics.getMaxDepth());
+		charsOut.add(metrics.getCharsOut());
+		addIfKnown(bytesOut, metrics.getBytesOut());
+	}
+
+	private static void addIfKnown(LongAdder adder, long value) {
+		if (value >= 0) {
+			adder.add(value);
+		}
+	}
+
+	/**
+	 * @return the total times of the conversions, in nanoseconds.
+	 */
+	public Histogram getTotalTimes() {
+		return total;
+	}
+
+	/**
+	 * @return the times spent in a phase, in nanoseconds. Conversions taken
+	 *         from a cache are not included.
+	 */
+	public Histogram getPhaseTimes(Phase phase) {
+		return phases[phase.ordinal()];
+	}
+
+	/**
+	 * @return the maximum depths of the property trees.
+	 */
+	public Histogram getDepths() {
+		return depths;
+	}
+
+	public long getConversionCount() {
+		return conversions.sum();
+	}
+
+	public long getCachedCount() {
+		return cached.sum();
+	}
+
+	public long getPropertyCount() {
+		return properties.sum();
+	}
+
+	public long getNodeCount() {
+		return nodes.sum();
+	}
+
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	public long getCharsIn() {
+		return charsIn.sum();
+	}
+
+	public long getCharsOut() {
+		return charsOut.sum();
+	}
+
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	public long getMessageCount(MessageCode code) {
+		return messages[code.ordinal()].sum();
+	}
+
+	/**
+	 * @return all metrics in the Prometheus text format, with times in
+	 *         seconds.
+	 */
+	public String scrape() {
+		StringBuilder out = new StringBuilder();
+		summary(out, "propstoyaml_conversion_seconds", "", total, 1e-9);
+		for (Phase phase : Phase.values()) {
+			summary(out, "propstoyaml_phase_seconds", "phase=\"" + phase.name().toLowerCase() + "\",",
+					phases[phase.ordinal()], 1e-9);
+		}
+		summary(out, "propstoyaml_tree_depth", "", depths, 1);
+		counter(out, "propstoyaml_conversions_total", "", getConversionCount());
+		counter(out, "propstoyaml_cached_conversions_total", "", getCachedCount());
+		counter(out, "propstoyaml_properties_total", "", getPropertyCount());
+		counter(out, "propstoyaml_nodes_total", "", getNodeCount());
+		counter(out, "propstoyaml_input_bytes_total", "", getBytesIn());
+		counter(out, "propstoyaml_input_chars_total", "", getCharsIn());
+		counter(out, "propstoyaml_output_chars_total", "", getCharsOut());
+		counter(out, "propstoyaml_output_bytes_total", "", getBytesOut());
+		for (MessageCode code : MessageCode.values()) {
+			counter(out, "propstoyaml_messages_total", "code=\"" + code.name().toLowerCase() + "\"",
+					getMessageCount(code));
+		}
+		return out.toString();
+	}
+
+	private static void summary(StringBuilder out, String name, String labels, Histogram histogram, double scale) {
+		for (double q : QUANTILES) {
+			out.append(name).append('{').append(labels).append("quantile=\"").append(q).append("\"} ")
+					.append(histogram.getValueAtPercentile(q * 100) * scale).append('\n');
+		}
+		String braces = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+		out.append(name).append("_sum").append(braces).append(' ')
+				.append(histogram.getSum() * scale).append('\n');
+		out.append(name).append("_count").append(braces).append(' ').append(histogram.getCount()).append('\n');
+	}
+
+	private static void counter(StringBuilder out, String name, String labels, long value) {
+		out.append(name);
+		if (!labels.isEmpty()) {
+			out.append('{').append(labels).append('}');
+		}
+		out.append(' ').append(value).append('\n');
+	}
+
+}
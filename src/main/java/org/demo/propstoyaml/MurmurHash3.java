@@ -0,0 +1,136 @@
+package org.demo.propstoyaml;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Incremental 128-bit MurmurHash3 (the x64 variant). Input can be fed in
+ * pieces of any size; the hash is the same as for the concatenated bytes.
+ * Characters are hashed as their two UTF-16 bytes, low byte first.
+ *
+ * @author Kris De Volder
+ */
+final class MurmurHash3 {
+
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	private long h1;
+	private long h2;
+	private long length = 0;
+	private final ByteBuffer buffer = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+
+	MurmurHash3(long seed) {
+		h1 = seed;
+		h2 = seed;
+	}
+
+	MurmurHash3 update(ByteBuffer in) {
+		ByteOrder order = in.order();
+		in.order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			if (buffer.position() > 0) {
+				while (buffer.position() % 16 != 0 && in.hasRemaining()) {
+					buffer.put(in.get());
+				}
+				drain();
+			}
+			while (in.remaining() >= 16) {
+				block(in.getLong(), in.getLong());
+				length += 16;
+			}
+			buffer.put(in);
+		} finally {
+			in.order(order);
+		}
+		return this;
+	}
+
+	MurmurHash3 update(CharSequence chars) {
+		for (int i = 0; i < chars.length(); i++) {
+			if (!buffer.hasRemaining()) {
+				drain();
+			}
+			buffer.putChar(chars.charAt(i));
+		}
+		return this;
+	}
+
+	/**
+	 * Hashes all complete blocks in the buffer, keeping the remainder.
+	 */
+	private void drain() {
+		buffer.flip();
+		while (buffer.remaining() >= 16) {
+			block(buffer.getLong(), buffer.getLong());
+			length += 16;
+		}
+		buffer.compact();
+	}
+
+	private void block(long k1, long k2) {
+		h1 ^= mixK1(k1);
+		h1 = Long.rotateLeft(h1, 27);
+		h1 += h2;
+		h1 = h1 * 5 + 0x52dce729;
+		h2 ^= mixK2(k2);
+		h2 = Long.rotateLeft(h2, 31);
+		h2 += h1;
+		h2 = h2 * 5 + 0x38495ab5;
+	}
+
+	/**
+	 * @return the two 64-bit halves of the hash. The hasher can't be used
+	 *         any more afterwards.
+	 */
+	long[] finish() {
+		drain();
+		int n = buffer.position();
+		length += n;
+		long k1 = 0;
+		long k2 = 0;
+		for (int i = n - 1; i >= 8; i--) {
+			k2 = (k2 << 8) | (buffer.get(i) & 0xFF);
+		}
+		for (int i = Math.min(n, 8) - 1; i >= 0; i--) {
+			k1 = (k1 << 8) | (buffer.get(i) & 0xFF);
+		}
+		if (n > 8) {
+			h2 ^= mixK2(k2);
+		}
+		if (n > 0) {
+			h1 ^= mixK1(k1);
+		}
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix(h1);
+		h2 = fmix(h2);
+		h1 += h2;
+		h2 += h1;
+		return new long[] { h1, h2 };
+	}
+
+	private static long mixK1(long k1) {
+		k1 *= C1;
+		k1 = Long.rotateLeft(k1, 31);
+		return k1 * C2;
+	}
+
+	private static long mixK2(long k2) {
+		k2 *= C2;
+		k2 = Long.rotateLeft(k2, 33);
+		return k2 * C1;
+	}
+
+	private static long fmix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+}
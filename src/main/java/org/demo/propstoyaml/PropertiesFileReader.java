@@ -0,0 +1,173 @@
+package org.demo.propstoyaml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reader for .properties files that does not copy the file onto the heap.
+ * <p>
+ * Large files are memory-mapped a window at a time, small files are read in
+ * chunks into a direct buffer. Either way the bytes are only decoded when
+ * the lexer asks for the next run of characters, so the memory used does not
+ * grow with the size of the file. Malformed input is replaced, the same as
+ * {@link java.io.InputStreamReader} does.
+ *
+ * @author Kris De Volder
+ */
+class PropertiesFileReader extends Reader {
+
+	/**
+	 * Files at least this big are memory-mapped rather than read in chunks.
+	 */
+	static final long MAP_THRESHOLD = 1 << 20;
+
+	private static final long MAP_WINDOW = 1 << 26;
+	private static final int CHUNK_SIZE = 8192;
+
+	private final FileChannel channel;
+	private final long size;
+	private final boolean mapped;
+	private final boolean latin1;
+	private final CharsetDecoder decoder;
+
+	/**
+	 * Bytes waiting to be decoded. When mapped, this is the current window
+	 * of the file, which starts at windowStart.
+	 */
+	private ByteBuffer bytes;
+	private long windowStart = 0;
+	private boolean eof = false;
+	private boolean flushed = false;
+
+	private final char[] pair = new char[2];
+	private int pairOff = 0;
+	private int pairLen = 0;
+
+	PropertiesFileReader(File file, Charset charset) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			this.size = channel.size();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		this.mapped = size >= MAP_THRESHOLD;
+		this.latin1 = StandardCharsets.ISO_8859_1.equals(charset);
+		this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		if (mapped) {
+			bytes = ByteBuffer.allocate(0);
+		} else {
+			bytes = ByteBuffer.allocateDirect(CHUNK_SIZE);
+			bytes.flip();
+		}
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (latin1) {
+			return readLatin1(cbuf, off, len);
+		}
+		if (pairOff < pairLen) {
+			cbuf[off] = pair[pairOff++];
+			return 1;
+		}
+		if (flushed) {
+			return -1;
+		}
+		if (len == 1) {
+			//A surrogate pair would not fit, so decode into a buffer that it fits into.
+			int n = read(pair, 0, 2);
+			if (n < 0) {
+				return -1;
+			}
+			pairOff = 1;
+			pairLen = n;
+			cbuf[off] = pair[0];
+			return 1;
+		}
+		CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+		while (true) {
+			CoderResult result = decoder.decode(bytes, out, eof);
+			if (result.isError()) {
+				result.throwException();
+			}
+			if (out.position() > off) {
+				return out.position() - off;
+			}
+			if (eof) {
+				if (!flushed) {
+					flushed = true;
+					decoder.flush(out);
+					if (out.position() > off) {
+						return out.position() - off;
+					}
+				}
+				return -1;
+			}
+			fill();
+		}
+	}
+
+	/**
+	 * Every byte is a character in ISO-8859-1, so there is no need to go
+	 * through the decoder.
+	 */
+	private int readLatin1(char[] cbuf, int off, int len) throws IOException {
+		while (!bytes.hasRemaining()) {
+			if (eof) {
+				return -1;
+			}
+			fill();
+		}
+		int n = Math.min(len, bytes.remaining());
+		ByteBuffer in = bytes;
+		for (int i = 0; i < n; i++) {
+			cbuf[off + i] = (char) (in.get() & 0xFF);
+		}
+		return n;
+	}
+
+	/**
+	 * Makes more bytes available, keeping any that have not been decoded yet
+	 * (e.g. the start of a multi-byte sequence), or sets eof.
+	 */
+	private void fill() throws IOException {
+		if (mapped) {
+			if (windowStart + bytes.limit() >= size) {
+				eof = true;
+			} else {
+				windowStart += bytes.position();
+				bytes = channel.map(MapMode.READ_ONLY, windowStart, Math.min(MAP_WINDOW, size - windowStart));
+			}
+		} else {
+			bytes.compact();
+			int read = channel.read(bytes);
+			bytes.flip();
+			if (read < 0) {
+				eof = true;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
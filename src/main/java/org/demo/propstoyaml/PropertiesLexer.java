@@ -0,0 +1,253 @@
+package org.demo.propstoyaml;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Single pass lexer for the .properties file format.
+ * <p>
+ * Follows the same rules as {@link java.util.Properties#load(Reader)} (logical
+ * lines with '\' continuations, '=', ':' and whitespace separators,
+ * backslash escapes and &#92;uXXXX unicode escapes), but rather than
+ * collecting the entries into a Hashtable it hands each key/value pair to a
+ * {@link Handler} as soon as it has been read. Comment lines are reported to
+ * the handler in the same pass.
+ *
+ * @author Kris De Volder
+ */
+class PropertiesLexer {
+
+	interface Handler {
+		void property(String key, String value);
+
+		/**
+		 * Called for every comment line with the text of the line, starting
+		 * at the '#' or '!' marker. The text is only valid during the call.
+		 */
+		void comment(CharSequence text);
+	}
+
+	private final Reader reader;
+	private final char[] inBuf = new char[8192];
+	private int inOff = 0;
+	private int inLimit = 0;
+
+	private char[] lineBuf = new char[1024];
+	private final StringBuilder commentBuf = new StringBuilder();
+	private final StringBuilder convertBuf = new StringBuilder();
+
+	PropertiesLexer(Reader reader) {
+		this.reader = reader;
+	}
+
+	public void parse(Handler handler) throws IOException {
+		int limit;
+		while ((limit = readLine(handler)) >= 0) {
+			char[] line = lineBuf;
+			int keyLen = 0;
+			int valueStart = limit;
+			boolean hasSep = false;
+			boolean precedingBackslash = false;
+			while (keyLen < limit) {
+				char c = line[keyLen];
+				if ((c == '=' || c == ':') && !precedingBackslash) {
+					valueStart = keyLen + 1;
+					hasSep = true;
+					break;
+				} else if ((c == ' ' || c == '\t' || c == '\f') && !precedingBackslash) {
+					valueStart = keyLen + 1;
+					break;
+				}
+				precedingBackslash = c == '\\' ? !precedingBackslash : false;
+				keyLen++;
+			}
+			while (valueStart < limit) {
+				char c = line[valueStart];
+				if (c != ' ' && c != '\t' && c != '\f') {
+					if (!hasSep && (c == '=' || c == ':')) {
+						hasSep = true;
+					} else {
+						break;
+					}
+				}
+				valueStart++;
+			}
+			String key = unescape(line, 0, keyLen);
+			String value = unescape(line, valueStart, limit - valueStart);
+			handler.property(key, value);
+		}
+	}
+
+	/**
+	 * Reads the next logical line into lineBuf, skipping (and reporting)
+	 * comments and blank lines along the way.
+	 *
+	 * @return the length of the logical line or -1 at the end of the input.
+	 */
+	private int readLine(Handler handler) throws IOException {
+		int len = 0;
+		int off = inOff;
+		int limit = inLimit;
+		char[] buf = inBuf;
+		boolean skipWhiteSpace = true;
+		boolean appendedLineBegin = false;
+		boolean precedingBackslash = false;
+
+		while (true) {
+			if (off >= limit) {
+				inLimit = limit = reader.read(buf);
+				off = 0;
+				if (limit <= 0) {
+					inOff = 0;
+					inLimit = 0;
+					if (len == 0) {
+						return -1;
+					}
+					return precedingBackslash ? len - 1 : len;
+				}
+			}
+			char c = buf[off++];
+
+			if (skipWhiteSpace) {
+				if (c == ' ' || c == '\t' || c == '\f') {
+					continue;
+				}
+				if (!appendedLineBegin && (c == '\r' || c == '\n')) {
+					continue;
+				}
+				skipWhiteSpace = false;
+				appendedLineBegin = false;
+			}
+			if (len == 0 && (c == '#' || c == '!')) {
+				//Comment: consume the rest of the natural line.
+				commentBuf.setLength(0);
+				commentBuf.append(c);
+				boolean eof = false;
+				commentLoop: while (true) {
+					int start = off;
+					while (off < limit) {
+						c = buf[off];
+						if (c == '\r' || c == '\n') {
+							commentBuf.append(buf, start, off - start);
+							off++;
+							break commentLoop;
+						}
+						off++;
+					}
+					commentBuf.append(buf, start, off - start);
+					inLimit = limit = reader.read(buf);
+					off = 0;
+					if (limit <= 0) {
+						inLimit = 0;
+						eof = true;
+						break;
+					}
+				}
+				handler.comment(commentBuf);
+				if (eof) {
+					inOff = 0;
+					return -1;
+				}
+				skipWhiteSpace = true;
+				continue;
+			}
+
+			if (c != '\n' && c != '\r') {
+				if (len == lineBuf.length) {
+					char[] newBuf = new char[len * 2];
+					System.arraycopy(lineBuf, 0, newBuf, 0, len);
+					lineBuf = newBuf;
+				}
+				lineBuf[len++] = c;
+				precedingBackslash = c == '\\' ? !precedingBackslash : false;
+			} else {
+				//Reached end of a natural line
+				if (len == 0) {
+					skipWhiteSpace = true;
+					continue;
+				}
+				if (off >= limit) {
+					inLimit = limit = reader.read(buf);
+					off = 0;
+					if (limit <= 0) {
+						inOff = 0;
+						inLimit = 0;
+						return precedingBackslash ? len - 1 : len;
+					}
+				}
+				if (precedingBackslash) {
+					//Continuation: drop the backslash and the leading whitespace of the next line.
+					len -= 1;
+					skipWhiteSpace = true;
+					appendedLineBegin = true;
+					precedingBackslash = false;
+					if (c == '\r' && buf[off] == '\n') {
+						off++;
+					}
+				} else {
+					inOff = off;
+					return len;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Resolves backslash escapes (including &#92;uXXXX) in a key or value.
+	 */
+	private String unescape(char[] in, int off, int len) {
+		int end = off + len;
+		int start = off;
+		while (off < end && in[off] != '\\') {
+			off++;
+		}
+		if (off == end) {
+			return new String(in, start, len);
+		}
+		StringBuilder out = convertBuf;
+		out.setLength(0);
+		out.append(in, start, off - start);
+		while (off < end) {
+			char c = in[off++];
+			if (c == '\\') {
+				c = in[off++];
+				if (c == 'u') {
+					if (off > end - 4) {
+						throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+					}
+					int value = 0;
+					for (int i = 0; i < 4; i++) {
+						value = (value << 4) + hexValue(in[off++]);
+					}
+					out.append((char) value);
+				} else {
+					if (c == 't') {
+						c = '\t';
+					} else if (c == 'r') {
+						c = '\r';
+					} else if (c == 'n') {
+						c = '\n';
+					} else if (c == 'f') {
+						c = '\f';
+					}
+					out.append(c);
+				}
+			} else {
+				out.append(c);
+			}
+		}
+		return out.toString();
+	}
+
+	private static int hexValue(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		} else if (c >= 'a' && c <= 'f') {
+			return 10 + c - 'a';
+		} else if (c >= 'A' && c <= 'F') {
+			return 10 + c - 'A';
+		}
+		throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+	}
+
+}
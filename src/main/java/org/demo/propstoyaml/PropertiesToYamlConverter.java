@@ -10,25 +10,33 @@
  *******************************************************************************/
 package org.demo.propstoyaml;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FilterReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.StringReader;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.Set;
-import java.util.TreeMap;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
-import org.demo.propstoyaml.YamlPathSegment.AtIndex;
+import org.demo.propstoyaml.ConversionEvents.ConversionEvent;
+import org.demo.propstoyaml.ConversionEvents.PhaseEvent;
+import org.demo.propstoyaml.ConversionMetrics.Phase;
+import org.demo.propstoyaml.ConversionStatus.FailFastException;
+import org.demo.propstoyaml.ConversionStatus.MessageCode;
 import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.Yaml;
 
@@ -40,160 +48,836 @@ import org.yaml.snakeyaml.Yaml;
  */
 public class PropertiesToYamlConverter {
 
-	private ConversionStatus status = new ConversionStatus();
-	private String output;
-	private static final Pattern COMMENT = Pattern.compile("(?m)^\\s*(\\#|\\!)");
+	/**
+	 * The engine used to turn the properties into yaml text.
+	 */
+	public enum YamlEngine {
+		/**
+		 * Walks the property tree and writes the yaml directly. Produces the
+		 * same output as {@link #SNAKEYAML}, only faster.
+		 */
+		NATIVE,
+		/**
+		 * Builds a graph of Maps, Lists and Strings and dumps it with SnakeYAML.
+		 */
+		SNAKEYAML,
+		/**
+		 * Doesn't build a property tree at all, but sorts the properties by
+		 * path and writes the yaml in a single sweep over them. Produces the
+		 * same output as {@link #NATIVE}, but can't preserve comments.
+		 */
+		SWEEP
+	}
+
+	/**
+	 * The order in which the entries of a yaml map are written. Sequences are
+	 * always written in index order.
+	 */
+	public enum KeyOrder {
+		/**
+		 * By key, list items that became map entries by their index. This
+		 * is the default.
+		 */
+		SORTED,
+		/**
+		 * In the order the keys were first assigned in. For a .properties
+		 * file that is the order in the file; for {@link Properties} and
+		 * Maps, the order they iterate in. Not supported by the
+		 * {@link YamlEngine#SWEEP} engine.
+		 */
+		INSERTION,
+		/**
+		 * In no particular order, whichever is cheapest. The tree based
+		 * engines keep the order the keys were first assigned in, the
+		 * {@link YamlEngine#SWEEP} engine orders them by hash code.
+		 */
+		HASH
+	}
+
+	/**
+	 * Builder for a converter with options other than the defaults.
+	 */
+	public static class Builder {
+		private YamlEngine engine = YamlEngine.NATIVE;
+		private Charset charset = Charset.defaultCharset();
+		private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+		private ConversionCache cache = null;
+		private int maxMessages = ConversionStatus.DEFAULT_MAX_MESSAGES;
+		private boolean failFast = false;
+		private ConversionListener listener = ConversionListener.NONE;
+		private boolean preserveComments = false;
+		private long memoryBudget = Long.MAX_VALUE;
+		private KeyOrder keyOrder = KeyOrder.SORTED;
+
+		private Builder() {
+		}
+
+		public Builder engine(YamlEngine engine) {
+			this.engine = engine;
+			return this;
+		}
+
+		/**
+		 * Sets the encoding of .properties files, which defaults to the
+		 * platform's default charset.
+		 */
+		public Builder charset(Charset charset) {
+			this.charset = charset;
+			return this;
+		}
+
+		/**
+		 * Sets the number of properties from which on a subtree is resolved
+		 * by parallel fork/join tasks. The output and messages are the same
+		 * either way. Use {@link Integer#MAX_VALUE} to never go parallel.
+		 */
+		public Builder parallelThreshold(int parallelThreshold) {
+			if (parallelThreshold < 1) {
+				throw new IllegalArgumentException("Threshold must be at least 1: " + parallelThreshold);
+			}
+			this.parallelThreshold = parallelThreshold;
+			return this;
+		}
+
+		/**
+		 * Sets a cache for the results of {@link PropertiesToYamlConverter#convert(File)}
+		 * and {@link PropertiesToYamlConverter#convert(String)}, so that
+		 * content that was converted before isn't converted again. By default
+		 * there is no cache.
+		 */
+		public Builder cache(ConversionCache cache) {
+			this.cache = cache;
+			return this;
+		}
+
+		/**
+		 * Sets the number of messages kept in the status of a conversion.
+		 * Further messages are only counted, see
+		 * {@link ConversionStatus#getCount(ConversionStatus.MessageCode)}.
+		 */
+		public Builder maxMessages(int maxMessages) {
+			if (maxMessages < 0) {
+				throw new IllegalArgumentException("Maximum must not be negative: " + maxMessages);
+			}
+			this.maxMessages = maxMessages;
+			return this;
+		}
+
+		/**
+		 * Makes conversions stop at the first error. The status of the
+		 * result then holds that error, and the yaml is empty.
+		 */
+		public Builder failFast(boolean failFast) {
+			this.failFast = failFast;
+			return this;
+		}
+
+		/**
+		 * Sets a listener that gets the {@link ConversionMetrics} of every
+		 * conversion. By default there is none, and nothing is measured.
+		 */
+		public Builder listener(ConversionListener listener) {
+			this.listener = listener;
+			return this;
+		}
+
+		/**
+		 * Sets whether comments in a .properties file are carried over into
+		 * the yaml, above the node of the property that follows them. Only
+		 * the {@link YamlEngine#NATIVE} engine can write comments; with
+		 * SnakeYAML they are still lost. Off by default.
+		 */
+		public Builder preserveComments(boolean preserveComments) {
+			this.preserveComments = preserveComments;
+			return this;
+		}
+
+		/**
+		 * Sets the rough number of bytes the properties of a conversion may
+		 * take in memory. Beyond that, the {@link YamlEngine#SWEEP} engine
+		 * spills them in sorted runs to temp files, and merges those back
+		 * while writing the yaml, which is the same either way. The other
+		 * engines need the whole property tree in memory and ignore the
+		 * budget. Unlimited by default.
+		 */
+		public Builder memoryBudget(long memoryBudget) {
+			if (memoryBudget < 1) {
+				throw new IllegalArgumentException("Budget must be at least 1: " + memoryBudget);
+			}
+			this.memoryBudget = memoryBudget;
+			return this;
+		}
+
+		/**
+		 * Sets the order in which map entries are written, see
+		 * {@link KeyOrder}. The {@link YamlEngine#SWEEP} engine can't keep
+		 * the insertion order; building such a converter fails with an
+		 * IllegalArgumentException.
+		 */
+		public Builder keyOrder(KeyOrder keyOrder) {
+			this.keyOrder = keyOrder;
+			return this;
+		}
+
+		public PropertiesToYamlConverter build() {
+			if (engine == YamlEngine.SWEEP && keyOrder == KeyOrder.INSERTION) {
+				throw new IllegalArgumentException("The " + engine + " engine can't write keys in " + keyOrder + " order");
+			}
+			return new PropertiesToYamlConverter(this);
+		}
+	}
+
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 100000;
+
+	private final YamlEngine engine;
+	private final Charset charset;
+	private final int parallelThreshold;
+	private final ConversionCache cache;
+	private final int maxMessages;
+	private final boolean failFast;
+	private final ConversionListener listener;
+	private final boolean preserveComments;
+	private final long memoryBudget;
+	private final KeyOrder keyOrder;
+
+	/**
+	 * SnakeYAML's Yaml can't be used by more than one thread at a time, so
+	 * each thread gets one of its own.
+	 */
+	private final ThreadLocal<Yaml> snakeYaml;
+
+	private volatile YamlConversionResult lastResult = new YamlConversionResult(ConversionStatus.EMPTY, null);
+
+	public static Builder builder() {
+		return new Builder();
+	}
 
 	public PropertiesToYamlConverter() {
+		this(YamlEngine.NATIVE);
+	}
+
+	public PropertiesToYamlConverter(YamlEngine engine) {
+		this(builder().engine(engine));
+	}
+
+	private PropertiesToYamlConverter(Builder builder) {
+		this.engine = builder.engine;
+		this.charset = builder.charset;
+		this.parallelThreshold = builder.parallelThreshold;
+		this.cache = builder.cache;
+		this.maxMessages = builder.maxMessages;
+		this.failFast = builder.failFast;
+		this.listener = builder.listener;
+		this.preserveComments = builder.preserveComments && builder.engine == YamlEngine.NATIVE;
+		this.memoryBudget = builder.memoryBudget;
+		this.keyOrder = builder.keyOrder;
+		DumperOptions options = new DumperOptions();
+		options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+		options.setPrettyFlow(true);
+		this.snakeYaml = ThreadLocal.withInitial(() -> new Yaml(options));
 	}
-	
+
+	public YamlEngine getEngine() {
+		return engine;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	public KeyOrder getKeyOrder() {
+		return keyOrder;
+	}
+
 	public YamlConversionResult convert(File f) {
-		Properties p = new Properties();
-		try {
-			String content = new String(Files.readAllBytes(Paths.get(f.toURI())));
-			if (hasComments(content)) {
-				status.addWarning("The properties file has comments, which will be lost in the refactoring!");
+		return convert(f, charset);
+	}
+
+	/**
+	 * Converts a .properties file whose contents are encoded with the given
+	 * charset, e.g. {@link java.nio.charset.StandardCharsets#ISO_8859_1} as used by
+	 * {@link Properties#load(java.io.InputStream)}.
+	 */
+	public YamlConversionResult convert(File f, Charset charset) {
+		if (cache != null) {
+			//Read once, so the result is of the content that was hashed.
+			byte[] content;
+			try {
+				content = Files.readAllBytes(f.toPath());
+			} catch (IOException e) {
+				return new Conversion().load(f, charset).toResult();
 			}
-			p.load(new StringReader(content));
-		} catch (IOException e) {
-			status.addError("Problem loading file "+f+": "+e.getMessage());
+			return cached(ConversionCache.key("file:" + options() + ":" + charset.name(), content),
+					() -> new Conversion().load(content, charset).toResult());
 		}
-		return convert(p);
+		return new Conversion().load(f, charset).toResult();
 	}
-	
+
 	public YamlConversionResult convert(String properties) {
-		Properties p = new Properties();
-		try {
-			p.load(new StringReader(properties));
-		} catch (IOException e) {
-			status.addError("Problem processing properties: "+e.getMessage());
+		if (cache != null) {
+			return cached(ConversionCache.key("string:" + options(), properties),
+					() -> new Conversion().load(properties).toResult());
 		}
-		return convert(p);
+		return new Conversion().load(properties).toResult();
 	}
 
-	public YamlConversionResult convert(Properties p) {
-		Map<String, Collection<String>> propertiesMap = new HashMap<>();
-		for (Entry<Object, Object> e : p.entrySet()) {
-			Set<String> s = new LinkedHashSet<>();
-			s.add((String) e.getValue());
-			propertiesMap.put((String) e.getKey(), s);
+	/**
+	 * @return an empty status for a conversion with this converter's
+	 *         options.
+	 */
+	private ConversionStatus newStatus() {
+		return new ConversionStatus(maxMessages, failFast);
+	}
+
+	/**
+	 * @return the options that affect the result of a conversion.
+	 */
+	private String options() {
+		return engine + ":" + maxMessages + ":" + failFast + ":" + preserveComments + ":" + keyOrder;
+	}
+
+	/**
+	 * Looks up a result in the cache, converting and caching it on a miss.
+	 * The options in the key are those that affect the result; the parallel
+	 * threshold and the memory budget don't.
+	 *
+	 * Results with an {@link MessageCode#IO_ERROR} aren't cached, as they
+	 * don't depend on the content alone.
+	 */
+	private YamlConversionResult cached(ConversionCache.Key key, Supplier<YamlConversionResult> conversion) {
+		long start = listener == ConversionListener.NONE ? 0 : System.nanoTime();
+		ConversionEvent event = new ConversionEvent();
+		event.begin();
+		YamlConversionResult result = cache.get(key, this::newStatus);
+		if (result != null) {
+			lastResult = result;
+			if (listener != ConversionListener.NONE) {
+				ConversionMetrics metrics = new ConversionMetrics(start);
+				metrics.finish(result.getStatus(), true);
+				listener.conversionFinished(metrics);
+			}
+			if (event.shouldCommit()) {
+				event.engine = engine.name();
+				event.cached = true;
+				event.outputChars = result.getYaml().length();
+				event.setStatus(result.getStatus());
+				event.commit();
+			}
+			return result;
+		}
+		result = conversion.get();
+		if (result.getStatus().getCount(MessageCode.IO_ERROR) == 0) {
+			cache.put(key, result);
 		}
-		return convert(propertiesMap);
+		return result;
+	}
+
+	public YamlConversionResult convert(Properties p) {
+		return new Conversion().load(p).toResult();
 	}
 
 	public YamlConversionResult convert(Map<String, Collection<String>> properties) {
-		if (properties.isEmpty()) {
-			output = "";
-			return YamlConversionResult.EMPTY;
+		return new Conversion().load(properties).toResult();
+	}
+
+	/**
+	 * Checks whether a .properties file converts cleanly. The status holds
+	 * the same problems a conversion with this converter would report, but
+	 * no yaml, nor anything else to write it from, is produced.
+	 */
+	public ConversionStatus validate(File f) {
+		return new Conversion().load(f, charset).validate();
+	}
+
+	public ConversionStatus validate(String properties) {
+		return new Conversion().load(properties).validate();
+	}
+
+	public ConversionStatus validate(Properties p) {
+		return new Conversion().load(p).validate();
+	}
+
+	public ConversionStatus validate(Map<String, Collection<String>> properties) {
+		return new Conversion().load(properties).validate();
+	}
+
+	/**
+	 * Converts a .properties file and streams the resulting yaml into
+	 * <code>out</code>, without ever holding the complete yaml text in memory.
+	 * Problems writing the output are reported in the status of the result.
+	 */
+	public YamlWriteResult convert(File f, Appendable out) {
+		return new Conversion().load(f, charset).write(YamlOutput.to(out));
+	}
+
+	/**
+	 * Like {@link #convert(File, Appendable)}, but writes the yaml as UTF-8
+	 * encoded bytes. The stream is flushed, but not closed.
+	 */
+	public YamlWriteResult convert(File f, OutputStream out) {
+		return new Conversion().load(f, charset).write(YamlOutput.to(out));
+	}
+
+	/**
+	 * Like {@link #convert(File, Appendable)}, but writes the yaml as UTF-8
+	 * encoded bytes. The channel is not closed.
+	 */
+	public YamlWriteResult convert(File f, WritableByteChannel out) {
+		return new Conversion().load(f, charset).write(YamlOutput.to(out));
+	}
+
+	public YamlWriteResult convert(String properties, Appendable out) {
+		return new Conversion().load(properties).write(YamlOutput.to(out));
+	}
+
+	public YamlWriteResult convert(Properties p, Appendable out) {
+		return new Conversion().load(p).write(YamlOutput.to(out));
+	}
+
+	public YamlWriteResult convert(Map<String, Collection<String>> properties, Appendable out) {
+		return new Conversion().load(properties).write(YamlOutput.to(out));
+	}
+
+	/**
+	 * The state of a single call to one of the convert methods. The
+	 * converter itself holds nothing but its options, so that one instance
+	 * can be used by many threads at once.
+	 */
+	private class Conversion {
+		final ConversionStatus status = newStatus();
+		final YamlBuilder root = new YamlBuilder();
+		/**
+		 * Takes the place of the tree with the {@link YamlEngine#SWEEP}
+		 * engine.
+		 */
+		final PropertySweep sweep = engine == YamlEngine.SWEEP ? new PropertySweep(memoryBudget, keyOrder) : null;
+		/**
+		 * Set when the status stopped the conversion at its first error.
+		 */
+		boolean aborted = false;
+		final ConversionEvent event = new ConversionEvent();
+		{
+			event.begin();
 		}
-		YamlBuilder root = new YamlBuilder(YamlPath.EMPTY);
-		for (Entry<String, Collection<String>> e : properties.entrySet()) {
-			for (String v : e.getValue()) {
-				root.addProperty(YamlPath.fromProperty(e.getKey()), v);
+		/**
+		 * Null unless there is a listener to report to, or the conversion is
+		 * being recorded.
+		 */
+		final ConversionMetrics metrics = listener == ConversionListener.NONE && !event.isEnabled() ? null
+				: new ConversionMetrics(System.nanoTime());
+		/**
+		 * Comment lines by the node of the property that follows them, and
+		 * those that no property follows. Only used when preserving comments.
+		 */
+		final Map<YamlBuilder, List<String>> comments = preserveComments ? new IdentityHashMap<>() : Collections.emptyMap();
+		/**
+		 * The names of the properties that assigned the values of a node,
+		 * for the nodes where some name isn't spelled as the path. See
+		 * {@link YamlBuilder#setProperty(YamlPath, String, String, Map)}.
+		 */
+		final Map<YamlBuilder, String[]> names = sweep == null ? new IdentityHashMap<>() : Collections.emptyMap();
+		List<String> pendingComments = null;
+
+		Conversion load(File f, Charset charset) {
+			PhaseEvent phase = beginPhase();
+			if (metrics != null) {
+				metrics.bytesIn = f.length();
+			}
+			try (Reader reader = new PropertiesFileReader(f, charset)) {
+				if (load(reader) && !preserveComments) {
+					status.add(MessageCode.COMMENTS_LOST);
+				}
+			} catch (IOException e) {
+				error("Problem loading file "+f+": "+e.getMessage());
 			}
+			endPhase(phase, "load");
+			return this;
 		}
-		Object object = root.build();
 
-		DumperOptions options = new DumperOptions();
-		options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
-		options.setPrettyFlow(true);
-
-		Yaml yaml = new Yaml(options);
-		this.output = yaml.dump(object);
-		return new YamlConversionResult(status, output);
-	}
+		/**
+		 * Like {@link #load(File, Charset)}, for the content of a file that
+		 * was already read.
+		 */
+		Conversion load(byte[] content, Charset charset) {
+			PhaseEvent phase = beginPhase();
+			if (metrics != null) {
+				metrics.bytesIn = content.length;
+			}
+			try (Reader reader = new InputStreamReader(new ByteArrayInputStream(content), charset)) {
+				if (load(reader) && !preserveComments) {
+					status.add(MessageCode.COMMENTS_LOST);
+				}
+			} catch (IOException e) {
+				error("Problem processing properties: "+e.getMessage());
+			}
+			endPhase(phase, "load");
+			return this;
+		}
 
-	class YamlBuilder {
-		final YamlPath path;
-		final List<String> scalars = new ArrayList<>();
-		final TreeMap<Integer, YamlBuilder> listItems = new TreeMap<>();
-		final TreeMap<String, YamlBuilder> mapEntries = new TreeMap<>();
+		Conversion load(String properties) {
+			PhaseEvent phase = beginPhase();
+			try {
+				load(new StringReader(properties));
+			} catch (IOException e) {
+				error("Problem processing properties: "+e.getMessage());
+			}
+			endPhase(phase, "load");
+			return this;
+		}
 
-		public YamlBuilder(YamlPath path) {
-			this.path = path;
+		Conversion load(Properties p) {
+			PhaseEvent phase = beginPhase();
+			for (Entry<Object, Object> e : p.entrySet()) {
+				addProperty((String) e.getKey(), (String) e.getValue(), false);
+			}
+			endPhase(phase, "load");
+			return this;
 		}
 
-		void addProperty(YamlPath path, String value) {
-			if (path.isEmpty()) {
-				scalars.add(value);
-			} else {
-				YamlPathSegment segment = path.getSegment(0);
-				YamlBuilder subBuilder;
-				if (segment instanceof AtIndex) {
-					subBuilder = getSubBuilder(listItems, segment, segment.toIndex());
-				} else {
-					subBuilder = getSubBuilder(mapEntries, segment, segment.toPropString());
+		Conversion load(Map<String, Collection<String>> properties) {
+			PhaseEvent phase = beginPhase();
+			for (Entry<String, Collection<String>> e : properties.entrySet()) {
+				for (String v : e.getValue()) {
+					addProperty(e.getKey(), v, false);
 				}
-				subBuilder.addProperty(path.dropFirst(1), value);
 			}
+			endPhase(phase, "load");
+			return this;
+		}
+
+		/**
+		 * @return null if the conversion isn't being recorded.
+		 */
+		private PhaseEvent beginPhase() {
+			if (metrics == null || !event.isEnabled()) {
+				return null;
+			}
+			PhaseEvent phase = new PhaseEvent();
+			phase.begin();
+			return phase;
+		}
+
+		private void endPhase(PhaseEvent phase, String name) {
+			if (phase != null && phase.shouldCommit()) {
+				phase.phase = name;
+				phase.propertyCount = metrics.propertyCount;
+				phase.commit();
+			}
+		}
+
+		/**
+		 * @param replace whether the value replaces the one assigned earlier
+		 *        by the same key, or is added to the values.
+		 * @return the node the value was assigned to, or null with the
+		 *         {@link YamlEngine#SWEEP} engine.
+		 */
+		private YamlBuilder addProperty(String key, String value, boolean replace) {
+			if (metrics == null) {
+				return addProperty(key, YamlPath.fromProperty(key), value, replace);
+			}
+			long start = System.nanoTime();
+			YamlPath path = YamlPath.fromProperty(key);
+			start = metrics.end(Phase.PARSE_PATHS, start);
+			YamlBuilder node = addProperty(key, path, value, replace);
+			metrics.end(Phase.BUILD_TREE, start);
+			metrics.propertyCount++;
+			return node;
 		}
 
-		private <T> YamlBuilder getSubBuilder(TreeMap<T, YamlBuilder> subBuilders, YamlPathSegment segment, T key) {
-			YamlBuilder existing = subBuilders.get(key);
-			if (existing == null) {
-				subBuilders.put(key, existing = new YamlBuilder(path.append(segment)));
+		private YamlBuilder addProperty(String key, YamlPath path, String value, boolean replace) {
+			if (!replace) {
+				if (sweep != null) {
+					sweep.addProperty(path, value);
+					return null;
+				}
+				return root.addProperty(path, value);
+			}
+			//Keys spelled as their path aren't kept: two different keys
+			//for the same path can't both be.
+			String name = path.isPropString(key) ? null : key;
+			if (sweep != null) {
+				sweep.setProperty(path, value, name);
+				return null;
 			}
-			return existing;
+			return root.setProperty(path, value, name, names);
+		}
+
+		private boolean isEmpty() {
+			return sweep == null ? root.isEmpty() : sweep.isEmpty();
 		}
 
-		public Object build() {
-			if (!scalars.isEmpty()) {
-				if (listItems.isEmpty() && mapEntries.isEmpty()) {
-					if (scalars.size() > 1) {
-						status.addWarning("Multiple values " + scalars + " assigned to '" + path.toPropString()
-								+ "'. Values will be merged into a yaml sequence node.");
-						return scalars;
-					} else {
-						return scalars.get(0);
+		/**
+		 * Lexes properties from a reader straight into the builder. As with
+		 * {@link Properties#load(Reader)}, a later assignment to a property
+		 * replaces an earlier one with the same key. Other spellings of the
+		 * same path (e.g. <code>a.b</code> and <code>a[b]</code>) add values
+		 * to it, as they do when converting {@link Properties}.
+		 *
+		 * @return whether the input contained any comments.
+		 */
+		private boolean load(Reader reader) throws IOException {
+			boolean[] hasComments = { false };
+			long start = now();
+			MeasuredReader measured = metrics == null ? null : new MeasuredReader(reader);
+			new PropertiesLexer(measured == null ? reader : measured).parse(new PropertiesLexer.Handler() {
+				@Override
+				public void property(String key, String value) {
+					YamlBuilder node = addProperty(key, value, true);
+					if (pendingComments != null) {
+						List<String> existing = comments.putIfAbsent(node, pendingComments);
+						if (existing != null) {
+							existing.addAll(pendingComments);
+						}
+						pendingComments = null;
+					}
+				}
+
+				@Override
+				public void comment(CharSequence text) {
+					hasComments[0] = true;
+					if (preserveComments) {
+						if (pendingComments == null) {
+							pendingComments = new ArrayList<>(2);
+						}
+						pendingComments.add(commentText(text));
 					}
+				}
+			});
+			if (measured != null) {
+				//Whatever time wasn't spent elsewhere was spent lexing.
+				long lex = System.nanoTime() - start - measured.nanos
+						- metrics.getNanos(Phase.PARSE_PATHS) - metrics.getNanos(Phase.BUILD_TREE);
+				metrics.add(Phase.READ, measured.nanos);
+				metrics.add(Phase.LEX, lex);
+				metrics.charsIn = measured.chars;
+			}
+			return hasComments[0];
+		}
+
+		/**
+		 * @return the text of a comment line after its '#' or '!' marker.
+		 */
+		private String commentText(CharSequence line) {
+			return line.subSequence(1, line.length()).toString();
+		}
+
+		private void error(String message) {
+			try {
+				status.add(MessageCode.IO_ERROR, message);
+			} catch (FailFastException e) {
+				aborted = true;
+			}
+		}
+
+		YamlConversionResult toResult() {
+			YamlConversionResult result;
+			try {
+				if (isEmpty() || aborted) {
+					result = status.getMessageCount() == 0 ? YamlConversionResult.EMPTY : new YamlConversionResult(status, "");
 				} else {
-					if (!mapEntries.isEmpty()) {
-						status.addError("Direct assignment '" + path.toPropString() + "=" + scalars.get(0)
-								+ "' can not be combined " + "with sub-property assignment '" + path.toPropString()
-								+ "." + mapEntries.keySet().iterator().next() + "...'. "
-								+ "Direct assignment will be dropped!");
-					} else {
-						status.addError("Direct assignment '" + path.toPropString() + "=" + scalars.get(0)
-								+ "' can not be combined " + "with sequence assignment '" + path.toPropString() + "["
-								+ listItems.keySet().iterator().next() + "]...' "
-								+ "Direct assignments will be dropped!");
+					StringBuilder buf = new StringBuilder();
+					try {
+						writeYaml(buf);
+					} catch (IOException e) {
+						//StringBuilder doesn't throw, but reading spilled properties may
+						buf.setLength(0);
+						error("Problem reading spilled properties: "+e.getMessage());
+					} catch (FailFastException e) {
+						buf.setLength(0);
 					}
-					scalars.clear();
+					result = new YamlConversionResult(status, buf.toString());
 				}
+			} finally {
+				close();
+			}
+			lastResult = result;
+			if (metrics != null) {
+				metrics.charsOut = result.getYaml().length();
+				finish();
 			}
-			// Assert.isLegal(scalars.isEmpty());
-			if (!listItems.isEmpty() && !mapEntries.isEmpty()) {
-				status.addWarning("'" + path.toPropString()
-						+ "' has some entries that look like list items and others that look like map entries. "
-						+ "All these entries will be treated as map entries");
-				for (Entry<Integer, YamlBuilder> listItem : listItems.entrySet()) {
-					mapEntries.put(listItem.getKey().toString(), listItem.getValue());
+			return result;
+		}
+
+		YamlWriteResult write(YamlOutput out) {
+			try {
+				if (!isEmpty() && !aborted) {
+					//Problems are found before the first byte is written, so
+					//nothing is written when stopping at the first one.
+					writeYaml(out);
 				}
-				listItems.clear();
+				out.close();
+			} catch (IOException e) {
+				error("Problem writing yaml: "+e.getMessage());
+			} catch (FailFastException e) {
+				aborted = true;
+			} finally {
+				close();
+			}
+			lastResult = new YamlConversionResult(status, null);
+			if (metrics != null) {
+				metrics.charsOut = out.getCharCount();
+				metrics.bytesOut = out.getByteCount();
+				finish();
 			}
-			if (!listItems.isEmpty()) {
-				return listItems.values().stream().map(childBuilder -> childBuilder.build())
-						.collect(Collectors.toList());
+			return new YamlWriteResult(status, out.getCharCount(), out.getByteCount());
+		}
+
+		/**
+		 * Applies the conflict rules, like writing the yaml does, but stops
+		 * there: the tree engines only resolve the tree, and the
+		 * {@link YamlEngine#SWEEP} engine only checks its sorted properties.
+		 */
+		ConversionStatus validate() {
+			try {
+				if (!isEmpty() && !aborted) {
+					long start = now();
+					PhaseEvent phase = beginPhase();
+					try {
+						if (sweep != null) {
+							sweep.sort(parallelThreshold);
+							sweep.emit(null, status);
+						} else {
+							root.resolve(status, parallelThreshold, keyOrder);
+						}
+					} catch (IOException e) {
+						error("Problem reading spilled properties: "+e.getMessage());
+					} catch (FailFastException e) {
+						aborted = true;
+					}
+					end(Phase.RESOLVE, start);
+					endPhase(phase, "build");
+				}
+			} finally {
+				close();
+			}
+			lastResult = new YamlConversionResult(status, null);
+			if (metrics != null) {
+				finish();
+			}
+			return status;
+		}
+
+		/**
+		 * Deletes any temp files the properties were spilled to.
+		 */
+		private void close() {
+			if (sweep != null) {
+				sweep.close();
+			}
+		}
+
+		private void finish() {
+			if (sweep == null) {
+				int[] tree = new int[2];
+				root.measure(0, tree);
+				metrics.setTree(tree[0], tree[1]);
 			} else {
-				TreeMap<String, Object> map = new TreeMap<>();
-				for (Entry<String, YamlBuilder> entry : mapEntries.entrySet()) {
-					map.put(entry.getKey(), entry.getValue().build());
+				metrics.setTree(sweep.getNodeCount(), sweep.getMaxDepth());
+			}
+			metrics.finish(status, false);
+			listener.conversionFinished(metrics);
+			if (event.shouldCommit()) {
+				event.engine = engine.name();
+				event.inputBytes = metrics.getBytesIn();
+				event.inputChars = metrics.getCharsIn();
+				event.propertyCount = metrics.getPropertyCount();
+				event.nodeCount = metrics.getNodeCount();
+				event.outputChars = metrics.getCharsOut();
+				event.parsePathsNanos = metrics.getNanos(Phase.PARSE_PATHS);
+				event.buildTreeNanos = metrics.getNanos(Phase.BUILD_TREE);
+				event.setStatus(status);
+				event.commit();
+			}
+		}
+
+		private void writeYaml(Appendable out) throws IOException {
+			long start = now();
+			PhaseEvent phase = beginPhase();
+			if (engine == YamlEngine.SNAKEYAML) {
+				root.resolve(status, parallelThreshold, keyOrder);
+				start = end(Phase.RESOLVE, start);
+				Object object = root.toObject(parallelThreshold);
+				start = end(Phase.TO_OBJECTS, start);
+				endPhase(phase, "build");
+				phase = beginPhase();
+				Yaml yaml = snakeYaml.get();
+				if (out instanceof Writer) {
+					yaml.dump(object, (Writer) out);
+				} else {
+					out.append(yaml.dump(object));
+				}
+			} else if (engine == YamlEngine.SWEEP) {
+				sweep.sort(parallelThreshold);
+				if (status.isFailFast()) {
+					//Check first, so nothing is written when stopping at an error.
+					sweep.emit(null, status);
+				}
+				start = end(Phase.RESOLVE, start);
+				endPhase(phase, "build");
+				phase = beginPhase();
+				YamlEmitter emitter = new YamlEmitter(out);
+				//Any problems were reported by the check already
+				sweep.emit(emitter, status.isFailFast() ? new ConversionStatus(0, false) : status);
+				emitter.endDocument();
+			} else {
+				root.resolve(status, parallelThreshold, keyOrder);
+				start = end(Phase.RESOLVE, start);
+				endPhase(phase, "build");
+				phase = beginPhase();
+				YamlEmitter emitter = new YamlEmitter(out);
+				root.emit(emitter, comments);
+				emitter.endDocument();
+				if (pendingComments != null) {
+					for (String comment : pendingComments) {
+						emitter.comment(comment);
+					}
 				}
-				return map;
 			}
+			end(Phase.WRITE, start);
+			endPhase(phase, "emit");
+		}
+
+		/**
+		 * @return the time, or 0 without metrics, when no clock is read.
+		 */
+		private long now() {
+			return metrics == null ? 0 : System.nanoTime();
+		}
+
+		private long end(Phase phase, long start) {
+			return metrics == null ? 0 : metrics.end(phase, start);
 		}
 	}
 
-	
-    private boolean hasComments(String line) {
-        return COMMENT.matcher(line).find();
-    }
+	/**
+	 * Reader that counts the characters read through it, and the time spent
+	 * reading them.
+	 */
+	private static class MeasuredReader extends FilterReader {
+		long chars = 0;
+		long nanos = 0;
+
+		MeasuredReader(Reader in) {
+			super(in);
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			int n = super.read(cbuf, off, len);
+			nanos += System.nanoTime() - start;
+			if (n > 0) {
+				chars += n;
+			}
+			return n;
+		}
+	}
 
 	static class YamlConversionResult {
-		ConversionStatus status;
-		String yaml;
+		final ConversionStatus status;
+		final String yaml;
 
-		private static YamlConversionResult EMPTY = new YamlConversionResult(ConversionStatus.EMPTY, "");
+		static YamlConversionResult EMPTY = new YamlConversionResult(ConversionStatus.EMPTY, "");
 
 		YamlConversionResult(ConversionStatus status, String output) {
 			this.status = status;
@@ -213,12 +897,64 @@ public class PropertiesToYamlConverter {
 		}
 	}
 
+	/**
+	 * Result of converting straight into an output target. Only the status
+	 * and the amount of output are kept, not the yaml itself.
+	 */
+	static class YamlWriteResult {
+		private final ConversionStatus status;
+		private final long charCount;
+		private final long byteCount;
+
+		YamlWriteResult(ConversionStatus status, long charCount, long byteCount) {
+			this.status = status;
+			this.charCount = charCount;
+			this.byteCount = byteCount;
+		}
+
+		public ConversionStatus getStatus() {
+			return status;
+		}
+
+		public int getSeverity() {
+			return status.getSeverity();
+		}
+
+		/**
+		 * @return the number of characters of yaml written.
+		 */
+		public long getCharCount() {
+			return charCount;
+		}
+
+		/**
+		 * @return the number of bytes of UTF-8 encoded yaml written, or -1 if
+		 *         the yaml was written to a character based target.
+		 */
+		public long getByteCount() {
+			return byteCount;
+		}
+	}
+
+	/**
+	 * @return the status of the last conversion done by this converter.
+	 * @deprecated use the status of the result returned by convert, the
+	 *             last conversion may have been done by another thread.
+	 */
+	@Deprecated
 	public ConversionStatus getStatus() {
-		return status;
+		return lastResult.getStatus();
 	}
 
+	/**
+	 * @return the yaml produced by the last conversion, or null if it was
+	 *         streamed to an output target.
+	 * @deprecated use the yaml of the result returned by convert, the last
+	 *             conversion may have been done by another thread.
+	 */
+	@Deprecated
 	public String getYaml() {
-		return output;
+		return lastResult.getYaml();
 	}
 
-}
\ No newline at end of file
+}
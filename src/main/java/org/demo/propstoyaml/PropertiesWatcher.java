@@ -0,0 +1,410 @@
+package org.demo.propstoyaml;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.demo.propstoyaml.BatchConverter.FileResult;
+import org.demo.propstoyaml.ConversionStatus.MessageCode;
+import org.demo.propstoyaml.PropertiesToYamlConverter.YamlConversionResult;
+
+/**
+ * Watches directory trees and converts .properties files whenever they
+ * change, writing the yaml for <code>foo.properties</code> to
+ * <code>foo.yml</code> next to it, like {@link BatchConverter} does.
+ * <p>
+ * Editors often save a file several times in quick succession, so a file is
+ * only converted once no new change to it has been seen for the debounce
+ * time. Each file keeps its {@link IncrementalConverter}, so only the parts
+ * of the yaml whose properties changed are rendered again. The time from the
+ * first change event of a burst to the yaml being written is recorded in
+ * {@link #getLatencies()}.
+ * <p>
+ * Events are handled by a single background thread, started by
+ * {@link #start()} and stopped by {@link #close()}.
+ *
+ * @author Kris De Volder
+ */
+public class PropertiesWatcher implements Closeable {
+
+	public static final long DEFAULT_DEBOUNCE_MILLIS = 100;
+
+	private final List<Path> roots;
+	private final Charset charset;
+	private final PathMatcher matcher;
+	private final long debounceNanos;
+	private final Consumer<FileResult> listener;
+
+	private final WatchService watchService;
+	private final Map<WatchKey, Path> directories = new HashMap<>();
+	private final Map<Path, WatchedFile> files = new HashMap<>();
+	private final Histogram latencies = new Histogram();
+	private Thread thread;
+
+	/**
+	 * @param charset the encoding of the .properties files.
+	 * @param pattern glob pattern that the names of the files to convert
+	 *        must match.
+	 * @param listener called with the result of each conversion; by
+	 *        {@link #start()} for the initial ones, and on the watcher's
+	 *        thread after that.
+	 */
+	public PropertiesWatcher(List<Path> roots, Charset charset, String pattern, long debounceMillis,
+			Consumer<FileResult> listener) throws IOException {
+		if (debounceMillis < 0) {
+			throw new IllegalArgumentException("Debounce time must not be negative: " + debounceMillis);
+		}
+		this.roots = new ArrayList<>(roots);
+		this.charset = charset;
+		this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+		this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+		this.listener = listener;
+		this.watchService = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * The state kept for a file between conversions.
+	 */
+	private static class WatchedFile {
+		final IncrementalConverter converter = new IncrementalConverter();
+		/**
+		 * When the first change of the current burst was seen, or -1 if
+		 * there is nothing to convert.
+		 */
+		long firstEvent = -1;
+		long lastEvent;
+	}
+
+	/**
+	 * Converts all matching files below the roots, then starts watching them
+	 * on a background thread.
+	 */
+	public synchronized void start() throws IOException {
+		if (thread != null) {
+			throw new IllegalStateException("Already started");
+		}
+		for (Path root : roots) {
+			register(root, true);
+		}
+		thread = new Thread(this::run, "properties-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Watches a directory and its subdirectories, and converts the matching
+	 * files in them; either those there at the start, or those created
+	 * along with a new directory.
+	 */
+	private void register(Path dir, boolean initial) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+				directories.put(d.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), d);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile() && matcher.matches(file.getFileName())) {
+					if (initial) {
+						convert(file, -1);
+					} else {
+						changed(file, System.nanoTime());
+					}
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void run() {
+		try {
+			while (true) {
+				WatchKey key = nextKey();
+				long now = System.nanoTime();
+				if (key != null) {
+					Path dir = directories.get(key);
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == OVERFLOW) {
+							//Events were lost, so anything may have changed.
+							for (Path d : new ArrayList<>(directories.values())) {
+								rescan(d, now);
+							}
+						} else if (dir != null) {
+							handle(dir.resolve((Path) event.context()), event.kind(), now);
+						}
+					}
+					if (!key.reset()) {
+						directories.remove(key);
+					}
+				}
+				convertQuietFiles();
+			}
+		} catch (ClosedWatchServiceException e) {
+			//Closed, we're done
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits for the next event, but not beyond the time the next debounced
+	 * file is due to be converted.
+	 */
+	private WatchKey nextKey() throws InterruptedException {
+		long due = Long.MAX_VALUE;
+		for (WatchedFile file : files.values()) {
+			if (file.firstEvent >= 0) {
+				due = Math.min(due, file.lastEvent + debounceNanos);
+			}
+		}
+		if (due == Long.MAX_VALUE) {
+			return watchService.take();
+		}
+		long wait = due - System.nanoTime();
+		return wait <= 0 ? watchService.poll() : watchService.poll(wait, TimeUnit.NANOSECONDS);
+	}
+
+	private void handle(Path path, WatchEvent.Kind<?> kind, long now) {
+		if (kind == ENTRY_DELETE) {
+			files.remove(path);
+		} else if (Files.isDirectory(path)) {
+			if (kind == ENTRY_CREATE) {
+				try {
+					register(path, false);
+				} catch (IOException e) {
+					report(path, null, "Problem watching directory " + path + ": " + e.getMessage());
+				}
+			}
+		} else if (matcher.matches(path.getFileName())) {
+			changed(path, now);
+		}
+	}
+
+	private void rescan(Path dir, long now) {
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+			for (Path entry : entries) {
+				if (matcher.matches(entry.getFileName()) && Files.isRegularFile(entry)) {
+					changed(entry, now);
+				}
+			}
+		} catch (IOException e) {
+			report(dir, null, "Problem reading directory " + dir + ": " + e.getMessage());
+		}
+	}
+
+	private void changed(Path file, long now) {
+		WatchedFile watched = files.computeIfAbsent(file, f -> new WatchedFile());
+		if (watched.firstEvent < 0) {
+			watched.firstEvent = now;
+		}
+		watched.lastEvent = now;
+	}
+
+	private void convertQuietFiles() {
+		long now = System.nanoTime();
+		List<Path> due = new ArrayList<>();
+		for (Map.Entry<Path, WatchedFile> e : files.entrySet()) {
+			WatchedFile file = e.getValue();
+			if (file.firstEvent >= 0 && now - file.lastEvent >= debounceNanos) {
+				due.add(e.getKey());
+			}
+		}
+		Collections.sort(due);
+		for (Path file : due) {
+			convert(file, files.get(file).firstEvent);
+		}
+	}
+
+	/**
+	 * Converts a file and writes its yaml.
+	 *
+	 * @param firstEvent when the change was first seen, or -1 if the
+	 *        conversion wasn't triggered by a change.
+	 */
+	private void convert(Path input, long firstEvent) {
+		WatchedFile watched = files.computeIfAbsent(input, f -> new WatchedFile());
+		watched.firstEvent = -1;
+		Path output = BatchConverter.outputFile(input);
+		ConversionStatus status = new ConversionStatus();
+		Map<String, Collection<String>> properties;
+		long bytesRead;
+		YamlConversionResult result;
+		try {
+			bytesRead = Files.size(input);
+			properties = load(input, status);
+			result = watched.converter.convert(properties);
+		} catch (IOException e) {
+			//Probably deleted or being replaced; a new event will follow if it's back.
+			report(input, null, "Problem loading file " + input + ": " + e.getMessage());
+			return;
+		} catch (RuntimeException e) {
+			//E.g. a malformed unicode escape. Keep watching; it is converted
+			//again once it changes.
+			report(input, null, "Problem converting file " + input + ": " + e.getMessage());
+			return;
+		}
+		status.addAll(result.getStatus());
+		byte[] yaml = result.getYaml().getBytes(StandardCharsets.UTF_8);
+		Path tmp = null;
+		String problem = null;
+		try {
+			tmp = BatchConverter.createTempFile(output);
+			Files.write(tmp, yaml);
+			Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			tmp = null;
+		} catch (IOException e) {
+			problem = "Problem writing file " + output + ": " + e.getMessage();
+		} finally {
+			if (tmp != null) {
+				BatchConverter.deleteQuietly(tmp);
+			}
+		}
+		//Reported once the temp file is gone
+		if (problem != null) {
+			report(input, output, problem);
+			return;
+		}
+		if (firstEvent >= 0) {
+			latencies.record(System.nanoTime() - firstEvent);
+		}
+		listener.accept(new FileResult(input, output, status, bytesRead, yaml.length));
+	}
+
+	/**
+	 * Reads a file into a map of property names to values, in the order
+	 * they were first assigned. As with {@link java.util.Properties#load(Reader)},
+	 * a later assignment replaces an earlier one only if the name is spelled
+	 * the same; <code>a.b</code> and <code>a[b]</code> are two values for
+	 * one path.
+	 */
+	private Map<String, Collection<String>> load(Path file, ConversionStatus status) throws IOException {
+		Map<String, Collection<String>> properties = new LinkedHashMap<>();
+		boolean[] hasComments = { false };
+		try (Reader reader = new PropertiesFileReader(file.toFile(), charset)) {
+			new PropertiesLexer(reader).parse(new PropertiesLexer.Handler() {
+				@Override
+				public void property(String key, String value) {
+					properties.put(key, Collections.singletonList(value));
+				}
+
+				@Override
+				public void comment(CharSequence text) {
+					hasComments[0] = true;
+				}
+			});
+		}
+		if (hasComments[0]) {
+			status.add(MessageCode.COMMENTS_LOST);
+		}
+		return properties;
+	}
+
+	private void report(Path input, Path output, String message) {
+		ConversionStatus status = new ConversionStatus();
+		status.add(MessageCode.IO_ERROR, message);
+		listener.accept(new FileResult(input, output, status, 0, 0));
+	}
+
+	/**
+	 * @return the times from the first change to a file until its yaml was
+	 *         written, in nanoseconds.
+	 */
+	public Histogram getLatencies() {
+		return latencies;
+	}
+
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+		Thread t;
+		synchronized (this) {
+			t = thread;
+		}
+		if (t != null && t != Thread.currentThread()) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Command line entry point:
+	 * <pre>
+	 * PropertiesWatcher &lt;directory&gt;... [--pattern GLOB] [--debounce MILLIS] [--charset NAME]
+	 * </pre>
+	 * Converts the files once, then keeps converting them as they change
+	 * until the process is stopped.
+	 */
+	public static void main(String[] args) throws Exception {
+		List<Path> roots = new ArrayList<>();
+		String pattern = BatchConverter.DEFAULT_PATTERN;
+		long debounce = DEFAULT_DEBOUNCE_MILLIS;
+		Charset charset = Charset.defaultCharset();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("--pattern")) {
+					pattern = args[++i];
+				} else if (arg.equals("--debounce")) {
+					debounce = Long.parseLong(args[++i]);
+				} else if (arg.equals("--charset")) {
+					charset = Charset.forName(args[++i]);
+				} else if (!arg.startsWith("--")) {
+					roots.add(Paths.get(arg));
+				} else {
+					throw new IllegalArgumentException("Unknown argument: " + arg);
+				}
+			}
+			if (roots.isEmpty()) {
+				throw new IllegalArgumentException("No directory given");
+			}
+		} catch (RuntimeException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: PropertiesWatcher <directory>... [--pattern GLOB] [--debounce MILLIS] [--charset NAME]");
+			System.exit(2);
+			return;
+		}
+		PropertiesWatcher watcher = new PropertiesWatcher(roots, charset, pattern, debounce, file -> {
+			System.out.println("Converted " + file.getInput());
+			BatchConverter.print(file, System.out);
+		});
+		watcher.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println("Latencies: " + watcher.getLatencies())));
+		watcher.thread.join();
+	}
+
+}
@@ -0,0 +1,725 @@
+package org.demo.propstoyaml;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+import org.demo.propstoyaml.ConversionStatus.MessageCode;
+import org.demo.propstoyaml.PropertiesToYamlConverter.KeyOrder;
+import org.demo.propstoyaml.YamlPathSegment.AtIndex;
+
+/**
+ * Turns properties into yaml without building a tree of them: the
+ * properties are collected as (path, value) pairs, sorted by path once, and
+ * then the yaml is written in a single sweep over the sorted pairs.
+ * <p>
+ * Sorting puts the values of a property before those of its
+ * sub-properties, and orders sub-properties the way {@link YamlBuilder}
+ * orders children: list items first, by index, then map entries by key.
+ * The properties below a path are then a contiguous range, so the sweep
+ * only ever looks at the range of the node it is writing and at the
+ * segment of each path at that node's depth. It keeps nothing but its
+ * recursion, one level per path segment.
+ * <p>
+ * The conflict rules, the messages they report and the yaml written are
+ * the same as for {@link YamlBuilder#resolve(ConversionStatus)} followed
+ * by {@link YamlBuilder#emit(YamlEmitter)}.
+ * <p>
+ * Given a memory budget, the properties are sorted and spilled to a temp
+ * file whenever the ones held in memory go over it, and the sweep reads
+ * them back through a merge of those {@link SortedRuns}. It then keeps one
+ * open node per path segment rather than a range of properties, so it reads
+ * the runs twice: once to find the nodes that have both list items and map
+ * entries, and once to write the yaml. The properties below such a node are
+ * collected in memory, as the list items have to be sorted among the map
+ * entries by key.
+ *
+ * @author Kris De Volder
+ */
+final class PropertySweep {
+
+	/**
+	 * Orders paths segment by segment, a path before its extensions.
+	 */
+	static final Comparator<Property> PATH_ORDER = (a, b) -> comparePaths(a.path, b.path, 0, false);
+
+	/**
+	 * Like {@link #PATH_ORDER}, but orders map keys by hash code first, for
+	 * {@link KeyOrder#HASH}.
+	 */
+	static final Comparator<Property> HASH_ORDER = (a, b) -> comparePaths(a.path, b.path, 0, true);
+
+	private static final String[] NO_VALUES = new String[0];
+
+	static final class Property {
+		final YamlPath path;
+		final String value;
+		/**
+		 * Whether the value replaces one assigned earlier by the same name,
+		 * rather than being added to the values.
+		 */
+		final boolean replace;
+		/**
+		 * The name of a property that replaces, or null if it is spelled
+		 * as the path.
+		 */
+		final String name;
+
+		Property(YamlPath path, String value, boolean replace, String name) {
+			this.path = path;
+			this.value = value;
+			this.replace = replace;
+			this.name = name;
+		}
+	}
+
+	private Property[] properties = new Property[16];
+	private int size = 0;
+	private boolean sorted = true;
+
+	/**
+	 * Rough number of bytes held by the properties in memory, over which
+	 * they are spilled.
+	 */
+	private final long memoryBudget;
+	private long memoryUsed = 0;
+	/**
+	 * Null until the properties are first spilled.
+	 */
+	private SortedRuns runs = null;
+	/**
+	 * The problem spilling the properties, thrown when writing the yaml.
+	 */
+	private IOException spillError = null;
+	/**
+	 * The nodes with both list items and map entries, found in a first pass
+	 * over the runs. See {@link #nodeKey(int, int)}.
+	 */
+	private Set<Long> mixedNodes = null;
+
+	private int nodeCount;
+	private int maxDepth;
+
+	private final boolean hashOrder;
+	/**
+	 * The order the properties are sorted in.
+	 */
+	private final Comparator<Property> pathOrder;
+
+	PropertySweep() {
+		this(Long.MAX_VALUE, KeyOrder.SORTED);
+	}
+
+	/**
+	 * @param memoryBudget the rough number of bytes the properties may take
+	 *        in memory before they are spilled to temp files.
+	 * @param keyOrder either {@link KeyOrder#SORTED} or {@link KeyOrder#HASH}.
+	 */
+	PropertySweep(long memoryBudget, KeyOrder keyOrder) {
+		if (keyOrder == KeyOrder.INSERTION) {
+			throw new IllegalArgumentException("Can't sweep keys in " + keyOrder + " order");
+		}
+		this.memoryBudget = memoryBudget;
+		this.hashOrder = keyOrder == KeyOrder.HASH;
+		this.pathOrder = hashOrder ? HASH_ORDER : PATH_ORDER;
+	}
+
+	void addProperty(YamlPath path, String value) {
+		add(new Property(path, value, false, null));
+	}
+
+	/**
+	 * Like addProperty, but replaces the value previously assigned by a
+	 * property with the same name, as {@link YamlBuilder#setProperty} does.
+	 *
+	 * @param name the name of the property, or null if it is spelled as
+	 *        path.toPropString().
+	 */
+	void setProperty(YamlPath path, String value, String name) {
+		add(new Property(path, value, true, name));
+	}
+
+	private void add(Property property) {
+		if (size == properties.length) {
+			properties = Arrays.copyOf(properties, size * 2);
+		}
+		if (sorted && size > 0 && pathOrder.compare(properties[size - 1], property) > 0) {
+			sorted = false;
+		}
+		properties[size++] = property;
+		if (memoryBudget != Long.MAX_VALUE) {
+			memoryUsed += sizeOf(property);
+			if (memoryUsed > memoryBudget && spillError == null) {
+				Arrays.sort(properties, 0, size, pathOrder);
+				spill();
+			}
+		}
+	}
+
+	/**
+	 * @return an estimate of the bytes a property takes. The segments of
+	 *         paths are mostly shared, so only the references to them are
+	 *         counted.
+	 */
+	private static long sizeOf(Property property) {
+		long size = 64 + 8 * property.path.size() + 40 + 2 * property.value.length();
+		return property.name == null ? size : size + 40 + 2 * property.name.length();
+	}
+
+	/**
+	 * Writes the sorted properties to a run, and drops them from memory. On
+	 * failure, they are kept in memory and no more are spilled.
+	 */
+	private void spill() {
+		if (runs == null) {
+			runs = new SortedRuns();
+		}
+		try {
+			runs.write(properties, size);
+			properties = new Property[16];
+			size = 0;
+			sorted = true;
+			memoryUsed = 0;
+		} catch (IOException e) {
+			spillError = e;
+		}
+	}
+
+	boolean isEmpty() {
+		return size == 0 && runs == null;
+	}
+
+	/**
+	 * Deletes any temp files the properties were spilled to.
+	 */
+	void close() {
+		if (runs != null) {
+			runs.close();
+		}
+	}
+
+	/**
+	 * Sorts the properties by path, in parallel if there are at least
+	 * <code>parallelThreshold</code> of them. The sort is stable, so the
+	 * values of a property stay in the order they were assigned in.
+	 */
+	void sort(int parallelThreshold) {
+		if (!sorted) {
+			if (size >= parallelThreshold) {
+				Arrays.parallelSort(properties, 0, size, pathOrder);
+			} else {
+				Arrays.sort(properties, 0, size, pathOrder);
+			}
+			sorted = true;
+		}
+		if (runs != null && size > 0 && spillError == null) {
+			spill();
+		}
+	}
+
+	/**
+	 * Writes the yaml for the sorted properties, applying the conflict rules
+	 * as it goes and reporting problems in the status.
+	 *
+	 * @param emitter null to only check for problems.
+	 */
+	void emit(YamlEmitter emitter, ConversionStatus status) throws IOException {
+		nodeCount = 0;
+		maxDepth = 0;
+		if (runs == null) {
+			emit(emitter, status, 0, size, 0);
+		} else if (spillError != null) {
+			throw spillError;
+		} else {
+			if (mixedNodes == null) {
+				mixedNodes = findMixedNodes();
+			}
+			try (SortedRuns.Merge merge = runs.merge(pathOrder)) {
+				Sweeper sweeper = new Sweeper(emitter, status);
+				for (Property p = merge.next(); p != null; p = merge.next()) {
+					sweeper.add(p);
+				}
+				sweeper.finish();
+			}
+		}
+	}
+
+	/**
+	 * Identifies a node by the depth of its path and the index, in sorted
+	 * order, of the first property below it.
+	 */
+	private static Long nodeKey(int property, int depth) {
+		return ((long) property << 32) | depth;
+	}
+
+	/**
+	 * @return the keys of the nodes in the runs that have both list items and
+	 *         map entries.
+	 */
+	private Set<Long> findMixedNodes() throws IOException {
+		Set<Long> mixed = new HashSet<>();
+		//Per open node: the property it was opened at, and the kinds of
+		//children seen so far.
+		int[] opened = new int[8];
+		boolean[] hasListItems = new boolean[8];
+		boolean[] hasMapEntries = new boolean[8];
+		YamlPath previous = YamlPath.EMPTY;
+		try (SortedRuns.Merge merge = runs.merge(pathOrder)) {
+			int index = 0;
+			for (Property p = merge.next(); p != null; p = merge.next(), index++) {
+				int common = commonPrefix(previous, p.path);
+				for (int depth = previous.size(); depth > common; depth--) {
+					if (hasListItems[depth] && hasMapEntries[depth]) {
+						mixed.add(nodeKey(opened[depth], depth));
+					}
+				}
+				if (p.path.size() >= opened.length) {
+					int length = Math.max(opened.length * 2, p.path.size() + 1);
+					opened = Arrays.copyOf(opened, length);
+					hasListItems = Arrays.copyOf(hasListItems, length);
+					hasMapEntries = Arrays.copyOf(hasMapEntries, length);
+				}
+				for (int depth = common; depth < p.path.size(); depth++) {
+					if (p.path.getSegment(depth) instanceof AtIndex) {
+						hasListItems[depth] = true;
+					} else {
+						hasMapEntries[depth] = true;
+					}
+					opened[depth + 1] = index;
+					hasListItems[depth + 1] = false;
+					hasMapEntries[depth + 1] = false;
+				}
+				previous = p.path;
+			}
+		}
+		for (int depth = previous.size(); depth >= 0; depth--) {
+			if (hasListItems[depth] && hasMapEntries[depth]) {
+				mixed.add(nodeKey(opened[depth], depth));
+			}
+		}
+		return mixed;
+	}
+
+	private static int commonPrefix(YamlPath a, YamlPath b) {
+		int size = Math.min(a.size(), b.size());
+		int common = 0;
+		while (common < size && a.getSegment(common).equals(b.getSegment(common))) {
+			common++;
+		}
+		return common;
+	}
+
+	/**
+	 * Writes the yaml for properties streamed from the runs in sorted order,
+	 * keeping only the path to the current property: the open node at each
+	 * depth, whether it became a sequence or a map, and the values assigned
+	 * to it so far.
+	 */
+	private final class Sweeper {
+		private static final byte UNDECIDED = 0;
+		private static final byte SEQUENCE = 1;
+		private static final byte MAP = 2;
+		/**
+		 * A node with both list items and map entries, whose properties are
+		 * being collected, or were already written.
+		 */
+		private static final byte COLLECTED = 3;
+
+		private final YamlEmitter emitter;
+		private final ConversionStatus status;
+		/**
+		 * The segments of the path to the deepest open node.
+		 */
+		private YamlPathSegment[] segments = new YamlPathSegment[8];
+		private byte[] kinds = new byte[9];
+		private String[][] values = new String[9][];
+		/**
+		 * The names of the properties that assigned the values at each
+		 * depth, null where all are spelled as their path.
+		 */
+		private String[][] names = new String[9][];
+		private int depth = 0;
+		private int index = 0;
+		/**
+		 * The properties of the node being collected, if any.
+		 */
+		private PropertySweep collected = null;
+
+		Sweeper(YamlEmitter emitter, ConversionStatus status) {
+			this.emitter = emitter;
+			this.status = status;
+			if (mixedNodes.contains(nodeKey(0, 0))) {
+				collect();
+			}
+		}
+
+		void add(Property p) throws IOException {
+			int property = index++;
+			int common = commonPrefix(p.path);
+			if (collected != null) {
+				if (common == depth) {
+					collected.add(p);
+					return;
+				}
+				emitCollected();
+			}
+			for (; depth > common; depth--) {
+				close();
+			}
+			while (depth < p.path.size()) {
+				open(p.path.getSegment(depth));
+				if (mixedNodes.contains(nodeKey(property, depth))) {
+					collect();
+					collected.add(p);
+					return;
+				}
+			}
+			String[] assigned = values[depth] == null ? NO_VALUES : values[depth];
+			int replaced = replaced(p, assigned, names[depth]);
+			if (replaced >= 0) {
+				assigned[replaced] = p.value;
+			} else {
+				names[depth] = addName(names[depth], assigned.length, p);
+				assigned = Arrays.copyOf(assigned, assigned.length + 1);
+				assigned[assigned.length - 1] = p.value;
+				values[depth] = assigned;
+			}
+		}
+
+		void finish() throws IOException {
+			if (collected != null) {
+				emitCollected();
+			}
+			for (; depth >= 0; depth--) {
+				close();
+			}
+		}
+
+		private int commonPrefix(YamlPath path) {
+			int size = Math.min(depth, path.size());
+			int common = 0;
+			while (common < size && segments[common].equals(path.getSegment(common))) {
+				common++;
+			}
+			return common;
+		}
+
+		private void collect() {
+			collected = new PropertySweep(Long.MAX_VALUE, hashOrder ? KeyOrder.HASH : KeyOrder.SORTED);
+			kinds[depth] = COLLECTED;
+		}
+
+		private void emitCollected() throws IOException {
+			collected.emit(emitter, status, 0, collected.size, depth);
+			nodeCount += collected.nodeCount;
+			maxDepth = Math.max(maxDepth, collected.maxDepth);
+			collected = null;
+		}
+
+		/**
+		 * Opens a child of the deepest open node.
+		 */
+		private void open(YamlPathSegment segment) throws IOException {
+			if (kinds[depth] == UNDECIDED) {
+				boolean listItem = segment instanceof AtIndex;
+				String[] assigned = values[depth];
+				if (assigned != null) {
+					if (listItem) {
+						status.add(MessageCode.SCALAR_AND_SEQUENCE, this::path, assigned, ((AtIndex) segment).getIndex());
+					} else {
+						status.add(MessageCode.SCALAR_AND_MAP, this::path, assigned, segment.toPropString());
+					}
+				}
+				kinds[depth] = listItem ? SEQUENCE : MAP;
+				if (emitter != null) {
+					if (listItem) {
+						emitter.startSequence(false);
+					} else {
+						emitter.startMapping(false);
+					}
+				}
+			}
+			nodeCount++;
+			if (emitter != null && kinds[depth] == MAP) {
+				emitter.scalar(segment.toPropString());
+			}
+			if (depth == segments.length) {
+				segments = Arrays.copyOf(segments, depth * 2);
+				kinds = Arrays.copyOf(kinds, depth * 2 + 1);
+				values = Arrays.copyOf(values, depth * 2 + 1);
+				names = Arrays.copyOf(names, depth * 2 + 1);
+			}
+			segments[depth++] = segment;
+			kinds[depth] = UNDECIDED;
+			values[depth] = null;
+			names[depth] = null;
+			maxDepth = Math.max(maxDepth, depth);
+		}
+
+		/**
+		 * Closes the deepest open node.
+		 */
+		private void close() throws IOException {
+			String[] assigned = values[depth];
+			values[depth] = null;
+			names[depth] = null;
+			switch (kinds[depth]) {
+			case UNDECIDED:
+				if (assigned.length > 1) {
+					status.add(MessageCode.MULTIPLE_VALUES, this::path, assigned, null);
+					if (emitter != null) {
+						emitter.startSequence(false);
+						for (String value : assigned) {
+							emitter.scalar(value);
+						}
+						emitter.endSequence();
+					}
+				} else if (emitter != null) {
+					emitter.scalar(assigned[0]);
+				}
+				break;
+			case SEQUENCE:
+				if (emitter != null) {
+					emitter.endSequence();
+				}
+				break;
+			case MAP:
+				if (emitter != null) {
+					emitter.endMapping();
+				}
+				break;
+			default:
+				break;
+			}
+		}
+
+		private YamlPath path() {
+			return depth == 0 ? YamlPath.EMPTY : new YamlPath(Arrays.copyOf(segments, depth));
+		}
+	}
+
+	/**
+	 * @return the number of nodes written by the last sweep, not counting
+	 *         the root.
+	 */
+	int getNodeCount() {
+		return nodeCount;
+	}
+
+	int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Writes the node whose properties are <code>from</code> to
+	 * <code>to</code>. The paths in that range all have the same first
+	 * <code>depth</code> segments.
+	 */
+	private void emit(YamlEmitter emitter, ConversionStatus status, int from, int to, int depth) throws IOException {
+		maxDepth = Math.max(maxDepth, depth);
+		int childrenFrom = from;
+		while (childrenFrom < to && properties[childrenFrom].path.size() == depth) {
+			childrenFrom++;
+		}
+		String[] values = childrenFrom == from ? null : values(from, childrenFrom);
+		if (childrenFrom == to) {
+			if (values.length > 1) {
+				status.add(MessageCode.MULTIPLE_VALUES, () -> pathTo(from, depth), values, null);
+				if (emitter != null) {
+					emitter.startSequence(false);
+					for (String value : values) {
+						emitter.scalar(value);
+					}
+					emitter.endSequence();
+				}
+			} else if (emitter != null) {
+				emitter.scalar(values[0]);
+			}
+			return;
+		}
+		boolean hasListItems = isListItem(childrenFrom, depth);
+		boolean hasMapEntries = !isListItem(to - 1, depth);
+		if (values != null) {
+			if (hasMapEntries) {
+				int firstMapEntry = hasListItems ? firstMapEntry(childrenFrom, to, depth) : childrenFrom;
+				status.add(MessageCode.SCALAR_AND_MAP, () -> pathTo(from, depth), values,
+						properties[firstMapEntry].path.getSegment(depth).toPropString());
+			} else {
+				status.add(MessageCode.SCALAR_AND_SEQUENCE, () -> pathTo(from, depth), values,
+						((AtIndex) properties[childrenFrom].path.getSegment(depth)).getIndex());
+			}
+		}
+		boolean sequence = !hasMapEntries;
+		if (hasListItems && hasMapEntries) {
+			status.add(MessageCode.SEQUENCE_AND_MAP, () -> pathTo(from, depth), null, null);
+			//List items become map entries, and are sorted among them by key.
+			Arrays.sort(properties, childrenFrom, to, (a, b) -> {
+				int result = mapKey(a.path.getSegment(depth)).compareTo(mapKey(b.path.getSegment(depth)));
+				if (result == 0) {
+					result = comparePaths(a.path, b.path, depth, hashOrder);
+				}
+				return result;
+			});
+		}
+		if (emitter != null) {
+			if (sequence) {
+				emitter.startSequence(false);
+			} else {
+				emitter.startMapping(false);
+			}
+		}
+		String previousKey = null;
+		int child = childrenFrom;
+		while (child < to) {
+			YamlPathSegment segment = properties[child].path.getSegment(depth);
+			int childTo = child + 1;
+			while (childTo < to && properties[childTo].path.getSegment(depth).equals(segment)) {
+				childTo++;
+			}
+			String key = sequence ? null : mapKey(segment);
+			//Where a list item and a map entry have the same key, the list
+			//item comes first and the map entry is dropped.
+			if (key == null || !key.equals(previousKey)) {
+				nodeCount++;
+				if (emitter != null && key != null) {
+					emitter.scalar(key);
+				}
+				emit(emitter, status, child, childTo, depth + 1);
+				previousKey = key;
+			}
+			child = childTo;
+		}
+		if (emitter != null) {
+			if (sequence) {
+				emitter.endSequence();
+			} else {
+				emitter.endMapping();
+			}
+		}
+	}
+
+	/**
+	 * @return the values assigned to a path, given its properties.
+	 */
+	private String[] values(int from, int to) {
+		String[] values = NO_VALUES;
+		String[] names = null;
+		for (int i = from; i < to; i++) {
+			Property p = properties[i];
+			int replaced = replaced(p, values, names);
+			if (replaced >= 0) {
+				values[replaced] = p.value;
+			} else {
+				names = addName(names, values.length, p);
+				values = Arrays.copyOf(values, values.length + 1);
+				values[values.length - 1] = p.value;
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * @param names the names of the properties that assigned the values,
+	 *        or null if all are spelled as their path.
+	 * @return the index of the value a property replaces, or -1 if it is
+	 *         added to the values.
+	 */
+	private static int replaced(Property p, String[] values, String[] names) {
+		if (p.replace) {
+			for (int i = 0; i < values.length; i++) {
+				if (Objects.equals(p.name, names == null ? null : names[i])) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the names of the properties that assigned a number of values,
+	 *         with that of another property added, or null if all are
+	 *         spelled as their path.
+	 */
+	private static String[] addName(String[] names, int count, Property p) {
+		if (names == null && p.name == null) {
+			return null;
+		}
+		names = names == null ? new String[count + 1] : Arrays.copyOf(names, count + 1);
+		names[count] = p.name;
+		return names;
+	}
+
+	private boolean isListItem(int property, int depth) {
+		return properties[property].path.getSegment(depth) instanceof AtIndex;
+	}
+
+	/**
+	 * @return the first property of a range whose segment at the given depth
+	 *         is a map key, given that list items come first.
+	 */
+	private int firstMapEntry(int from, int to, int depth) {
+		int low = from;
+		int high = to - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (isListItem(mid, depth)) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private YamlPath pathTo(int property, int depth) {
+		YamlPath path = properties[property].path;
+		return path.dropLast(path.size() - depth);
+	}
+
+	/**
+	 * @return the key a segment gets in a yaml map.
+	 */
+	private static String mapKey(YamlPathSegment segment) {
+		return segment instanceof AtIndex ? Integer.toString(((AtIndex) segment).getIndex()) : segment.toPropString();
+	}
+
+	private static int comparePaths(YamlPath a, YamlPath b, int from, boolean hashed) {
+		int size = Math.min(a.size(), b.size());
+		for (int i = from; i < size; i++) {
+			int result = compareSegments(a.getSegment(i), b.getSegment(i), hashed);
+			if (result != 0) {
+				return result;
+			}
+		}
+		return Integer.compare(a.size(), b.size());
+	}
+
+	/**
+	 * @param hashed whether to order map keys by hash code first, which
+	 *        mostly spares comparing the keys themselves.
+	 */
+	private static int compareSegments(YamlPathSegment a, YamlPathSegment b, boolean hashed) {
+		if (a == b) {
+			return 0;
+		}
+		if (a instanceof AtIndex) {
+			return b instanceof AtIndex ? Integer.compare(((AtIndex) a).getIndex(), ((AtIndex) b).getIndex()) : -1;
+		}
+		if (b instanceof AtIndex) {
+			return 1;
+		}
+		String aKey = a.toPropString();
+		String bKey = b.toPropString();
+		if (hashed) {
+			int result = Integer.compare(aKey.hashCode(), bKey.hashCode());
+			if (result != 0) {
+				return result;
+			}
+		}
+		return aKey.compareTo(bKey);
+	}
+
+}
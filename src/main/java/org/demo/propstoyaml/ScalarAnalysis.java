@@ -0,0 +1,560 @@
+package org.demo.propstoyaml;
+
+/**
+ * What {@link YamlEmitter} needs to know about a string scalar to pick its
+ * style: whether SnakeYAML 1.19 considers it printable, whether written
+ * plain it would be read back as something other than a string, and which
+ * styles it can be written in.
+ * <p>
+ * SnakeYAML works this out with a regex for printable characters, another
+ * for line breaks, the regexes of its implicit resolvers and then
+ * <code>Emitter.analyzeScalar</code>. Here it is all done in one pass over
+ * the characters, looking up the class of each ASCII character in a table,
+ * plus a short match against the resolvers' patterns for the few scalars
+ * whose first character could start a bool, number, null or timestamp.
+ *
+ * @author Kris De Volder
+ */
+final class ScalarAnalysis {
+
+	/**
+	 * Not printable, so the scalar is written as !!binary.
+	 */
+	private static final byte NON_PRINTABLE = 1;
+	/**
+	 * Printable, but has to be escaped in a double quoted scalar.
+	 */
+	private static final byte SPECIAL = 2;
+	private static final byte SPACE = 4;
+	private static final byte BREAK = 8;
+	/**
+	 * One of the characters that are indicators at the start of a scalar, or
+	 * anywhere in it.
+	 */
+	private static final byte INDICATOR = 16;
+	/**
+	 * Could start a value that an implicit resolver turns into something
+	 * other than a string.
+	 */
+	private static final byte RESOLVABLE = 32;
+
+	private static final byte[] ASCII = new byte[128];
+	static {
+		for (int c = 0; c < 0x20; c++) {
+			ASCII[c] = NON_PRINTABLE | SPECIAL;
+		}
+		ASCII['\t'] = SPECIAL;
+		ASCII['\r'] = SPECIAL;
+		ASCII['\n'] = BREAK;
+		ASCII[0x7F] = NON_PRINTABLE | SPECIAL;
+		ASCII[' '] = SPACE | RESOLVABLE;
+		for (char c : "#,[]{}&*!|>'\"%@`?:-".toCharArray()) {
+			ASCII[c] = INDICATOR;
+		}
+		for (char c : "~!&*+-.0123456789<yYnNtTfFoO".toCharArray()) {
+			ASCII[c] |= RESOLVABLE;
+		}
+	}
+
+	final boolean printable;
+	final boolean empty;
+	/**
+	 * Whether the scalar contains line breaks, in which case SnakeYAML asks
+	 * for the literal style.
+	 */
+	final boolean multiline;
+	/**
+	 * Whether the scalar is read back as a string when written plain.
+	 */
+	final boolean plainImplicit;
+	final boolean allowFlowPlain;
+	final boolean allowBlockPlain;
+	final boolean allowSingleQuoted;
+	final boolean allowBlock;
+
+	ScalarAnalysis(String scalar) {
+		int length = scalar.length();
+		if (length == 0) {
+			printable = true;
+			empty = true;
+			multiline = false;
+			plainImplicit = false;
+			allowFlowPlain = false;
+			allowBlockPlain = true;
+			allowSingleQuoted = true;
+			allowBlock = false;
+			return;
+		}
+		empty = false;
+		boolean blockIndicators = false;
+		boolean flowIndicators = false;
+		boolean lineBreaks = false;
+		boolean specialCharacters = false;
+
+		boolean leadingSpace = false;
+		boolean leadingBreak = false;
+		boolean trailingSpace = false;
+		boolean trailingBreak = false;
+		boolean breakSpace = false;
+		boolean spaceBreak = false;
+
+		if (scalar.startsWith("---") || scalar.startsWith("...")) {
+			blockIndicators = true;
+			flowIndicators = true;
+		}
+		boolean previousSpace = false;
+		boolean previousBreak = false;
+		boolean isPrintable = true;
+
+		for (int index = 0; index < length; index++) {
+			char c = scalar.charAt(index);
+			byte type = c < 128 ? ASCII[c] : typeOf(c);
+			if (type == NON_PRINTABLE && Character.isHighSurrogate(c) && index + 1 < length
+					&& Character.isLowSurrogate(scalar.charAt(index + 1))) {
+				//A supplementary character, printable and plain.
+				index++;
+				type = 0;
+			}
+			if ((type & ~RESOLVABLE) == 0) {
+				previousSpace = false;
+				previousBreak = false;
+				continue;
+			}
+			if ((type & NON_PRINTABLE) != 0) {
+				//Written as !!binary, so the rest doesn't matter
+				isPrintable = false;
+				break;
+			}
+			if ((type & SPECIAL) != 0) {
+				specialCharacters = true;
+			}
+			if ((type & INDICATOR) != 0) {
+				if (index == 0) {
+					switch (c) {
+					case '?':
+					case ':':
+						flowIndicators = true;
+						if (followedByWhitespace(scalar, 0)) {
+							blockIndicators = true;
+						}
+						break;
+					case '-':
+						if (followedByWhitespace(scalar, 0)) {
+							flowIndicators = true;
+							blockIndicators = true;
+						}
+						break;
+					default:
+						flowIndicators = true;
+						blockIndicators = true;
+					}
+				} else {
+					switch (c) {
+					case ',':
+					case '?':
+					case '[':
+					case ']':
+					case '{':
+					case '}':
+						flowIndicators = true;
+						break;
+					case ':':
+						flowIndicators = true;
+						if (followedByWhitespace(scalar, index)) {
+							blockIndicators = true;
+						}
+						break;
+					case '#':
+						char previous = scalar.charAt(index - 1);
+						if (isBlank(previous) || isBreak(previous)) {
+							flowIndicators = true;
+							blockIndicators = true;
+						}
+						break;
+					default:
+						break;
+					}
+				}
+			}
+			if (c == ' ') {
+				if (index == 0) {
+					leadingSpace = true;
+				}
+				if (index == length - 1) {
+					trailingSpace = true;
+				}
+				if (previousBreak) {
+					breakSpace = true;
+				}
+				previousSpace = true;
+				previousBreak = false;
+			} else if ((type & BREAK) != 0) {
+				lineBreaks = true;
+				if (index == 0) {
+					leadingBreak = true;
+				}
+				if (index == length - 1) {
+					trailingBreak = true;
+				}
+				if (previousSpace) {
+					spaceBreak = true;
+				}
+				previousSpace = false;
+				previousBreak = true;
+			} else {
+				previousSpace = false;
+				previousBreak = false;
+			}
+		}
+		boolean flowPlain = true;
+		boolean blockPlain = true;
+		boolean singleQuoted = true;
+		boolean block = true;
+		if (leadingSpace || leadingBreak || trailingSpace || trailingBreak) {
+			flowPlain = blockPlain = false;
+		}
+		if (trailingSpace) {
+			block = false;
+		}
+		if (breakSpace) {
+			flowPlain = blockPlain = singleQuoted = false;
+		}
+		if (spaceBreak || specialCharacters) {
+			flowPlain = blockPlain = singleQuoted = block = false;
+		}
+		if (lineBreaks) {
+			flowPlain = false;
+		}
+		if (flowIndicators) {
+			flowPlain = false;
+		}
+		if (blockIndicators) {
+			blockPlain = false;
+		}
+		this.printable = isPrintable;
+		this.multiline = lineBreaks;
+		this.plainImplicit = isPrintable && !resolvesImplicitly(scalar);
+		this.allowFlowPlain = flowPlain;
+		this.allowBlockPlain = blockPlain;
+		this.allowSingleQuoted = singleQuoted;
+		this.allowBlock = block;
+	}
+
+	/**
+	 * @return the text for a comment line, with the characters that would
+	 *         end the line replaced by spaces, and those that aren't
+	 *         printable by U+FFFD. The text itself if there are none.
+	 */
+	static String commentText(String text) {
+		StringBuilder buf = null;
+		int length = text.length();
+		for (int index = 0; index < length; index++) {
+			char c = text.charAt(index);
+			byte type = c < 128 ? ASCII[c] : typeOf(c);
+			char replacement = c;
+			if (type == NON_PRINTABLE && Character.isHighSurrogate(c) && index + 1 < length
+					&& Character.isLowSurrogate(text.charAt(index + 1))) {
+				if (buf != null) {
+					buf.append(c);
+				}
+				c = text.charAt(++index);
+				replacement = c;
+			} else if ((type & BREAK) != 0 || c == '\r') {
+				replacement = ' ';
+			} else if ((type & NON_PRINTABLE) != 0) {
+				replacement = '\uFFFD';
+			}
+			if (replacement != c && buf == null) {
+				buf = new StringBuilder(length).append(text, 0, index);
+			}
+			if (buf != null) {
+				buf.append(replacement);
+			}
+		}
+		return buf == null ? text : buf.toString();
+	}
+
+	private static byte typeOf(char c) {
+		if (c == '\u0085' || c == '\u2028' || c == '\u2029') {
+			return BREAK;
+		}
+		if (c < 0xA0 || c == 0xFFFE || c == 0xFFFF) {
+			return NON_PRINTABLE | SPECIAL;
+		}
+		if (Character.isSurrogate(c)) {
+			return NON_PRINTABLE;
+		}
+		return 0;
+	}
+
+	/**
+	 * Whether the character at <code>index</code> counts as followed by
+	 * whitespace in <code>Emitter.analyzeScalar</code>. Past the first
+	 * character, a line break before it counts too, and a break after it
+	 * doesn't.
+	 */
+	private static boolean followedByWhitespace(String scalar, int index) {
+		if (index == 0) {
+			if (scalar.length() == 1) {
+				return true;
+			}
+			char next = scalar.charAt(1);
+			return isBlank(next) || next == '\r' || isBreak(next);
+		}
+		if (index + 1 >= scalar.length()) {
+			return true;
+		}
+		return isBlank(scalar.charAt(index + 1)) || isBreak(scalar.charAt(index - 1));
+	}
+
+	private static boolean isBreak(char c) {
+		return c == '\n' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	private static boolean isBlank(char c) {
+		return c == 0 || c == ' ' || c == '\t';
+	}
+
+	///////////////////////////////////////////////////////////////////////////
+	// Implicit resolvers
+
+	/**
+	 * @return whether one of SnakeYAML's implicit resolvers matches the
+	 *         scalar, i.e. written plain it wouldn't be read as a string.
+	 */
+	static boolean resolvesImplicitly(String s) {
+		char first = s.charAt(0);
+		if (first >= 128 || (ASCII[first] & RESOLVABLE) == 0) {
+			return false;
+		}
+		switch (first) {
+		case '~':
+		case ' ':
+		case '!':
+		case '&':
+		case '*':
+			return s.length() == 1;
+		case '<':
+			return s.equals("<<");
+		case '+':
+		case '-':
+		case '.':
+			return isInt(s) || isFloat(s);
+		case 'n':
+		case 'N':
+			return isBool(s) || s.equals("null") || s.equals("Null") || s.equals("NULL");
+		default:
+			if (first <= '9') {
+				return isInt(s) || isFloat(s) || isTimestamp(s);
+			}
+			return isBool(s);
+		}
+	}
+
+	private static boolean isBool(String s) {
+		switch (s) {
+		case "yes": case "Yes": case "YES":
+		case "no": case "No": case "NO":
+		case "true": case "True": case "TRUE":
+		case "false": case "False": case "FALSE":
+		case "on": case "On": case "ON":
+		case "off": case "Off": case "OFF":
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * <code>[-+]?(0b[0-1_]+ | 0[0-7_]+ | 0 | [1-9][0-9_]* | 0x[0-9a-fA-F_]+ | [1-9][0-9_]*(:[0-5]?[0-9])+)</code>
+	 */
+	private static boolean isInt(String s) {
+		int length = s.length();
+		int i = sign(s, 0);
+		if (i == length) {
+			return false;
+		}
+		char c = s.charAt(i);
+		if (c == '0') {
+			if (i + 1 == length) {
+				return true;
+			}
+			char radix = s.charAt(i + 1);
+			if (radix == 'b') {
+				return i + 2 < length && skip(s, i + 2, "01_") == length;
+			}
+			if (radix == 'x') {
+				return i + 2 < length && skip(s, i + 2, "0123456789abcdefABCDEF_") == length;
+			}
+			return skip(s, i + 1, "01234567_") == length;
+		}
+		if (c < '1' || c > '9') {
+			return false;
+		}
+		i = skip(s, i + 1, "0123456789_");
+		return i == length || sexagesimal(s, i) == length;
+	}
+
+	/**
+	 * <code>[-+]?(\.[0-9]+ | [0-9_]+(\.[0-9_]*)?)([eE][-+]?[0-9]+)?</code>,
+	 * <code>[-+]?[0-9][0-9_]*(:[0-5]?[0-9])+\.[0-9_]*</code>,
+	 * <code>[-+]?\.(inf|Inf|INF)</code> or <code>\.(nan|NaN|NAN)</code>
+	 */
+	private static boolean isFloat(String s) {
+		int length = s.length();
+		int start = sign(s, 0);
+		if (start == length) {
+			return false;
+		}
+		String rest = s.substring(start);
+		if (rest.equals(".inf") || rest.equals(".Inf") || rest.equals(".INF")) {
+			return true;
+		}
+		if (start == 0 && (s.equals(".nan") || s.equals(".NaN") || s.equals(".NAN"))) {
+			return true;
+		}
+		int i;
+		if (s.charAt(start) == '.') {
+			i = skip(s, start + 1, "0123456789");
+			if (i == start + 1) {
+				return false;
+			}
+		} else {
+			i = skip(s, start, "0123456789_");
+			if (i == start) {
+				return false;
+			}
+			if (i < length && s.charAt(i) == ':') {
+				//Sexagesimal
+				char c = s.charAt(start);
+				if (c < '0' || c > '9') {
+					return false;
+				}
+				i = sexagesimal(s, i);
+				return i < length && s.charAt(i) == '.' && skip(s, i + 1, "0123456789_") == length;
+			}
+			if (i < length && s.charAt(i) == '.') {
+				i = skip(s, i + 1, "0123456789_");
+			}
+		}
+		if (i < length && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+			int digits = sign(s, i + 1);
+			i = skip(s, digits, "0123456789");
+			if (i == digits) {
+				return false;
+			}
+		}
+		return i == length;
+	}
+
+	/**
+	 * <code>[0-9]{4}-[0-9]{2}-[0-9]{2}</code>, or
+	 * <code>[0-9]{4}-[0-9]{1,2}-[0-9]{1,2}([Tt]|[ \t]+)[0-9]{1,2}:[0-9]{2}:[0-9]{2}(\.[0-9]*)?([ \t]*(Z|[-+][0-9]{1,2}(:[0-9]{2})?))?</code>
+	 */
+	private static boolean isTimestamp(String s) {
+		int length = s.length();
+		if (length < 8 || digits(s, 0, 4) != 4 || s.charAt(4) != '-') {
+			return false;
+		}
+		int month = digits(s, 5, 2);
+		int i = 5 + month;
+		if (month == 0 || i >= length || s.charAt(i) != '-') {
+			return false;
+		}
+		int day = digits(s, i + 1, 2);
+		i += 1 + day;
+		if (day == 0) {
+			return false;
+		}
+		if (i == length) {
+			return month == 2 && day == 2;
+		}
+		char c = s.charAt(i);
+		if (c == 'T' || c == 't') {
+			i++;
+		} else if (c == ' ' || c == '\t') {
+			i = skip(s, i, " \t");
+		} else {
+			return false;
+		}
+		int hour = digits(s, i, 2);
+		i += hour;
+		if (hour == 0 || i >= length || s.charAt(i) != ':' || digits(s, i + 1, 2) != 2) {
+			return false;
+		}
+		i += 3;
+		if (i >= length || s.charAt(i) != ':' || digits(s, i + 1, 2) != 2) {
+			return false;
+		}
+		i += 3;
+		if (i < length && s.charAt(i) == '.') {
+			i = skip(s, i + 1, "0123456789");
+		}
+		if (i == length) {
+			return true;
+		}
+		i = skip(s, i, " \t");
+		if (i == length) {
+			return false;
+		}
+		c = s.charAt(i);
+		if (c == 'Z') {
+			return i + 1 == length;
+		}
+		if (c != '-' && c != '+') {
+			return false;
+		}
+		int zone = digits(s, i + 1, 2);
+		i += 1 + zone;
+		if (zone == 0) {
+			return false;
+		}
+		if (i == length) {
+			return true;
+		}
+		return s.charAt(i) == ':' && digits(s, i + 1, 2) == 2 && i + 3 == length;
+	}
+
+	/**
+	 * Skips <code>(:[0-5]?[0-9])*</code>.
+	 *
+	 * @return the index after the last group that matched.
+	 */
+	private static int sexagesimal(String s, int i) {
+		while (i < s.length() && s.charAt(i) == ':') {
+			int count = digits(s, i + 1, 2);
+			if (count == 0 || (count == 2 && s.charAt(i + 1) > '5')) {
+				return i;
+			}
+			i += 1 + count;
+		}
+		return i;
+	}
+
+	private static int sign(String s, int i) {
+		return i < s.length() && (s.charAt(i) == '-' || s.charAt(i) == '+') ? i + 1 : i;
+	}
+
+	/**
+	 * @return the index of the first character from <code>i</code> on that
+	 *         isn't one of <code>chars</code>.
+	 */
+	private static int skip(String s, int i, String chars) {
+		while (i < s.length() && chars.indexOf(s.charAt(i)) != -1) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @return the number of digits at <code>i</code>, up to <code>max</code>.
+	 */
+	private static int digits(String s, int i, int max) {
+		int count = 0;
+		while (count < max && i + count < s.length() && s.charAt(i + count) >= '0' && s.charAt(i + count) <= '9') {
+			count++;
+		}
+		return count;
+	}
+
+}
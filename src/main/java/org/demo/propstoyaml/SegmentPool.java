@@ -0,0 +1,91 @@
+package org.demo.propstoyaml;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.demo.propstoyaml.YamlPathSegment.ValAtKey;
+
+/**
+ * Bounded pool of {@link ValAtKey} segments, so that the same key occurring
+ * in many property names is represented by one shared segment (and one
+ * shared String).
+ * <p>
+ * The pool is a direct-mapped cache: each key hashes to exactly one slot, and
+ * a miss replaces whatever was in that slot. Lookups can be done on a region
+ * of a larger string, so a hit does not need to create a substring. The pool
+ * is safe to use from several threads; at worst two threads create an equal
+ * segment each.
+ *
+ * @author Kris De Volder
+ */
+public final class SegmentPool {
+
+	private static final int DEFAULT_CAPACITY = 4096;
+
+	private static final SegmentPool SHARED = new SegmentPool(DEFAULT_CAPACITY);
+
+	private final ValAtKey[] slots;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	SegmentPool(int capacity) {
+		this.slots = new ValAtKey[Integer.highestOneBit(capacity * 2 - 1)];
+	}
+
+	/**
+	 * @return the pool used by {@link YamlPathSegment#valueAt(String)} and
+	 *         {@link YamlPath#fromProperty(String)}.
+	 */
+	public static SegmentPool shared() {
+		return SHARED;
+	}
+
+	ValAtKey valueAt(String key) {
+		return valueAt(key, 0, key.length());
+	}
+
+	/**
+	 * @return a segment for the key <code>text.substring(start, end)</code>.
+	 */
+	ValAtKey valueAt(String text, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + text.charAt(i);
+		}
+		int slot = (h ^ (h >>> 16)) & (slots.length - 1);
+		ValAtKey cached = slots[slot];
+		if (cached != null) {
+			String key = cached.toPropString();
+			if (key.length() == end - start && key.hashCode() == h && key.regionMatches(0, text, start, end - start)) {
+				hits.increment();
+				return cached;
+			}
+		}
+		misses.increment();
+		String key = start == 0 && end == text.length() ? text : text.substring(start, end);
+		return slots[slot] = new ValAtKey(key);
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the fraction of lookups that found a shared segment, or 0 if
+	 *         there were no lookups yet.
+	 */
+	public double getHitRate() {
+		long h = getHits();
+		long total = h + getMisses();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	public void resetStats() {
+		hits.reset();
+		misses.reset();
+	}
+
+}
@@ -0,0 +1,290 @@
+package org.demo.propstoyaml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.demo.propstoyaml.PropertySweep.Property;
+import org.demo.propstoyaml.YamlPathSegment.AtIndex;
+
+/**
+ * Runs of sorted properties, spilled to temp files by a
+ * {@link PropertySweep} that went over its memory budget, and merged back
+ * into a single sorted stream when the yaml is written.
+ * <p>
+ * A run is a sequence of records, each a marker byte that tells whether
+ * the value replaces earlier ones and whether the name of the property
+ * follows, the name if so, the path as a segment count followed by the
+ * segments, and the value. Strings are written as their length followed
+ * by chunks of modified UTF-8, so they come back exactly as they were, lone
+ * surrogates included.
+ * <p>
+ * At most {@link #MAX_FAN_IN} runs are merged at once, so the buffers and
+ * open files of a merge don't grow with the input. Beyond that, groups of
+ * consecutive runs are first merged into longer runs.
+ *
+ * @author Kris De Volder
+ */
+final class SortedRuns implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	static final int MAX_FAN_IN = 64;
+	/**
+	 * Record markers, after the 0 that ends a run.
+	 */
+	private static final byte ADD = 1;
+	private static final byte REPLACE = 2;
+	private static final byte NAMED = 3;
+	/**
+	 * Chars per {@link DataOutputStream#writeUTF(String)} chunk, small enough
+	 * that a chunk never exceeds its 64K byte limit.
+	 */
+	private static final int CHUNK = 16384;
+
+	private final List<Path> files = new ArrayList<>();
+
+	boolean isEmpty() {
+		return files.isEmpty();
+	}
+
+	int size() {
+		return files.size();
+	}
+
+	/**
+	 * Writes sorted properties to a new run.
+	 */
+	void write(Property[] properties, int size) throws IOException {
+		Path file = Files.createTempFile("props-to-yaml-run", ".bin");
+		files.add(file);
+		try (DataOutputStream out = newOutput(file)) {
+			for (int i = 0; i < size; i++) {
+				write(out, properties[i]);
+			}
+			out.writeByte(0);
+		}
+	}
+
+	private static DataOutputStream newOutput(Path file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+	}
+
+	private static void write(DataOutputStream out, Property p) throws IOException {
+		if (p.name != null) {
+			out.writeByte(NAMED);
+			writeString(out, p.name);
+		} else {
+			out.writeByte(p.replace ? REPLACE : ADD);
+		}
+		out.writeInt(p.path.size());
+		for (int s = 0; s < p.path.size(); s++) {
+			YamlPathSegment segment = p.path.getSegment(s);
+			if (segment instanceof AtIndex) {
+				out.writeByte('[');
+				out.writeInt(((AtIndex) segment).getIndex());
+			} else {
+				out.writeByte('.');
+				writeString(out, segment.toPropString());
+			}
+		}
+		writeString(out, p.value);
+	}
+
+	/**
+	 * @param order the order the runs were sorted in.
+	 * @return a reader for the properties of all runs, in order. Properties
+	 *         with the same path come in the order they were added in.
+	 */
+	Merge merge(Comparator<Property> order) throws IOException {
+		while (files.size() > MAX_FAN_IN) {
+			compact(order);
+		}
+		return merge(order, files);
+	}
+
+	/**
+	 * Replaces each group of {@link #MAX_FAN_IN} consecutive runs by a run
+	 * merged from them. The runs stay in the order they were written in, so
+	 * properties with the same path still come in the order they were added
+	 * in.
+	 */
+	private void compact(Comparator<Property> order) throws IOException {
+		List<Path> compacted = new ArrayList<>();
+		List<Path> merged = new ArrayList<>();
+		try {
+			for (int from = 0; from < files.size(); from += MAX_FAN_IN) {
+				List<Path> group = files.subList(from, Math.min(files.size(), from + MAX_FAN_IN));
+				if (group.size() == 1) {
+					compacted.add(group.get(0));
+					continue;
+				}
+				Path file = Files.createTempFile("props-to-yaml-run", ".bin");
+				compacted.add(file);
+				merged.add(file);
+				try (Merge merge = merge(order, group); DataOutputStream out = newOutput(file)) {
+					for (Property p = merge.next(); p != null; p = merge.next()) {
+						write(out, p);
+					}
+					out.writeByte(0);
+				}
+			}
+		} catch (IOException e) {
+			merged.forEach(SortedRuns::delete);
+			throw e;
+		}
+		for (Path file : files) {
+			if (!compacted.contains(file)) {
+				delete(file);
+			}
+		}
+		files.clear();
+		files.addAll(compacted);
+	}
+
+	private static Merge merge(Comparator<Property> order, List<Path> files) throws IOException {
+		Merge merge = new Merge(order);
+		try {
+			for (int i = 0; i < files.size(); i++) {
+				Run run = new Run(files.get(i), i);
+				if (run.advance()) {
+					merge.queue.add(run);
+				} else {
+					run.close();
+				}
+			}
+		} catch (IOException e) {
+			merge.close();
+			throw e;
+		}
+		return merge;
+	}
+
+	/**
+	 * Deletes the temp files.
+	 */
+	@Override
+	public void close() {
+		files.forEach(SortedRuns::delete);
+		files.clear();
+	}
+
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			file.toFile().deleteOnExit();
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		out.writeInt(s.length());
+		for (int start = 0; start < s.length(); start += CHUNK) {
+			out.writeUTF(s.substring(start, Math.min(s.length(), start + CHUNK)));
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length <= CHUNK) {
+			return length == 0 ? "" : in.readUTF();
+		}
+		StringBuilder buf = new StringBuilder(length);
+		while (buf.length() < length) {
+			buf.append(in.readUTF());
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * K-way merge of the runs: a priority queue holding each run that has
+	 * properties left, ordered by its current property.
+	 */
+	static final class Merge implements Closeable {
+
+		private final PriorityQueue<Run> queue;
+
+		Merge(Comparator<Property> order) {
+			queue = new PriorityQueue<>((a, b) -> {
+				int result = order.compare(a.current, b.current);
+				return result != 0 ? result : Integer.compare(a.number, b.number);
+			});
+		}
+
+		/**
+		 * @return the next property, or null if there are none left.
+		 */
+		Property next() throws IOException {
+			Run run = queue.poll();
+			if (run == null) {
+				return null;
+			}
+			Property next = run.current;
+			if (run.advance()) {
+				queue.add(run);
+			} else {
+				run.close();
+			}
+			return next;
+		}
+
+		@Override
+		public void close() throws IOException {
+			for (Run run : queue) {
+				run.close();
+			}
+			queue.clear();
+		}
+	}
+
+	private static final class Run implements Closeable {
+
+		final int number;
+		private final DataInputStream in;
+		Property current;
+
+		Run(Path file, int number) throws IOException {
+			this.number = number;
+			this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+		}
+
+		/**
+		 * Reads the next property into current.
+		 *
+		 * @return false at the end of the run.
+		 */
+		boolean advance() throws IOException {
+			byte marker = in.readByte();
+			if (marker == 0) {
+				current = null;
+				return false;
+			}
+			String name = marker == NAMED ? readString(in) : null;
+			YamlPathSegment[] segments = new YamlPathSegment[in.readInt()];
+			for (int i = 0; i < segments.length; i++) {
+				if (in.readByte() == '[') {
+					segments[i] = YamlPathSegment.valueAt(in.readInt());
+				} else {
+					segments[i] = YamlPathSegment.valueAt(readString(in));
+				}
+			}
+			YamlPath path = segments.length == 0 ? YamlPath.EMPTY : new YamlPath(segments);
+			current = new Property(path, readString(in), marker != ADD, name);
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+}
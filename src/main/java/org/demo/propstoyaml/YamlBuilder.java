@@ -0,0 +1,715 @@
+package org.demo.propstoyaml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.demo.propstoyaml.ConversionStatus.MessageCode;
+import org.demo.propstoyaml.PropertiesToYamlConverter.KeyOrder;
+import org.demo.propstoyaml.YamlPathSegment.AtIndex;
+
+/**
+ * Tree of property values, built up one property at a time and then turned
+ * into yaml.
+ * <p>
+ * The tree is a compact trie: a node only knows its parent and its own key
+ * (or list index), and its full {@link YamlPath} is reconstructed when a
+ * diagnostic needs it. Children are kept in a plain array in the order they
+ * were added. Lookups scan the array while it is small and go through an
+ * index table once it is not. For a node whose children are all list items
+ * with indexes from about 0 to n, the table is a plain array indexed by
+ * list index; otherwise it is open-addressed. Children are only sorted when
+ * the tree is resolved, and map entries only when writing them in
+ * {@link KeyOrder#SORTED} order.
+ *
+ * @author Kris De Volder
+ */
+final class YamlBuilder {
+
+	/**
+	 * Nodes with more children than this get an index table for lookups.
+	 */
+	private static final int LINEAR_LIMIT = 8;
+
+	/**
+	 * List items first, by index, then map entries by key.
+	 */
+	private static final Comparator<YamlBuilder> CHILD_ORDER = (a, b) -> {
+		if (a.key == null) {
+			return b.key == null ? Integer.compare(a.index, b.index) : -1;
+		}
+		return b.key == null ? 1 : a.key.compareTo(b.key);
+	};
+
+	/**
+	 * Orders children by the key they get in a yaml map.
+	 */
+	private static final Comparator<YamlBuilder> MAP_KEY_ORDER = (a, b) -> a.mapKey().compareTo(b.mapKey());
+
+	private static final YamlBuilder[] NO_CHILDREN = new YamlBuilder[0];
+
+	private final YamlBuilder parent;
+	/**
+	 * The map key of this node, or null if it is a list item.
+	 */
+	private final String key;
+	private final int index;
+
+	private String[] scalars;
+	private YamlBuilder[] children = NO_CHILDREN;
+	private int childCount = 0;
+	/**
+	 * Index of the children: positions in the children array plus one, 0
+	 * marks a free slot. Null while the node has few children.
+	 */
+	private int[] table;
+	/**
+	 * Whether the table is indexed by list index rather than open-addressed.
+	 * Set while all children are list items with dense indexes.
+	 */
+	private boolean denseTable = false;
+	/**
+	 * Set when list items and map entries were mixed, and the list items are
+	 * to be treated as map entries.
+	 */
+	private boolean listItemsAsKeys = false;
+	/**
+	 * The number of property assignments made in this subtree, used to
+	 * decide whether it is worth resolving in parallel.
+	 */
+	private int propertyCount = 0;
+
+	/**
+	 * Creates the root of a new tree.
+	 */
+	YamlBuilder() {
+		this(null, null, -1);
+	}
+
+	private YamlBuilder(YamlBuilder parent, String key, int index) {
+		this.parent = parent;
+		this.key = key;
+		this.index = index;
+	}
+
+	YamlPath getPath() {
+		int depth = 0;
+		for (YamlBuilder n = this; n.parent != null; n = n.parent) {
+			depth++;
+		}
+		YamlPathSegment[] segments = new YamlPathSegment[depth];
+		for (YamlBuilder n = this; n.parent != null; n = n.parent) {
+			segments[--depth] = n.key == null ? YamlPathSegment.valueAt(n.index) : YamlPathSegment.valueAt(n.key);
+		}
+		return segments.length == 0 ? YamlPath.EMPTY : new YamlPath(segments);
+	}
+
+	boolean isEmpty() {
+		return scalars == null && childCount == 0;
+	}
+
+	/**
+	 * @return the node the value was assigned to.
+	 */
+	YamlBuilder addProperty(YamlPath path, String value) {
+		YamlBuilder node = assign(path);
+		node.addScalar(value);
+		return node;
+	}
+
+	/**
+	 * Assigns a value the way {@link java.util.Properties#load(java.io.Reader)}
+	 * would: it replaces the value assigned before by a property with the
+	 * same name, and is added to the values of other spellings of the path.
+	 *
+	 * @param name the name of the property, or null if it is spelled as
+	 *        path.toPropString().
+	 * @param names the names of the properties that assigned the values of
+	 *        a node, for the nodes where some name isn't spelled as its
+	 *        path. Updated as values are assigned.
+	 * @return the node the value was assigned to.
+	 */
+	YamlBuilder setProperty(YamlPath path, String value, String name, Map<YamlBuilder, String[]> names) {
+		YamlBuilder node = assign(path);
+		String[] existing = node.scalars;
+		if (existing == null) {
+			node.scalars = new String[] { value };
+			if (name != null) {
+				names.put(node, new String[] { name });
+			}
+			return node;
+		}
+		String[] assigned = names.get(node);
+		for (int i = 0; i < existing.length; i++) {
+			if (Objects.equals(name, assigned == null ? null : assigned[i])) {
+				existing[i] = value;
+				return node;
+			}
+		}
+		node.addScalar(value);
+		if (assigned != null || name != null) {
+			assigned = assigned == null ? new String[existing.length + 1] : Arrays.copyOf(assigned, existing.length + 1);
+			assigned[existing.length] = name;
+			names.put(node, assigned);
+		}
+		return node;
+	}
+
+	/**
+	 * @return the node at a path, counting a property assignment in the
+	 *         subtrees on the way.
+	 */
+	private YamlBuilder assign(YamlPath path) {
+		YamlBuilder node = this;
+		node.propertyCount++;
+		for (int i = 0; i < path.size(); i++) {
+			node = node.getChild(path.getSegment(i));
+			node.propertyCount++;
+		}
+		return node;
+	}
+
+	private void addScalar(String value) {
+		if (scalars == null) {
+			scalars = new String[] { value };
+		} else {
+			String[] values = Arrays.copyOf(scalars, scalars.length + 1);
+			values[scalars.length] = value;
+			scalars = values;
+		}
+	}
+
+	/**
+	 * @return the node at the given path below this one, created if needed.
+	 */
+	YamlBuilder descend(YamlPath path) {
+		YamlBuilder node = this;
+		for (int i = 0; i < path.size(); i++) {
+			node = node.getChild(path.getSegment(i));
+		}
+		return node;
+	}
+
+	private YamlBuilder getChild(YamlPathSegment segment) {
+		if (segment instanceof AtIndex) {
+			return getChild(null, ((AtIndex) segment).getIndex());
+		}
+		return getChild(segment.toPropString(), -1);
+	}
+
+	private YamlBuilder getChild(String key, int index) {
+		int hash = hash(key, index);
+		if (table == null) {
+			for (int i = 0; i < childCount; i++) {
+				if (children[i].matches(key, index)) {
+					return children[i];
+				}
+			}
+		} else if (denseTable) {
+			if (key == null && index >= 0 && index < table.length && table[index] != 0) {
+				return children[table[index] - 1];
+			}
+		} else {
+			int mask = table.length - 1;
+			for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+				YamlBuilder child = children[table[slot] - 1];
+				if (child.matches(key, index)) {
+					return child;
+				}
+			}
+		}
+		YamlBuilder child = new YamlBuilder(this, key, index);
+		if (childCount == children.length) {
+			children = Arrays.copyOf(children, Math.max(2, childCount * 2));
+		}
+		children[childCount++] = child;
+		if (denseTable) {
+			if (key == null && index >= 0 && index < 2 * childCount) {
+				if (index >= table.length) {
+					table = Arrays.copyOf(table, denseTableSize(index));
+				}
+				table[index] = childCount;
+			} else {
+				//A map entry, or a gap in the indexes: no longer dense.
+				reindex();
+			}
+		} else if (table != null && childCount * 2 <= table.length) {
+			insert(table, hash, childCount);
+		} else if (childCount > LINEAR_LIMIT) {
+			reindex();
+		}
+		return child;
+	}
+
+	private boolean matches(String key, int index) {
+		return key == null ? this.key == null && this.index == index : key.equals(this.key);
+	}
+
+	private static int hash(String key, int index) {
+		int h = key == null ? index * 0x9E3779B9 : key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private void reindex() {
+		int maxIndex = maxDenseIndex();
+		if (maxIndex >= 0) {
+			int[] newTable = new int[denseTableSize(maxIndex)];
+			for (int i = 0; i < childCount; i++) {
+				newTable[children[i].index] = i + 1;
+			}
+			table = newTable;
+			denseTable = true;
+			return;
+		}
+		denseTable = false;
+		int size = Integer.highestOneBit(Math.max(childCount, LINEAR_LIMIT) * 4 - 1);
+		int[] newTable = new int[size];
+		for (int i = 0; i < childCount; i++) {
+			insert(newTable, hash(children[i].key, children[i].index), i + 1);
+		}
+		table = newTable;
+	}
+
+	/**
+	 * @return the largest index of the children if they are all list items
+	 *         and at least half of the indexes up to it are used, -1
+	 *         otherwise.
+	 */
+	private int maxDenseIndex() {
+		if (listItemsAsKeys) {
+			return -1;
+		}
+		int max = -1;
+		for (int i = 0; i < childCount; i++) {
+			YamlBuilder child = children[i];
+			if (child.key != null || child.index < 0) {
+				return -1;
+			}
+			max = Math.max(max, child.index);
+		}
+		return max < 2 * childCount ? max : -1;
+	}
+
+	/**
+	 * @return the size of a dense table that can hold the given index: the
+	 *         next power of two, so the table grows by doubling.
+	 */
+	private static int denseTableSize(int index) {
+		return Integer.highestOneBit(Math.max(index, LINEAR_LIMIT)) * 2;
+	}
+
+	private static void insert(int[] table, int hash, int position) {
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = position;
+	}
+
+	private boolean isListItem() {
+		return key == null;
+	}
+
+	/**
+	 * @return the key this node is given in a yaml map.
+	 */
+	private String mapKey() {
+		return key == null ? Integer.toString(index) : key;
+	}
+
+	/**
+	 * @return whether, once resolved, this node is a yaml sequence of its
+	 *         children.
+	 */
+	private boolean isSequence() {
+		return childCount > 0 && !listItemsAsKeys && children[0].isListItem();
+	}
+
+	public Object build(ConversionStatus status) {
+		return build(status, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Like {@link #build(ConversionStatus)}, but subtrees with at least
+	 * <code>parallelThreshold</code> properties are resolved and built by
+	 * fork/join tasks.
+	 */
+	Object build(ConversionStatus status, int parallelThreshold) {
+		resolve(status, parallelThreshold, KeyOrder.SORTED);
+		return toObject(parallelThreshold);
+	}
+
+	void resolve(ConversionStatus status) {
+		resolve(status, Integer.MAX_VALUE, KeyOrder.SORTED);
+	}
+
+	/**
+	 * Applies the conflict rules to this subtree, reporting any problems in
+	 * the status. Afterwards each node holds either scalars, list items or
+	 * map entries, but never a mix of them.
+	 * <p>
+	 * Map entries are put in the given order, list items always in index
+	 * order. Where list items and map entries are mixed, the list items
+	 * become map entries keyed by their index, and replace map entries with
+	 * the same key.
+	 * <p>
+	 * Subtrees with at least <code>parallelThreshold</code> properties have
+	 * their children resolved in parallel. Each task reports into a status
+	 * of its own, and these are merged in the order of the children, so the
+	 * messages are the same and in the same order as when resolving
+	 * sequentially. With a status that fails fast, children are always
+	 * resolved sequentially, so the conversion stops at the same error
+	 * every time.
+	 */
+	void resolve(ConversionStatus status, int parallelThreshold, KeyOrder order) {
+		if (!resolveNode(status, order)) {
+			return;
+		}
+		if (propertyCount < parallelThreshold || childCount < 2 || status.isFailFast()) {
+			for (int i = 0; i < childCount; i++) {
+				children[i].resolve(status, parallelThreshold, order);
+			}
+		} else {
+			List<ResolveTask> tasks = new ArrayList<>();
+			forEachChunk(parallelThreshold, (from, to) -> tasks.add(new ResolveTask(this, from, to, parallelThreshold, order, status.newStatus())));
+			ForkJoinTask.invokeAll(tasks);
+			for (ResolveTask task : tasks) {
+				status.addAll(task.status);
+			}
+		}
+	}
+
+	/**
+	 * Resolves the conflicts in this node itself, but not in its children.
+	 *
+	 * @return whether the children need resolving.
+	 */
+	private boolean resolveNode(ConversionStatus status, KeyOrder order) {
+		boolean hasListItems;
+		boolean hasMapEntries;
+		if (order == KeyOrder.SORTED || denseTable) {
+			if (denseTable) {
+				sortDense();
+			} else if (childCount > 1) {
+				Arrays.sort(children, 0, childCount, CHILD_ORDER);
+				if (table != null) {
+					reindex();
+				}
+			}
+			hasListItems = childCount > 0 && children[0].isListItem();
+			hasMapEntries = childCount > 0 && !children[childCount - 1].isListItem();
+		} else {
+			//Map entries stay in the order they were added in.
+			hasListItems = false;
+			hasMapEntries = false;
+			for (int i = 0; i < childCount; i++) {
+				if (children[i].isListItem()) {
+					hasListItems = true;
+				} else {
+					hasMapEntries = true;
+				}
+			}
+			if (hasListItems && !hasMapEntries && childCount > 1) {
+				Arrays.sort(children, 0, childCount, CHILD_ORDER);
+				if (table != null) {
+					reindex();
+				}
+			}
+		}
+		if (scalars != null) {
+			if (childCount == 0) {
+				if (scalars.length > 1) {
+					status.add(MessageCode.MULTIPLE_VALUES, this::getPath, scalars, null);
+				}
+				return false;
+			} else {
+				if (hasMapEntries) {
+					status.add(MessageCode.SCALAR_AND_MAP, this::getPath, scalars, firstMapEntry().key);
+				} else {
+					status.add(MessageCode.SCALAR_AND_SEQUENCE, this::getPath, scalars, children[0].index);
+				}
+				scalars = null;
+			}
+		}
+		if (hasListItems && hasMapEntries) {
+			status.add(MessageCode.SEQUENCE_AND_MAP, this::getPath, null, null);
+			if (order == KeyOrder.SORTED) {
+				mergeListItemsIntoMap();
+			} else {
+				mergeListItemsInPlace();
+			}
+		}
+		return true;
+	}
+
+	private interface ChunkConsumer {
+		void accept(int from, int to);
+	}
+
+	/**
+	 * Splits the children into consecutive ranges of roughly a quarter of
+	 * the threshold in properties, so that a task is never too small to be
+	 * worth forking. A child at or above the threshold gets a range of its
+	 * own, and will split its own children further.
+	 */
+	private void forEachChunk(int parallelThreshold, ChunkConsumer consumer) {
+		int target = Math.max(1, parallelThreshold / 4);
+		int from = 0;
+		int size = 0;
+		for (int i = 0; i < childCount; i++) {
+			int childSize = children[i].propertyCount;
+			if (childSize >= parallelThreshold && from < i) {
+				consumer.accept(from, i);
+				from = i;
+				size = 0;
+			}
+			size += childSize;
+			if (size >= target) {
+				consumer.accept(from, i + 1);
+				from = i + 1;
+				size = 0;
+			}
+		}
+		if (from < childCount) {
+			consumer.accept(from, childCount);
+		}
+	}
+
+	private static class ResolveTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final YamlBuilder parent;
+		final int from;
+		final int to;
+		final int parallelThreshold;
+		final KeyOrder order;
+		final ConversionStatus status;
+
+		ResolveTask(YamlBuilder parent, int from, int to, int parallelThreshold, KeyOrder order, ConversionStatus status) {
+			this.parent = parent;
+			this.status = status;
+			this.from = from;
+			this.to = to;
+			this.parallelThreshold = parallelThreshold;
+			this.order = order;
+		}
+
+		@Override
+		protected void compute() {
+			for (int i = from; i < to; i++) {
+				parent.children[i].resolve(status, parallelThreshold, order);
+			}
+		}
+	}
+
+	private static class ToObjectTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final YamlBuilder parent;
+		final int from;
+		final int to;
+		final int parallelThreshold;
+		final Object[] values;
+
+		ToObjectTask(YamlBuilder parent, int from, int to, int parallelThreshold, Object[] values) {
+			this.parent = parent;
+			this.from = from;
+			this.to = to;
+			this.parallelThreshold = parallelThreshold;
+			this.values = values;
+		}
+
+		@Override
+		protected void compute() {
+			for (int i = from; i < to; i++) {
+				values[i] = parent.children[i].toObject(parallelThreshold);
+			}
+		}
+	}
+
+	private YamlBuilder firstMapEntry() {
+		for (int i = 0; i < childCount; i++) {
+			if (!children[i].isListItem()) {
+				return children[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Puts list items that are indexed by a dense table in index order, by
+	 * walking the table rather than comparing them.
+	 */
+	private void sortDense() {
+		YamlBuilder[] sorted = new YamlBuilder[children.length];
+		int count = 0;
+		for (int i = 0; i < table.length; i++) {
+			if (table[i] != 0) {
+				sorted[count] = children[table[i] - 1];
+				table[i] = ++count;
+			}
+		}
+		children = sorted;
+	}
+
+	/**
+	 * Re-sorts the children by their map key. Where a list item and a map
+	 * entry end up with the same key, the list item replaces the map entry.
+	 */
+	private void mergeListItemsIntoMap() {
+		listItemsAsKeys = true;
+		Arrays.sort(children, 0, childCount, MAP_KEY_ORDER);
+		int kept = 0;
+		for (int i = 0; i < childCount; i++) {
+			YamlBuilder child = children[i];
+			if (kept > 0 && children[kept - 1].mapKey().equals(child.mapKey())) {
+				if (child.isListItem()) {
+					children[kept - 1] = child;
+				}
+			} else {
+				children[kept++] = child;
+			}
+		}
+		Arrays.fill(children, kept, childCount, null);
+		childCount = kept;
+		if (table != null) {
+			reindex();
+		}
+	}
+
+	/**
+	 * Like {@link #mergeListItemsIntoMap()}, but keeps the children in the
+	 * order they were added in. A list item that replaces a map entry takes
+	 * its place.
+	 */
+	private void mergeListItemsInPlace() {
+		listItemsAsKeys = true;
+		Map<String, Integer> positions = new HashMap<>(childCount * 4 / 3 + 1);
+		int kept = 0;
+		for (int i = 0; i < childCount; i++) {
+			YamlBuilder child = children[i];
+			Integer position = positions.putIfAbsent(child.mapKey(), kept);
+			if (position != null) {
+				if (child.isListItem()) {
+					children[position] = child;
+				}
+			} else {
+				children[kept++] = child;
+			}
+		}
+		Arrays.fill(children, kept, childCount, null);
+		childCount = kept;
+		if (table != null) {
+			reindex();
+		}
+	}
+
+	/**
+	 * Builds the graph of Maps, Lists and Strings for a resolved subtree.
+	 * The children of a resolved node are already in order, so maps are
+	 * LinkedHashMaps filled in that order.
+	 */
+	Object toObject(int parallelThreshold) {
+		if (scalars != null) {
+			return scalars.length > 1 ? Arrays.asList(scalars) : scalars[0];
+		}
+		Object[] values = new Object[childCount];
+		if (propertyCount < parallelThreshold || childCount < 2) {
+			for (int i = 0; i < childCount; i++) {
+				values[i] = children[i].toObject(parallelThreshold);
+			}
+		} else {
+			List<ToObjectTask> tasks = new ArrayList<>();
+			forEachChunk(parallelThreshold, (from, to) -> tasks.add(new ToObjectTask(this, from, to, parallelThreshold, values)));
+			ForkJoinTask.invokeAll(tasks);
+		}
+		if (isSequence()) {
+			return Arrays.asList(values);
+		} else {
+			Map<String, Object> map = new LinkedHashMap<>(childCount * 4 / 3 + 1);
+			for (int i = 0; i < childCount; i++) {
+				map.put(children[i].mapKey(), values[i]);
+			}
+			return map;
+		}
+	}
+
+	/**
+	 * Counts the nodes below this one into <code>tree[0]</code>, and
+	 * raises <code>tree[1]</code> to the depth of the deepest one.
+	 */
+	void measure(int depth, int[] tree) {
+		if (depth > tree[1]) {
+			tree[1] = depth;
+		}
+		for (int i = 0; i < childCount; i++) {
+			tree[0]++;
+			children[i].measure(depth + 1, tree);
+		}
+	}
+
+	/**
+	 * Writes the yaml for a resolved subtree; the same yaml SnakeYAML
+	 * would produce for {@link #toObject(int)}.
+	 */
+	void emit(YamlEmitter emitter) throws IOException {
+		emit(emitter, Collections.emptyMap());
+	}
+
+	/**
+	 * Like {@link #emit(YamlEmitter)}, but writes the comments of a node
+	 * above its map key or list item marker.
+	 *
+	 * @param comments comment lines by node, without their leading '#'.
+	 */
+	void emit(YamlEmitter emitter, Map<YamlBuilder, List<String>> comments) throws IOException {
+		if (scalars != null) {
+			if (scalars.length > 1) {
+				emitter.startSequence(false);
+				for (String scalar : scalars) {
+					emitter.scalar(scalar);
+				}
+				emitter.endSequence();
+			} else {
+				emitter.scalar(scalars[0]);
+			}
+		} else if (isSequence()) {
+			emitter.startSequence(false);
+			for (int i = 0; i < childCount; i++) {
+				emitComments(emitter, comments, children[i]);
+				children[i].emit(emitter, comments);
+			}
+			emitter.endSequence();
+		} else {
+			emitter.startMapping(childCount == 0);
+			for (int i = 0; i < childCount; i++) {
+				emitComments(emitter, comments, children[i]);
+				emitter.scalar(children[i].mapKey());
+				children[i].emit(emitter, comments);
+			}
+			emitter.endMapping();
+		}
+	}
+
+	private static void emitComments(YamlEmitter emitter, Map<YamlBuilder, List<String>> comments, YamlBuilder node) throws IOException {
+		if (!comments.isEmpty()) {
+			List<String> lines = comments.get(node);
+			if (lines != null) {
+				for (String line : lines) {
+					emitter.comment(line);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,672 @@
+package org.demo.propstoyaml;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.reader.StreamReader;
+
+/**
+ * Writes block style yaml directly to an {@link Appendable}, driven by a
+ * small set of structural calls (start/end of documents, mappings and
+ * sequences, and scalars) rather than an object graph.
+ * <p>
+ * The output is meant to be byte-for-byte the same as what SnakeYAML 1.19
+ * produces for the equivalent object graph of Strings, Lists and Maps when
+ * dumped with block flow style and pretty flow enabled. So the layout and
+ * quoting rules below follow SnakeYAML's Emitter and Representer closely;
+ * only the parts reachable from such a graph are implemented.
+ * <p>
+ * An emitter writes a single document and keeps only O(depth) state, so the
+ * yaml can be streamed out as the caller walks its tree.
+ *
+ * @author Kris De Volder
+ */
+final class YamlEmitter {
+
+	private static final int BEST_INDENT = 2;
+	private static final int BEST_WIDTH = 80;
+	private static final String BINARY_TAG = "!!binary";
+
+	private enum State {
+		DOCUMENT_START,
+		DOCUMENT_END,
+		DONE,
+		BLOCK_SEQUENCE_FIRST_ITEM,
+		BLOCK_SEQUENCE_ITEM,
+		BLOCK_MAPPING_FIRST_KEY,
+		BLOCK_MAPPING_KEY,
+		BLOCK_MAPPING_SIMPLE_VALUE,
+		BLOCK_MAPPING_VALUE,
+		FLOW_SEQUENCE_FIRST_ITEM,
+		FLOW_MAPPING_FIRST_KEY
+	}
+
+	private final Appendable out;
+
+	private State state = State.DOCUMENT_START;
+	private State[] states = new State[16];
+	private int stateCount = 0;
+
+	//Current indentation, -1 meaning 'none yet', and the stack of enclosing ones.
+	private int indent = -1;
+	private int[] indents = new int[16];
+	private int indentCount = 0;
+
+	private int flowLevel = 0;
+	private boolean mappingContext;
+	private boolean simpleKeyContext;
+
+	//Characteristics of the last written character
+	private int column = 0;
+	private boolean whitespace = true;
+	private boolean indention = true;
+
+	YamlEmitter(Appendable out) {
+		this.out = out;
+	}
+
+	public void endDocument() throws IOException {
+		expectState(State.DOCUMENT_END);
+		writeIndent();
+		state = State.DONE;
+	}
+
+	public void scalar(String value) throws IOException {
+		Scalar scalar = new Scalar(value);
+		beginNode(scalar);
+		if (scalar.tag != null) {
+			// Only non-plain styles are ever chosen for tagged scalars.
+			chooseStyle(scalar);
+			writeIndicator(scalar.tag, true, false, false);
+		}
+		increaseIndent(true, false);
+		writeScalar(scalar);
+		indent = popIndent();
+		state = popState();
+	}
+
+	/**
+	 * Writes a comment line. Comments can only go before a key of a block
+	 * mapping or an item of a block sequence, and after the end of the
+	 * document.
+	 *
+	 * @param text the comment, without the leading '#'. Characters that
+	 *        would end the line are written as spaces, and those that
+	 *        aren't printable as U+FFFD.
+	 */
+	public void comment(String text) throws IOException {
+		text = ScalarAnalysis.commentText(text);
+		switch (state) {
+		case BLOCK_MAPPING_FIRST_KEY:
+		case BLOCK_MAPPING_KEY:
+		case BLOCK_SEQUENCE_FIRST_ITEM:
+		case BLOCK_SEQUENCE_ITEM:
+			writeIndent();
+			break;
+		case DONE:
+			break;
+		default:
+			throw new IllegalStateException("Unexpected comment in state " + state);
+		}
+		write("#");
+		write(text);
+		this.column += 1 + text.length();
+		this.whitespace = false;
+		this.indention = false;
+		if (state == State.DONE) {
+			writeLineBreak();
+		}
+	}
+
+	public void startMapping(boolean empty) throws IOException {
+		beginNode(null);
+		if (flowLevel != 0 || empty) {
+			writeIndicator("{", true, true, false);
+			flowLevel++;
+			increaseIndent(true, false);
+			writeIndent();
+			state = State.FLOW_MAPPING_FIRST_KEY;
+		} else {
+			increaseIndent(false, false);
+			state = State.BLOCK_MAPPING_FIRST_KEY;
+		}
+	}
+
+	public void endMapping() throws IOException {
+		if (state == State.FLOW_MAPPING_FIRST_KEY) {
+			indent = popIndent();
+			flowLevel--;
+			writeIndicator("}", false, false, false);
+		} else {
+			expectState(State.BLOCK_MAPPING_KEY);
+			indent = popIndent();
+		}
+		state = popState();
+	}
+
+	public void startSequence(boolean empty) throws IOException {
+		beginNode(null);
+		if (flowLevel != 0 || empty) {
+			writeIndicator("[", true, true, false);
+			flowLevel++;
+			increaseIndent(true, false);
+			writeIndent();
+			state = State.FLOW_SEQUENCE_FIRST_ITEM;
+		} else {
+			increaseIndent(false, mappingContext && !indention);
+			state = State.BLOCK_SEQUENCE_FIRST_ITEM;
+		}
+	}
+
+	public void endSequence() throws IOException {
+		if (state == State.FLOW_SEQUENCE_FIRST_ITEM) {
+			indent = popIndent();
+			flowLevel--;
+			writeIndicator("]", false, false, false);
+		} else {
+			expectState(State.BLOCK_SEQUENCE_ITEM);
+			indent = popIndent();
+		}
+		state = popState();
+	}
+
+	/**
+	 * Writes whatever has to precede the next node in the current state
+	 * (document start, '-' or ':' indicators...) and sets up the node context.
+	 *
+	 * @param scalar the node if it is a scalar, or null for a collection.
+	 */
+	private void beginNode(Scalar scalar) throws IOException {
+		switch (state) {
+		case DOCUMENT_START:
+			pushState(State.DOCUMENT_END);
+			setContext(false, false);
+			break;
+		case BLOCK_SEQUENCE_FIRST_ITEM:
+		case BLOCK_SEQUENCE_ITEM:
+			writeIndent();
+			writeIndicator("-", true, false, true);
+			pushState(State.BLOCK_SEQUENCE_ITEM);
+			setContext(false, false);
+			break;
+		case BLOCK_MAPPING_FIRST_KEY:
+		case BLOCK_MAPPING_KEY:
+			if (scalar == null) {
+				throw new IllegalStateException("Only scalar mapping keys are supported");
+			}
+			writeIndent();
+			if (checkSimpleKey(scalar)) {
+				pushState(State.BLOCK_MAPPING_SIMPLE_VALUE);
+				setContext(true, true);
+			} else {
+				writeIndicator("?", true, false, true);
+				pushState(State.BLOCK_MAPPING_VALUE);
+				setContext(true, false);
+			}
+			break;
+		case BLOCK_MAPPING_SIMPLE_VALUE:
+			writeIndicator(":", false, false, false);
+			pushState(State.BLOCK_MAPPING_KEY);
+			setContext(true, false);
+			break;
+		case BLOCK_MAPPING_VALUE:
+			writeIndent();
+			writeIndicator(":", true, false, true);
+			pushState(State.BLOCK_MAPPING_KEY);
+			setContext(true, false);
+			break;
+		default:
+			throw new IllegalStateException("Unexpected node in state " + state);
+		}
+	}
+
+	private void setContext(boolean mapping, boolean simpleKey) {
+		mappingContext = mapping;
+		simpleKeyContext = simpleKey;
+	}
+
+	private void expectState(State expected) {
+		if (state != expected) {
+			throw new IllegalStateException("Expected state " + expected + " but was " + state);
+		}
+	}
+
+	private void pushState(State s) {
+		if (stateCount == states.length) {
+			State[] newStates = new State[stateCount * 2];
+			System.arraycopy(states, 0, newStates, 0, stateCount);
+			states = newStates;
+		}
+		states[stateCount++] = s;
+	}
+
+	private State popState() {
+		return states[--stateCount];
+	}
+
+	private void increaseIndent(boolean flow, boolean indentless) {
+		if (indentCount == indents.length) {
+			int[] newIndents = new int[indentCount * 2];
+			System.arraycopy(indents, 0, newIndents, 0, indentCount);
+			indents = newIndents;
+		}
+		indents[indentCount++] = indent;
+		if (indent < 0) {
+			indent = flow ? BEST_INDENT : 0;
+		} else if (!indentless) {
+			indent += BEST_INDENT;
+		}
+	}
+
+	private int popIndent() {
+		return indents[--indentCount];
+	}
+
+	///////////////////////////////////////////////////////////////////////////
+	// Scalars
+
+	/**
+	 * A string scalar as SnakeYAML's Representer and Serializer would present
+	 * it to the emitter.
+	 */
+	private static final class Scalar {
+		final String text;
+		final String tag;
+		final boolean literalRequested;
+		final boolean plainImplicit;
+		final ScalarAnalysis analysis;
+		char style;
+
+		Scalar(String value) {
+			ScalarAnalysis analysis = new ScalarAnalysis(value);
+			if (!analysis.printable) {
+				byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+				if (!new String(bytes, StandardCharsets.UTF_8).equals(value)) {
+					throw new YAMLException("invalid string value has occurred");
+				}
+				this.text = Base64.getEncoder().encodeToString(bytes);
+				this.tag = BINARY_TAG;
+				this.literalRequested = true;
+				this.plainImplicit = false;
+				this.analysis = new ScalarAnalysis(text);
+			} else {
+				this.text = value;
+				this.tag = null;
+				this.literalRequested = analysis.multiline;
+				this.plainImplicit = analysis.plainImplicit;
+				this.analysis = analysis;
+			}
+		}
+	}
+
+	private boolean checkSimpleKey(Scalar scalar) {
+		int length = scalar.text.length();
+		if (scalar.tag != null) {
+			length += scalar.tag.length();
+		}
+		ScalarAnalysis analysis = scalar.analysis;
+		return length < 128 && !analysis.empty && !analysis.multiline;
+	}
+
+	/**
+	 * @return the chosen style: 0 for plain, or one of '|', '\'' or '"'
+	 */
+	private char chooseStyle(Scalar scalar) {
+		if (scalar.style != 0) {
+			return scalar.style;
+		}
+		ScalarAnalysis analysis = scalar.analysis;
+		char style = '"';
+		if (!scalar.literalRequested && scalar.plainImplicit
+				&& !(simpleKeyContext && (analysis.empty || analysis.multiline))
+				&& (flowLevel != 0 ? analysis.allowFlowPlain : analysis.allowBlockPlain)) {
+			style = 0;
+		} else if (scalar.literalRequested) {
+			if (flowLevel == 0 && !simpleKeyContext && analysis.allowBlock) {
+				style = '|';
+			}
+		} else if (analysis.allowSingleQuoted && !(simpleKeyContext && analysis.multiline)) {
+			style = '\'';
+		}
+		return scalar.style = style;
+	}
+
+	private void writeScalar(Scalar scalar) throws IOException {
+		boolean split = !simpleKeyContext;
+		switch (chooseStyle(scalar)) {
+		case 0:
+			writePlain(scalar.text, split);
+			break;
+		case '|':
+			writeLiteral(scalar.text);
+			break;
+		case '\'':
+			writeSingleQuoted(scalar.text, split);
+			break;
+		default:
+			writeDoubleQuoted(scalar.text, split);
+		}
+	}
+
+	private static boolean isBreak(int c) {
+		return c == '\n' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	///////////////////////////////////////////////////////////////////////////
+	// Writers
+
+	private void write(String s) throws IOException {
+		out.append(s);
+	}
+
+	private void write(String s, int start, int len) throws IOException {
+		out.append(s, start, start + len);
+	}
+
+	private void writeIndicator(String indicator, boolean needWhitespace, boolean whitespace,
+			boolean indentation) throws IOException {
+		if (!this.whitespace && needWhitespace) {
+			this.column++;
+			out.append(' ');
+		}
+		this.whitespace = whitespace;
+		this.indention = this.indention && indentation;
+		this.column += indicator.length();
+		write(indicator);
+	}
+
+	private void writeIndent() throws IOException {
+		int indent = this.indent < 0 ? 0 : this.indent;
+		if (!this.indention || this.column > indent || (this.column == indent && !this.whitespace)) {
+			writeLineBreak();
+		}
+		writeWhitespace(indent - this.column);
+	}
+
+	private void writeWhitespace(int length) throws IOException {
+		if (length <= 0) {
+			return;
+		}
+		this.whitespace = true;
+		for (int i = 0; i < length; i++) {
+			out.append(' ');
+		}
+		this.column += length;
+	}
+
+	private void writeLineBreak() throws IOException {
+		this.whitespace = true;
+		this.indention = true;
+		this.column = 0;
+		out.append('\n');
+	}
+
+	private void writeLineBreak(char br) throws IOException {
+		this.whitespace = true;
+		this.indention = true;
+		this.column = 0;
+		out.append(br);
+	}
+
+	private void writeBreaks(String text, int start, int end) throws IOException {
+		for (int i = start; i < end; i++) {
+			char br = text.charAt(i);
+			if (br == '\n') {
+				writeLineBreak();
+			} else {
+				writeLineBreak(br);
+			}
+		}
+	}
+
+	private void writePlain(String text, boolean split) throws IOException {
+		if (text.length() == 0) {
+			return;
+		}
+		if (!this.whitespace) {
+			this.column++;
+			out.append(' ');
+		}
+		this.whitespace = false;
+		this.indention = false;
+		boolean spaces = false;
+		boolean breaks = false;
+		int start = 0, end = 0;
+		while (end <= text.length()) {
+			char ch = 0;
+			if (end < text.length()) {
+				ch = text.charAt(end);
+			}
+			if (spaces) {
+				if (ch != ' ') {
+					if (start + 1 == end && this.column > BEST_WIDTH && split) {
+						writeIndent();
+						this.whitespace = false;
+						this.indention = false;
+					} else {
+						int len = end - start;
+						this.column += len;
+						write(text, start, len);
+					}
+					start = end;
+				}
+			} else if (breaks) {
+				if (!isBreak(ch)) {
+					if (text.charAt(start) == '\n') {
+						writeLineBreak();
+					}
+					writeBreaks(text, start, end);
+					writeIndent();
+					this.whitespace = false;
+					this.indention = false;
+					start = end;
+				}
+			} else {
+				if (isBreak(ch) || ch == 0 || ch == ' ') {
+					int len = end - start;
+					this.column += len;
+					write(text, start, len);
+					start = end;
+				}
+			}
+			if (ch != 0) {
+				spaces = ch == ' ';
+				breaks = isBreak(ch);
+			}
+			end++;
+		}
+	}
+
+	private void writeSingleQuoted(String text, boolean split) throws IOException {
+		writeIndicator("'", true, false, false);
+		boolean spaces = false;
+		boolean breaks = false;
+		int start = 0, end = 0;
+		char ch;
+		while (end <= text.length()) {
+			ch = 0;
+			if (end < text.length()) {
+				ch = text.charAt(end);
+			}
+			if (spaces) {
+				if (ch == 0 || ch != ' ') {
+					if (start + 1 == end && this.column > BEST_WIDTH && split && start != 0
+							&& end != text.length()) {
+						writeIndent();
+					} else {
+						int len = end - start;
+						this.column += len;
+						write(text, start, len);
+					}
+					start = end;
+				}
+			} else if (breaks) {
+				if (ch == 0 || !isBreak(ch)) {
+					if (text.charAt(start) == '\n') {
+						writeLineBreak();
+					}
+					writeBreaks(text, start, end);
+					writeIndent();
+					start = end;
+				}
+			} else {
+				if (isBreak(ch) || ch == 0 || ch == ' ' || ch == '\'') {
+					if (start < end) {
+						int len = end - start;
+						this.column += len;
+						write(text, start, len);
+						start = end;
+					}
+				}
+			}
+			if (ch == '\'') {
+				this.column += 2;
+				write("''");
+				start = end + 1;
+			}
+			if (ch != 0) {
+				spaces = ch == ' ';
+				breaks = isBreak(ch);
+			}
+			end++;
+		}
+		writeIndicator("'", false, false, false);
+	}
+
+	private void writeDoubleQuoted(String text, boolean split) throws IOException {
+		writeIndicator("\"", true, false, false);
+		int start = 0;
+		int end = 0;
+		while (end <= text.length()) {
+			boolean atEnd = end >= text.length();
+			char ch = atEnd ? 0 : text.charAt(end);
+			if (atEnd || "\"\\\u0085\u2028\u2029\uFEFF".indexOf(ch) != -1 || !(' ' <= ch && ch <= '~')) {
+				if (start < end) {
+					int len = end - start;
+					this.column += len;
+					write(text, start, len);
+					start = end;
+				}
+				if (!atEnd) {
+					String data = escape(ch);
+					if (data == null) {
+						if (!StreamReader.isPrintable(ch)) {
+							if (ch <= '\u00FF') {
+								String s = "0" + Integer.toString(ch, 16);
+								data = "\\x" + s.substring(s.length() - 2);
+							} else if (ch >= '\uD800' && ch <= '\uDBFF') {
+								if (end + 1 < text.length()) {
+									char ch2 = text.charAt(++end);
+									String s = "000" + Long.toHexString(Character.toCodePoint(ch, ch2));
+									data = "\\U" + s.substring(s.length() - 8);
+								} else {
+									String s = "000" + Integer.toString(ch, 16);
+									data = "\\u" + s.substring(s.length() - 4);
+								}
+							} else {
+								String s = "000" + Integer.toString(ch, 16);
+								data = "\\u" + s.substring(s.length() - 4);
+							}
+						} else {
+							data = String.valueOf(ch);
+						}
+					}
+					this.column += data.length();
+					write(data);
+					start = end + 1;
+				}
+			}
+			if ((0 < end && end < (text.length() - 1)) && (ch == ' ' || start >= end)
+					&& (this.column + (end - start)) > BEST_WIDTH && split) {
+				String data;
+				if (start >= end) {
+					data = "\\";
+				} else {
+					data = text.substring(start, end) + "\\";
+				}
+				if (start < end) {
+					start = end;
+				}
+				this.column += data.length();
+				write(data);
+				writeIndent();
+				this.whitespace = false;
+				this.indention = false;
+				if (text.charAt(start) == ' ') {
+					this.column++;
+					write("\\");
+				}
+			}
+			end += 1;
+		}
+		writeIndicator("\"", false, false, false);
+	}
+
+	private static String escape(char ch) {
+		switch (ch) {
+		case '\0': return "\\0";
+		case '\u0007': return "\\a";
+		case '\u0008': return "\\b";
+		case '\u0009': return "\\t";
+		case '\n': return "\\n";
+		case '\u000B': return "\\v";
+		case '\u000C': return "\\f";
+		case '\r': return "\\r";
+		case '\u001B': return "\\e";
+		case '"': return "\\\"";
+		case '\\': return "\\\\";
+		case '\u0085': return "\\N";
+		case '\u00A0': return "\\_";
+		case '\u2028': return "\\L";
+		case '\u2029': return "\\P";
+		default: return null;
+		}
+	}
+
+	private void writeLiteral(String text) throws IOException {
+		StringBuilder hints = new StringBuilder("|");
+		if (isBreak(text.charAt(0)) || text.charAt(0) == ' ') {
+			hints.append(BEST_INDENT);
+		}
+		char last = text.charAt(text.length() - 1);
+		if (!isBreak(last)) {
+			hints.append('-');
+		} else if (text.length() == 1 || isBreak(text.charAt(text.length() - 2))) {
+			hints.append('+');
+		}
+		writeIndicator(hints.toString(), true, false, false);
+		writeLineBreak();
+		boolean breaks = true;
+		int start = 0, end = 0;
+		while (end <= text.length()) {
+			char ch = 0;
+			if (end < text.length()) {
+				ch = text.charAt(end);
+			}
+			if (breaks) {
+				if (ch == 0 || !isBreak(ch)) {
+					writeBreaks(text, start, end);
+					if (ch != 0) {
+						writeIndent();
+					}
+					start = end;
+				}
+			} else {
+				if (ch == 0 || isBreak(ch)) {
+					write(text, start, end - start);
+					if (ch == 0) {
+						writeLineBreak();
+					}
+					start = end;
+				}
+			}
+			if (ch != 0) {
+				breaks = isBreak(ch);
+			}
+			end++;
+		}
+	}
+
+}
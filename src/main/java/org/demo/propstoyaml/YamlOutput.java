@@ -0,0 +1,216 @@
+package org.demo.propstoyaml;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Destination for streamed yaml output. Either forwards characters to an
+ * {@link Appendable}, or encodes them as UTF-8 into an {@link OutputStream}
+ * or {@link WritableByteChannel} through fixed size buffers, so the amount
+ * of memory used does not depend on the size of the document.
+ * <p>
+ * Keeps count of the characters and bytes written. Closing the output
+ * flushes everything that is buffered, but leaves the underlying target open.
+ *
+ * @author Kris De Volder
+ */
+final class YamlOutput extends Writer {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Appendable target;
+	private final OutputStream stream;
+	private final WritableByteChannel channel;
+
+	private final char[] chars;
+	private int charsBuffered = 0;
+	private final ByteBuffer bytes;
+	private final CharsetEncoder encoder;
+
+	private long charCount = 0;
+	private long byteCount = 0;
+	private boolean closed = false;
+
+	private YamlOutput(Appendable target, OutputStream stream, WritableByteChannel channel) {
+		this.target = target;
+		this.stream = stream;
+		this.channel = channel;
+		if (target == null) {
+			this.chars = new char[BUFFER_SIZE];
+			this.bytes = ByteBuffer.allocate(BUFFER_SIZE * 3);
+			this.encoder = StandardCharsets.UTF_8.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		} else {
+			this.chars = null;
+			this.bytes = null;
+			this.encoder = null;
+		}
+	}
+
+	static YamlOutput to(Appendable out) {
+		return new YamlOutput(out, null, null);
+	}
+
+	static YamlOutput to(OutputStream out) {
+		return new YamlOutput(null, out, null);
+	}
+
+	static YamlOutput to(WritableByteChannel out) {
+		return new YamlOutput(null, null, out);
+	}
+
+	/**
+	 * @return the number of characters written so far.
+	 */
+	public long getCharCount() {
+		return charCount;
+	}
+
+	/**
+	 * @return the number of encoded bytes written so far, or -1 if the output
+	 *         goes to a character based target.
+	 */
+	public long getByteCount() {
+		return target == null ? byteCount : -1;
+	}
+
+	@Override
+	public Writer append(char c) throws IOException {
+		charCount++;
+		if (target != null) {
+			target.append(c);
+		} else {
+			if (charsBuffered == chars.length) {
+				encode(false);
+			}
+			chars[charsBuffered++] = c;
+		}
+		return this;
+	}
+
+	@Override
+	public Writer append(CharSequence csq) throws IOException {
+		return append(csq, 0, csq.length());
+	}
+
+	@Override
+	public Writer append(CharSequence csq, int start, int end) throws IOException {
+		charCount += end - start;
+		if (target != null) {
+			target.append(csq, start, end);
+		} else {
+			while (start < end) {
+				if (charsBuffered == chars.length) {
+					encode(false);
+				}
+				int len = Math.min(end - start, chars.length - charsBuffered);
+				if (csq instanceof String) {
+					((String) csq).getChars(start, start + len, chars, charsBuffered);
+				} else {
+					for (int i = 0; i < len; i++) {
+						chars[charsBuffered + i] = csq.charAt(start + i);
+					}
+				}
+				charsBuffered += len;
+				start += len;
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		append((char) c);
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		append(str, off, off + len);
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		append(CharBuffer.wrap(cbuf, off, len));
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (target == null && !closed) {
+			encode(false);
+		}
+		flushTarget();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (target == null) {
+			encode(true);
+			while (encoder.flush(bytes).isOverflow()) {
+				drain();
+			}
+		}
+		flushTarget();
+	}
+
+	private void flushTarget() throws IOException {
+		if (target == null) {
+			drain();
+			if (stream != null) {
+				stream.flush();
+			}
+		} else if (target instanceof Flushable) {
+			((Flushable) target).flush();
+		}
+	}
+
+	/**
+	 * Encodes the buffered characters. A trailing high surrogate is kept back
+	 * until its pair arrives, unless this is the end of the input.
+	 */
+	private void encode(boolean endOfInput) throws IOException {
+		CharBuffer in = CharBuffer.wrap(chars, 0, charsBuffered);
+		while (true) {
+			CoderResult result = encoder.encode(in, bytes, endOfInput);
+			if (result.isOverflow()) {
+				drain();
+			} else if (result.isUnderflow()) {
+				break;
+			} else {
+				result.throwException();
+			}
+		}
+		int remaining = in.remaining();
+		if (remaining > 0) {
+			System.arraycopy(chars, in.position(), chars, 0, remaining);
+		}
+		charsBuffered = remaining;
+	}
+
+	private void drain() throws IOException {
+		bytes.flip();
+		byteCount += bytes.remaining();
+		if (stream != null) {
+			stream.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+		} else {
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+		}
+		bytes.clear();
+	}
+
+}
@@ -3,88 +3,228 @@ package org.demo.propstoyaml;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.StringTokenizer;
+
+import org.demo.propstoyaml.YamlPathSegment.AtIndex;
+import org.demo.propstoyaml.YamlPathSegment.ValAtKey;
 
 /**
+ * A sequence of {@link YamlPathSegment}s.
+ * <p>
+ * A YamlPath is a view on a range of a segment array, which it may share
+ * with the path it was derived from. This makes {@link #dropFirst(int)},
+ * {@link #dropLast(int)} and {@link #tail()} constant time operations that
+ * do not copy any segments. The array is never modified once a path has
+ * been created on it.
+ *
  * @author Kris De Volder
  */
 public class YamlPath {
 
 	public static final YamlPath EMPTY = new YamlPath();
 	private final YamlPathSegment[] segments;
+	private final int start;
+	private final int end;
 
 	public YamlPath(List<YamlPathSegment> segments) {
-		this.segments = segments.toArray(new YamlPathSegment[segments.size()]);
+		this(segments.toArray(new YamlPathSegment[segments.size()]));
 	}
 
 	public YamlPath() {
-		this.segments = new YamlPathSegment[0];
+		this(new YamlPathSegment[0]);
 	}
 
 	public YamlPath(YamlPathSegment... segments) {
+		this(segments, 0, segments.length);
+	}
+
+	private YamlPath(YamlPathSegment[] segments, int start, int end) {
 		this.segments = segments;
+		this.start = start;
+		this.end = end;
 	}
 
 	public String toPropString() {
 		StringBuilder buf = new StringBuilder();
-		boolean first = true;
-		for (YamlPathSegment s : segments) {
-			if (first) {
-				buf.append(s.toPropString());
+		for (int i = start; i < end; i++) {
+			if (i == start) {
+				buf.append(segments[i].toPropString());
 			} else {
-				buf.append(s.toNavString());
+				buf.append(segments[i].toNavString());
 			}
-			first = false;
 		}
 		return buf.toString();
 	}
 
+	/**
+	 * @return whether a property name is the one {@link #toPropString()}
+	 *         gives for this path, without building that string.
+	 */
+	public boolean isPropString(String name) {
+		int pos = 0;
+		for (int i = start; i < end && pos >= 0; i++) {
+			YamlPathSegment segment = segments[i];
+			if (segment instanceof AtIndex) {
+				pos = matchIndex(name, pos, ((AtIndex) segment).getIndex());
+			} else if (segment instanceof ValAtKey) {
+				String key = segment.toPropString();
+				boolean bracketed = i > start && key.indexOf('.') >= 0;
+				if (i > start) {
+					pos = match(name, pos, bracketed ? '[' : '.');
+				}
+				pos = pos >= 0 && name.startsWith(key, pos) ? pos + key.length() : -1;
+				if (bracketed) {
+					pos = match(name, pos, ']');
+				}
+			} else {
+				String text = i == start ? segment.toPropString() : segment.toNavString();
+				pos = name.startsWith(text, pos) ? pos + text.length() : -1;
+			}
+		}
+		return pos == name.length();
+	}
+
+	/**
+	 * @return the position after the character if the name has it at the
+	 *         given position, -1 otherwise.
+	 */
+	private static int match(String name, int pos, char c) {
+		return pos >= 0 && pos < name.length() && name.charAt(pos) == c ? pos + 1 : -1;
+	}
+
+	/**
+	 * @return the position after '[' index ']' if the name has it at the
+	 *         given position, -1 otherwise.
+	 */
+	private static int matchIndex(String name, int pos, int index) {
+		pos = match(name, pos, '[');
+		long value = index;
+		if (value < 0) {
+			pos = match(name, pos, '-');
+			value = -value;
+		}
+		long unit = 1;
+		while (unit * 10 <= value) {
+			unit *= 10;
+		}
+		for (; unit > 0; unit /= 10) {
+			pos = match(name, pos, (char) ('0' + value / unit % 10));
+		}
+		return match(name, pos, ']');
+	}
+
 	public String toNavString() {
 		StringBuilder buf = new StringBuilder();
-		for (YamlPathSegment s : segments) {
-			buf.append(s.toNavString());
+		for (int i = start; i < end; i++) {
+			buf.append(segments[i].toNavString());
 		}
 		return buf.toString();
 	}
 
 	public YamlPathSegment[] getSegments() {
-		return segments;
+		if (start == 0 && end == segments.length) {
+			return segments;
+		}
+		return Arrays.copyOfRange(segments, start, end);
 	}
 
 	/**
 	 * Parse a YamlPath from a dotted property name. The segments are obtained
 	 * by spliting the name at each dot.
+	 * <p>
+	 * Text between '[' and ']' is a single segment, a list index if it parses
+	 * as an int and a key otherwise. Empty segments and '[]' are ignored, and
+	 * so is a '[' at the very end of the name.
 	 */
 	public static YamlPath fromProperty(String propName) {
-		List<YamlPathSegment> segments = new ArrayList<>();
-		String delim = ".[]";
-		StringTokenizer tokens = new StringTokenizer(propName, delim, true);
-		try {
-			while (tokens.hasMoreTokens()) {
-				String token = tokens.nextToken(delim);
-				if (token.equals(".") || token.equals("]")) {
-					//Skip it silently
-				} else if (token.equals("[")) {
-					String bracketed = tokens.nextToken("]");
-					if (bracketed.equals("]")) {
-						//empty string between []? Makes no sense, so ignore that.
-					} else {
-						try {
-							int index = Integer.parseInt(bracketed);
-							segments.add(YamlPathSegment.valueAt(index));
-						} catch (NumberFormatException e) {
-							segments.add(YamlPathSegment.valueAt(bracketed));
-						}
-					}
+		YamlPathSegment[] segments = new YamlPathSegment[8];
+		int count = 0;
+		int len = propName.length();
+		int pos = 0;
+		while (pos < len) {
+			char c = propName.charAt(pos);
+			YamlPathSegment segment = null;
+			if (c == '.' || c == ']') {
+				//Skip it silently
+				pos++;
+			} else if (c == '[') {
+				pos++;
+				if (pos == len) {
+					//Ran out of characters.
+					break;
+				}
+				int tokenEnd = pos;
+				while (tokenEnd < len && propName.charAt(tokenEnd) != ']') {
+					tokenEnd++;
+				}
+				if (tokenEnd == pos) {
+					//empty string between []? Makes no sense, so ignore that.
+					pos++;
 				} else {
-					segments.add(YamlPathSegment.valueAt(token));
+					segment = bracketed(propName, pos, tokenEnd);
+					//The closing ']' (if any) gets skipped as a token of its own.
+					pos = tokenEnd;
+				}
+			} else {
+				int tokenEnd = pos + 1;
+				while (tokenEnd < len && !isDelimiter(propName.charAt(tokenEnd))) {
+					tokenEnd++;
+				}
+				segment = SegmentPool.shared().valueAt(propName, pos, tokenEnd);
+				pos = tokenEnd;
+			}
+			if (segment != null) {
+				if (count == segments.length) {
+					segments = Arrays.copyOf(segments, count * 2);
+				}
+				segments[count++] = segment;
+			}
+		}
+		return count == 0 ? EMPTY : new YamlPath(segments, 0, count);
+	}
+
+	private static boolean isDelimiter(char c) {
+		return c == '.' || c == '[' || c == ']';
+	}
+
+	/**
+	 * @return the segment for the text between brackets: an index if it is
+	 *         something {@link Integer#parseInt(String)} accepts, a key
+	 *         otherwise.
+	 */
+	private static YamlPathSegment bracketed(String propName, int start, int end) {
+		int pos = start;
+		char first = propName.charAt(pos);
+		boolean negative = first == '-';
+		if (negative || first == '+') {
+			pos++;
+		}
+		if (pos == end) {
+			return SegmentPool.shared().valueAt(propName, start, end);
+		}
+		long value = 0;
+		for (int i = pos; i < end; i++) {
+			char c = propName.charAt(i);
+			if (c >= '0' && c <= '9' && value <= Integer.MAX_VALUE + 1L) {
+				value = value * 10 + (c - '0');
+			} else if (c < 128 && (c < '0' || c > '9')) {
+				return SegmentPool.shared().valueAt(propName, start, end);
+			} else {
+				//Non-ascii digits or a large number: let Integer decide.
+				String text = propName.substring(start, end);
+				try {
+					return YamlPathSegment.valueAt(Integer.parseInt(text));
+				} catch (NumberFormatException e) {
+					return YamlPathSegment.valueAt(text);
 				}
 			}
-		} catch (NoSuchElementException e) {
-			//Ran out of tokens.
 		}
-		return new YamlPath(segments);
+		if (negative) {
+			value = -value;
+		}
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			return SegmentPool.shared().valueAt(propName, start, end);
+		}
+		return YamlPathSegment.valueAt((int) value);
 	}
 
 	/**
@@ -99,39 +239,37 @@ public class YamlPath {
 	public String toString() {
 		StringBuilder buf = new StringBuilder();
 		buf.append("YamlPath(");
-		boolean first = true;
-		for (YamlPathSegment s : segments) {
-			if (!first) {
+		for (int i = start; i < end; i++) {
+			if (i > start) {
 				buf.append(", ");
 			}
-			buf.append(s);
-			first = false;
+			buf.append(segments[i]);
 		}
 		buf.append(")");
 		return buf.toString();
 	}
 
 	public int size() {
-		return segments.length;
+		return end - start;
 	}
 
 	public YamlPathSegment getSegment(int segment) {
-		if (segment>=0 && segment<segments.length) {
-			return segments[segment];
+		if (segment>=0 && segment<size()) {
+			return segments[start+segment];
 		}
 		return null;
 	}
 
 	public YamlPath prepend(YamlPathSegment s) {
-		YamlPathSegment[] newPath = new YamlPathSegment[segments.length+1];
+		YamlPathSegment[] newPath = new YamlPathSegment[size()+1];
 		newPath[0] = s;
-		System.arraycopy(segments, 0, newPath, 1, segments.length);
+		System.arraycopy(segments, start, newPath, 1, size());
 		return new YamlPath(newPath);
 	}
 
 	public YamlPath append(YamlPathSegment s) {
-		YamlPathSegment[] newPath = Arrays.copyOf(segments, segments.length+1);
-		newPath[segments.length] = s;
+		YamlPathSegment[] newPath = Arrays.copyOfRange(segments, start, end+1);
+		newPath[size()] = s;
 		return new YamlPath(newPath);
 	}
 
@@ -156,11 +294,7 @@ public class YamlPath {
 		if (dropCount==0) {
 			return this;
 		}
-		YamlPathSegment[] newPath = new YamlPathSegment[segments.length-dropCount];
-		for (int i = 0; i < newPath.length; i++) {
-			newPath[i] = segments[i+dropCount];
-		}
-		return new YamlPath(newPath);
+		return new YamlPath(segments, start+dropCount, end);
 	}
 
 	public YamlPath dropLast() {
@@ -174,17 +308,13 @@ public class YamlPath {
 		if (dropCount==0) {
 			return this;
 		}
-		YamlPathSegment[] newPath = new YamlPathSegment[segments.length-dropCount];
-		for (int i = 0; i < newPath.length; i++) {
-			newPath[i] = segments[i];
-		}
-		return new YamlPath(newPath);
+		return new YamlPath(segments, start, end-dropCount);
 	}
 
 
 //	@Override
 	public boolean isEmpty() {
-		return segments.length==0;
+		return start==end;
 	}
 
 	public YamlPath tail() {
@@ -235,7 +365,7 @@ public class YamlPath {
 
 	public YamlPathSegment getLastSegment() {
 		if (!isEmpty()) {
-			return segments[segments.length-1];
+			return segments[end-1];
 		}
 		return null;
 	}
@@ -71,7 +71,17 @@ public abstract class YamlPathSegment {
 
 	public static class AtIndex extends YamlPathSegment {
 
-		private int index;
+		/**
+		 * Shared instances for the indexes 0 to 255.
+		 */
+		private static final AtIndex[] SMALL = new AtIndex[256];
+		static {
+			for (int i = 0; i < SMALL.length; i++) {
+				SMALL[i] = new AtIndex(i);
+			}
+		}
+
+		private final int index;
 
 		public AtIndex(int index) {
 			this.index = index;
@@ -97,6 +107,10 @@ public abstract class YamlPathSegment {
 			return index;
 		}
 
+		public int getIndex() {
+			return index;
+		}
+
 		@Override
 		public int hashCode() {
 			final int prime = 31;
@@ -132,7 +146,7 @@ public abstract class YamlPathSegment {
 
 	public static class ValAtKey extends YamlPathSegment {
 
-		private String key;
+		private final String key;
 
 		public ValAtKey(String key) {
 			this.key = key;
@@ -234,9 +248,15 @@ public abstract class YamlPathSegment {
 	public abstract YamlPathSegmentType getType();
 
 	public static YamlPathSegment valueAt(String key) {
-		return new ValAtKey(key);
+		if (key == null) {
+			return new ValAtKey(key);
+		}
+		return SegmentPool.shared().valueAt(key);
 	}
 	public static YamlPathSegment valueAt(int index) {
+		if (index >= 0 && index < AtIndex.SMALL.length) {
+			return AtIndex.SMALL[index];
+		}
 		return new AtIndex(index);
 	}
 	public static YamlPathSegment keyAt(String key) {
@@ -0,0 +1,648 @@
+package org.demo.propstoyaml;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.demo.propstoyaml.ConversionStatus.MessageCode;
+import org.yaml.snakeyaml.error.Mark;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.CollectionStartEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.MappingEndEvent;
+import org.yaml.snakeyaml.events.MappingStartEvent;
+import org.yaml.snakeyaml.events.NodeEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.events.SequenceEndEvent;
+import org.yaml.snakeyaml.events.SequenceStartEvent;
+import org.yaml.snakeyaml.events.StreamEndEvent;
+import org.yaml.snakeyaml.parser.Parser;
+import org.yaml.snakeyaml.parser.ParserImpl;
+import org.yaml.snakeyaml.reader.StreamReader;
+import org.yaml.snakeyaml.reader.UnicodeReader;
+
+/**
+ * Converts yaml into the equivalent .properties, the opposite of
+ * {@link PropertiesToYamlConverter}.
+ * <p>
+ * The yaml is read as a stream of SnakeYAML parser events rather than
+ * composed into a graph of objects, and every scalar is written out as a
+ * <code>key=value</code> line as soon as it has been read. Only the path to
+ * the current node is kept, so memory use depends on how deeply the yaml is
+ * nested, not on how big it is, except for what anchors and merges need
+ * (see below).
+ * <p>
+ * Map keys become dotted property names, with keys that contain a '.' in
+ * brackets, and sequence items become <code>[index]</code> suffixes, so
+ * that converting the result back gives the same yaml. Anchored nodes are
+ * remembered, as flattened properties, so that aliases and
+ * <code>&lt;&lt;</code> merge keys can be expanded. Merged properties are held
+ * back until the end of the map they are merged into, and only written for
+ * keys the map doesn't set itself, or an earlier merged map didn't set. For
+ * that, the keys of each open map are kept, up to {@link MapState#KEY_LIMIT}
+ * of them for a map that nothing was merged into yet. A merge key that
+ * comes after more keys than that is dropped with a warning.
+ * Map keys that can't be written as part of a property name (empty keys and
+ * keys containing '[' or ']') are dropped with a warning. Documents of a
+ * multi document stream are written one after the other.
+ *
+ * @author Kris De Volder
+ */
+public class YamlToPropertiesConverter {
+
+	private static final String MERGE_KEY = "<<";
+
+	public PropertiesConversionResult convert(String yaml) {
+		StringBuilder out = new StringBuilder();
+		ConversionStatus status = convert(new StringReader(yaml), out);
+		return new PropertiesConversionResult(status, out.toString());
+	}
+
+	/**
+	 * Converts a yaml file. The encoding is detected from its byte order
+	 * mark, and is UTF-8 if it has none.
+	 */
+	public PropertiesConversionResult convert(File f) {
+		StringBuilder out = new StringBuilder();
+		ConversionStatus status = convert(f, out);
+		return new PropertiesConversionResult(status, out.toString());
+	}
+
+	/**
+	 * Like {@link #convert(File)}, but streams the properties into
+	 * <code>out</code>.
+	 */
+	public ConversionStatus convert(File f, Appendable out) {
+		try (Reader reader = new UnicodeReader(new FileInputStream(f))) {
+			return convert(reader, out);
+		} catch (IOException e) {
+			ConversionStatus status = new ConversionStatus();
+			status.add(MessageCode.IO_ERROR, "Problem loading file " + f + ": " + e.getMessage());
+			return status;
+		}
+	}
+
+	/**
+	 * Converts the yaml read from <code>yaml</code> and streams the
+	 * properties into <code>out</code>. Neither is closed. Problems reading
+	 * the yaml or writing the properties are reported in the status; what was
+	 * written up to that point stays written.
+	 */
+	public ConversionStatus convert(Reader yaml, Appendable out) {
+		ConversionStatus status = new ConversionStatus();
+		try {
+			new Flattener(status, out).flatten(new ParserImpl(new StreamReader(yaml)));
+		} catch (YAMLException e) {
+			status.add(MessageCode.YAML_ERROR, "Problem parsing yaml: " + e.getMessage());
+		} catch (IOException e) {
+			status.add(MessageCode.IO_ERROR, "Problem writing properties: " + e.getMessage());
+		}
+		return status;
+	}
+
+	/**
+	 * The state of a single conversion: the property name of the node being
+	 * read, and what is expected next in each of the collections that are
+	 * open along the path to it.
+	 */
+	private static class Flattener {
+
+		private final ConversionStatus status;
+		private final Appendable out;
+
+		/**
+		 * Length of <code>name</code> before each open collection was
+		 * entered, and its length within the collection.
+		 */
+		private int[] nameLengths = new int[16];
+		private int[] starts = new int[16];
+		/**
+		 * For a map: 0 while expecting a key, 1 while expecting its value.
+		 * For a sequence: the index of the next item.
+		 */
+		private int[] positions = new int[16];
+		private boolean[] isMap = new boolean[16];
+		/**
+		 * Whether the items of a sequence are to be merged into the map
+		 * around it.
+		 */
+		private boolean[] merging = new boolean[16];
+		/**
+		 * Key of the value expected next, in each open map.
+		 */
+		private YamlPathSegment[] keys = new YamlPathSegment[16];
+		/**
+		 * The explicit keys and merged properties of each open map.
+		 */
+		private MapState[] maps = new MapState[16];
+		/**
+		 * The value of <code>sink</code> outside each open collection.
+		 */
+		private int[] sinks = new int[16];
+		private int depth = 0;
+
+		/**
+		 * Depth of the map that properties are being merged into, or -1 if
+		 * they are written out.
+		 */
+		private int sink = -1;
+
+		private final StringBuilder name = new StringBuilder();
+
+		/**
+		 * Anchored nodes that are still being read, and the properties
+		 * written for those that are complete.
+		 */
+		private final List<Anchored> recording = new ArrayList<>();
+		private final Map<String, List<String[]>> anchors = new HashMap<>();
+
+		/**
+		 * Number of nodes to skip, and how deep into them the parser is.
+		 */
+		private int skipNodes = 0;
+		private int skipDepth = 0;
+
+		Flattener(ConversionStatus status, Appendable out) {
+			this.status = status;
+			this.out = out;
+		}
+
+		void flatten(Parser parser) throws IOException {
+			Event event;
+			while (!((event = parser.getEvent()) instanceof StreamEndEvent)) {
+				if (skipNodes > 0) {
+					skip(event);
+				} else if (event instanceof NodeEvent) {
+					node((NodeEvent) event);
+				} else if (event instanceof MappingEndEvent || event instanceof SequenceEndEvent) {
+					leave();
+				}
+				//Document and stream starts and ends need no handling
+			}
+		}
+
+		private void skip(Event event) {
+			if (event instanceof CollectionStartEvent) {
+				skipDepth++;
+			} else if (event instanceof MappingEndEvent || event instanceof SequenceEndEvent) {
+				skipDepth--;
+			}
+			if (skipDepth == 0 && !(event instanceof CollectionStartEvent)) {
+				skipNodes--;
+			}
+		}
+
+		private void node(NodeEvent event) throws IOException {
+			if (depth > 0 && isMap[depth - 1] && positions[depth - 1] == 0) {
+				key(event);
+				return;
+			}
+			YamlPathSegment segment = null;
+			boolean merge = false;
+			int outerSink = sink;
+			if (depth > 0) {
+				int top = depth - 1;
+				if (isMap[top]) {
+					segment = keys[top];
+					merge = segment == null;
+					positions[top] = 0;
+				} else if (merging[top]) {
+					merge = true;
+				} else {
+					segment = YamlPathSegment.valueAt(positions[top]++);
+				}
+				if (merge) {
+					//Each merged node is a source of its own; the first to
+					//set a key wins.
+					if (isMap[top]) {
+						sink = top;
+					}
+					maps[sink].source++;
+				}
+			}
+			int nameLength = name.length();
+			if (segment != null) {
+				appendName(segment.toNavString());
+			}
+			if (event instanceof ScalarEvent) {
+				ScalarEvent scalar = (ScalarEvent) event;
+				if (name.length() == 0) {
+					if (!isNull(scalar)) {
+						status.add(MessageCode.UNSUPPORTED_NODE, "Scalar " + at(event)
+								+ " is not in a map or sequence. It will be dropped!");
+					}
+				} else if (!merge) {
+					startRecording(event);
+					property(isNull(scalar) ? "" : scalar.getValue());
+					stopRecording(depth);
+				} else {
+					status.add(MessageCode.UNSUPPORTED_NODE, "Merge key " + at(event)
+							+ " has a scalar value. It will be dropped!");
+				}
+				name.setLength(nameLength);
+				sink = outerSink;
+			} else if (event instanceof AliasEvent) {
+				replay(event, ((AliasEvent) event).getAnchor(), merge);
+				name.setLength(nameLength);
+				sink = outerSink;
+			} else {
+				startRecording(event);
+				enter(nameLength, event instanceof MappingStartEvent,
+						merge && event instanceof SequenceStartEvent, outerSink);
+			}
+		}
+
+		private void key(NodeEvent event) {
+			int top = depth - 1;
+			positions[top] = 1;
+			if (event instanceof ScalarEvent) {
+				ScalarEvent scalar = (ScalarEvent) event;
+				String key = scalar.getValue();
+				if (MERGE_KEY.equals(key) && scalar.getImplicit().canOmitTagInPlainScalar()) {
+					if (maps[top].keys == null) {
+						status.add(MessageCode.UNSUPPORTED_NODE, "Merge key " + at(event) + " comes after more than "
+								+ MapState.KEY_LIMIT + " other keys, too many to keep for telling which merged values"
+								+ " they override. The entry will be dropped!");
+						positions[top] = 0;
+						skipNodes = 1;
+						skipDepth = 0;
+					} else {
+						keys[top] = null;
+					}
+				} else if (key.isEmpty() || key.indexOf('[') >= 0 || key.indexOf(']') >= 0) {
+					//YamlPath.fromProperty would read these back as a different
+					//structure, and there is no way to escape them.
+					status.add(MessageCode.UNSUPPORTED_NODE, "Key '" + key + "' " + at(event)
+							+ " can't be written as part of a property name. The entry will be dropped!");
+					positions[top] = 0;
+					skipNodes = 1;
+					skipDepth = 0;
+				} else {
+					keys[top] = YamlPathSegment.valueAt(key);
+					maps[top].addKey(key);
+				}
+			} else {
+				status.add(MessageCode.UNSUPPORTED_NODE, "Key " + at(event)
+						+ " is not a scalar. The entry will be dropped!");
+				//Skip the rest of the key and its value; a key comes next.
+				positions[top] = 0;
+				skipNodes = event instanceof AliasEvent ? 1 : 2;
+				skipDepth = event instanceof AliasEvent ? 0 : 1;
+			}
+		}
+
+		private void enter(int nameLength, boolean map, boolean merge, int outerSink) {
+			if (depth == nameLengths.length) {
+				int size = depth * 2;
+				nameLengths = Arrays.copyOf(nameLengths, size);
+				starts = Arrays.copyOf(starts, size);
+				positions = Arrays.copyOf(positions, size);
+				isMap = Arrays.copyOf(isMap, size);
+				merging = Arrays.copyOf(merging, size);
+				keys = Arrays.copyOf(keys, size);
+				maps = Arrays.copyOf(maps, size);
+				sinks = Arrays.copyOf(sinks, size);
+			}
+			nameLengths[depth] = nameLength;
+			starts[depth] = name.length();
+			positions[depth] = 0;
+			isMap[depth] = map;
+			merging[depth] = merge;
+			keys[depth] = null;
+			sinks[depth] = outerSink;
+			if (map) {
+				if (maps[depth] == null) {
+					maps[depth] = new MapState();
+				} else {
+					maps[depth].reset();
+				}
+			}
+			depth++;
+		}
+
+		private void leave() throws IOException {
+			depth--;
+			if (isMap[depth] && !maps[depth].merged.isEmpty()) {
+				writeMerged(depth);
+			}
+			sink = sinks[depth];
+			name.setLength(nameLengths[depth]);
+			stopRecording(depth);
+		}
+
+		/**
+		 * Writes the properties merged into a map that ends, except those
+		 * below keys that the map sets itself, or that an earlier merged
+		 * node set.
+		 */
+		private void writeMerged(int depth) throws IOException {
+			MapState map = maps[depth];
+			Map<String, Integer> sources = new HashMap<>();
+			for (Merged merged : map.merged) {
+				String key = firstSegment(merged.name);
+				if (!map.keys.contains(key)) {
+					Integer source = sources.putIfAbsent(key, merged.source);
+					if (source == null || source == merged.source) {
+						name.setLength(starts[depth]);
+						name.append(merged.name);
+						property(merged.value);
+					}
+				}
+			}
+			name.setLength(starts[depth]);
+			map.merged.clear();
+		}
+
+		/**
+		 * @return the first segment of a name relative to a map, as it is
+		 *         written in the name, without a leading '.'.
+		 */
+		private static String firstSegment(String name) {
+			int start = name.charAt(0) == '.' ? 1 : 0;
+			int end;
+			if (name.charAt(start) == '[') {
+				end = name.indexOf(']', start) + 1;
+			} else {
+				end = start + 1;
+				while (end < name.length() && name.charAt(end) != '.' && name.charAt(end) != '[') {
+					end++;
+				}
+			}
+			return name.substring(start, end);
+		}
+
+		/**
+		 * Appends a segment to the name, as it would appear in the middle of
+		 * a property name.
+		 */
+		private void appendName(String nav) {
+			if (name.length() == 0 && nav.charAt(0) == '.') {
+				name.append(nav, 1, nav.length());
+			} else {
+				name.append(nav);
+			}
+		}
+
+		private void property(String value) throws IOException {
+			for (Anchored anchored : recording) {
+				//Anchored nodes that properties are merged into record them
+				//once the merge is resolved.
+				if (anchored.depth > sink) {
+					String suffix = name.substring(anchored.nameLength);
+					if (anchored.nameLength == 0 && !suffix.isEmpty() && suffix.charAt(0) != '[') {
+						suffix = "." + suffix;
+					}
+					anchored.properties.add(new String[] { suffix, value });
+				}
+			}
+			if (sink >= 0) {
+				MapState map = maps[sink];
+				map.merged.add(new Merged(name.substring(starts[sink]), value, map.source));
+				return;
+			}
+			escape(name, true);
+			out.append('=');
+			escape(value, false);
+			out.append('\n');
+		}
+
+		/**
+		 * Writes the properties recorded for an anchored node again, below
+		 * the current name. When merged, the node must be a map or a
+		 * sequence of maps, each item of which is merged in turn.
+		 */
+		private void replay(NodeEvent alias, String anchor, boolean merge) throws IOException {
+			List<String[]> properties = anchors.get(anchor);
+			if (properties == null) {
+				status.add(MessageCode.YAML_ERROR, "Alias *" + anchor + " " + at(alias)
+						+ " refers to an unknown anchor. It will be dropped!");
+				return;
+			}
+			int nameLength = name.length();
+			String item = null;
+			boolean dropped = false;
+			for (String[] property : properties) {
+				String suffix = property[0];
+				if (merge && suffix.startsWith("[")) {
+					int end = suffix.indexOf(']') + 1;
+					if (item == null || !suffix.startsWith(item)) {
+						item = suffix.substring(0, end);
+						maps[sink].source++;
+					}
+					suffix = suffix.substring(end);
+				}
+				if (merge && (suffix.isEmpty() || suffix.charAt(0) == '[')) {
+					if (!dropped) {
+						dropped = true;
+						status.add(MessageCode.UNSUPPORTED_NODE, "Alias *" + anchor + " " + at(alias)
+								+ " is merged into a map, but is not a map or a sequence of maps. It will be dropped!");
+					}
+				} else if (suffix.isEmpty() && nameLength == 0) {
+					status.add(MessageCode.UNSUPPORTED_NODE, "Alias *" + anchor + " " + at(alias)
+							+ " refers to a scalar, but is not in a map or sequence. It will be dropped!");
+				} else {
+					if (!suffix.isEmpty()) {
+						appendName(suffix);
+					}
+					property(property[1]);
+					name.setLength(nameLength);
+				}
+			}
+		}
+
+		private void startRecording(NodeEvent event) {
+			if (event.getAnchor() != null) {
+				recording.add(new Anchored(event.getAnchor(), name.length(), depth));
+			}
+		}
+
+		/**
+		 * Completes the recordings of anchored nodes that were started at
+		 * the given depth.
+		 */
+		private void stopRecording(int depth) {
+			for (int i = recording.size() - 1; i >= 0 && recording.get(i).depth == depth; i--) {
+				Anchored anchored = recording.remove(i);
+				anchors.put(anchored.anchor, anchored.properties);
+			}
+		}
+
+		private static boolean isNull(ScalarEvent scalar) {
+			if (!scalar.getImplicit().canOmitTagInPlainScalar()) {
+				return false;
+			}
+			switch (scalar.getValue()) {
+			case "":
+			case "~":
+			case "null":
+			case "Null":
+			case "NULL":
+				return true;
+			default:
+				return false;
+			}
+		}
+
+		private static String at(Event event) {
+			Mark mark = event.getStartMark();
+			return "at line " + (mark.getLine() + 1) + ", column " + (mark.getColumn() + 1);
+		}
+
+		/**
+		 * Writes a key or value, escaping the characters that
+		 * {@link java.util.Properties#load(Reader)} would otherwise treat
+		 * specially.
+		 */
+		private void escape(CharSequence text, boolean key) throws IOException {
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				switch (c) {
+				case ' ':
+					if (key || i == 0) {
+						out.append('\\');
+					}
+					out.append(' ');
+					break;
+				case '\t':
+					out.append("\\t");
+					break;
+				case '\n':
+					out.append("\\n");
+					break;
+				case '\r':
+					out.append("\\r");
+					break;
+				case '\f':
+					out.append("\\f");
+					break;
+				case '\\':
+				case '=':
+				case ':':
+				case '#':
+				case '!':
+					out.append('\\').append(c);
+					break;
+				default:
+					if (c < 0x20 || c == 0x7f) {
+						out.append(String.format("\\u%04x", (int) c));
+					} else {
+						out.append(c);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The keys an open map sets itself, and the properties merged into it,
+	 * which are held back until it ends.
+	 */
+	private static class MapState {
+		/**
+		 * The number of keys kept for a map that nothing was merged into
+		 * yet. Beyond it they are dropped, along with any merge key that
+		 * follows.
+		 */
+		static final int KEY_LIMIT = 1024;
+
+		/**
+		 * The keys as they appear in a name, see
+		 * {@link YamlPathSegment#toNavString()}, or null once there were too
+		 * many to keep.
+		 */
+		Set<String> keys = new HashSet<>();
+		final List<Merged> merged = new ArrayList<>();
+		/**
+		 * Number of the merged node being read, counting up.
+		 */
+		int source = 0;
+
+		void addKey(String key) {
+			if (keys == null) {
+				return;
+			}
+			if (source == 0 && keys.size() == KEY_LIMIT) {
+				keys = null;
+			} else {
+				keys.add(key.indexOf('.') >= 0 ? "[" + key + "]" : key);
+			}
+		}
+
+		void reset() {
+			//Clearing a big set costs as much as its capacity.
+			if (keys == null || keys.size() > 64) {
+				keys = new HashSet<>();
+			} else {
+				keys.clear();
+			}
+			merged.clear();
+			source = 0;
+		}
+	}
+
+	/**
+	 * A merged property, with its name relative to the map it is merged
+	 * into, and the number of the merged node it came from.
+	 */
+	private static class Merged {
+		final String name;
+		final String value;
+		final int source;
+
+		Merged(String name, String value, int source) {
+			this.name = name;
+			this.value = value;
+			this.source = source;
+		}
+	}
+
+	/**
+	 * An anchored node that is being read, and the properties written for
+	 * it so far, as pairs of a name relative to the node and a value.
+	 */
+	private static class Anchored {
+		final String anchor;
+		final int nameLength;
+		final int depth;
+		final List<String[]> properties = new ArrayList<>();
+
+		Anchored(String anchor, int nameLength, int depth) {
+			this.anchor = anchor;
+			this.nameLength = nameLength;
+			this.depth = depth;
+		}
+	}
+
+	public static class PropertiesConversionResult {
+		private final ConversionStatus status;
+		private final String properties;
+
+		PropertiesConversionResult(ConversionStatus status, String properties) {
+			this.status = status;
+			this.properties = properties;
+		}
+
+		public String getProperties() {
+			return properties;
+		}
+
+		public ConversionStatus getStatus() {
+			return status;
+		}
+
+		public int getSeverity() {
+			return status.getSeverity();
+		}
+	}
+
+}
@@ -4,14 +4,57 @@ import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.demo.propstoyaml.BatchConverter.BatchReport;
+import org.demo.propstoyaml.BatchConverter.FileResult;
+import org.demo.propstoyaml.ConversionMetrics.Phase;
 import org.demo.propstoyaml.ConversionStatus.ConversionMessage;
+import org.demo.propstoyaml.ConversionStatus.MessageCode;
+import org.demo.propstoyaml.PropertiesToYamlConverter.KeyOrder;
 import org.demo.propstoyaml.PropertiesToYamlConverter.YamlConversionResult;
+import org.demo.propstoyaml.PropertiesToYamlConverter.YamlEngine;
+import org.demo.propstoyaml.PropertiesToYamlConverter.YamlWriteResult;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.reader.StreamReader;
+import org.yaml.snakeyaml.resolver.Resolver;
 
 public class ConvertPropertiesToYamlTest {
 	
@@ -74,6 +117,807 @@ public class ConvertPropertiesToYamlTest {
 		);
 	}
 
+	@Test public void propertiesSyntax() throws Exception {
+		doConversionTest(
+				"my.continued=one \\\n" +
+				"    two\n" +
+				"my.colon : c\n" +
+				"my.space  s\n" +
+				"my.escaped\\=key=\\u0041\\tb\n" +
+				"  ! comment-like line that is really a comment\n"
+				, // ==>
+				"my:\n" +
+				"  colon: c\n" +
+				"  continued: one two\n" +
+				"  escaped=key: \"A\\tb\"\n" +
+				"  space: s\n"
+				, ConversionStatus.WARNING
+		);
+	}
+
+	@Test public void lastAssignmentWins() throws Exception {
+		doConversionTest(
+				"some.property=something\n" +
+				"some.property=something-else\n"
+				, // ==>
+				"some:\n" +
+				"  property: something-else\n"
+		);
+	}
+
+	@Test public void lastAssignmentWinsOnlyForSameName() throws Exception {
+		String input =
+				"a.b=1\n" +
+				"a[b]=2\n" +
+				"a.b=3\n" +
+				"c[0]=4\n" +
+				"c[00]=5\n" +
+				"c[00]=6\n";
+		String expected =
+				"a:\n" +
+				"  b:\n" +
+				"  - '3'\n" +
+				"  - '2'\n" +
+				"c:\n" +
+				"- - '4'\n" +
+				"  - '6'\n";
+		do_conversionTest(input, expected, (status) -> {
+			assertStatus(status, ConversionStatus.WARNING, "Multiple values [3, 2] assigned to 'a.b'");
+		});
+		YamlConversionResult spilled = PropertiesToYamlConverter.builder().engine(YamlEngine.SWEEP).memoryBudget(200).build()
+				.convert(createFile("application.properties", input));
+		assertEquals(expected, spilled.getYaml());
+	}
+
+	@Test public void propertyNameSyntax() throws Exception {
+		doConversionTest(
+				"a[x.y]=1\n" +
+				"a.b[+1]=2\n" +
+				"a.b[-0]=3\n" +
+				"c..d[]=4\n" +
+				"e[=5\n" +
+				"f[2147483648]=6\n"
+				, // ==>
+				"a:\n" +
+				"  b:\n" +
+				"  - '3'\n" +
+				"  - '2'\n" +
+				"  x.y: '1'\n" +
+				"c:\n" +
+				"  d: '4'\n" +
+				"e: '5'\n" +
+				"f:\n" +
+				"  '2147483648': '6'\n"
+		);
+	}
+
+	@Test public void sharedConverter() throws Exception {
+		PropertiesToYamlConverter converter = PropertiesToYamlConverter.builder()
+				.engine(YamlEngine.SNAKEYAML)
+				.build();
+		assertStatus(converter.convert("a=1\na.b=2").getStatus(), ConversionStatus.ERROR, "Direct assignment");
+		//Problems from an earlier conversion don't show up in later ones
+		assertOkStatus(converter.convert("a.b=2").getStatus());
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (YamlEngine engine : YamlEngine.values()) {
+				PropertiesToYamlConverter shared = new PropertiesToYamlConverter(engine);
+				for (int i = 0; i < 200; i++) {
+					int n = i;
+					futures.add(executor.submit(() -> {
+						String properties = n % 2 == 0 ? "a.b=" + n + "\na.c[0]=x" : "a=" + n + "\na.b=" + n;
+						YamlConversionResult result = shared.convert(properties);
+						if (n % 2 == 0) {
+							assertOkStatus(result.getStatus());
+							assertEquals("a:\n  b: '" + n + "'\n  c:\n  - x\n", result.getYaml());
+						} else {
+							assertEquals(1, result.getStatus().getEntries().size());
+							assertEquals("a:\n  b: '" + n + "'\n", result.getYaml());
+						}
+						return null;
+					}));
+				}
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test public void batchConversion() throws Exception {
+		Path root = Files.createTempDirectory("batch");
+		Files.createDirectories(root.resolve("a/b"));
+		Files.createDirectories(root.resolve("c"));
+		Files.write(root.resolve("a/application.properties"), "server.port=8080\n".getBytes(StandardCharsets.UTF_8));
+		Files.write(root.resolve("a/b/application-dev.properties"), "# dev\nlogging.level=DEBUG\n".getBytes(StandardCharsets.UTF_8));
+		Files.write(root.resolve("a/b/other.properties"), "not=converted\n".getBytes(StandardCharsets.UTF_8));
+		Files.write(root.resolve("c/application.properties"), "a=1\na.b=2\n".getBytes(StandardCharsets.UTF_8));
+
+		BatchReport report = new BatchConverter(new PropertiesToYamlConverter(), 2, BatchConverter.DEFAULT_PATTERN).convert(root);
+		assertEquals(3, report.getFiles().size());
+		assertEquals(root.resolve("a/application.properties"), report.getFiles().get(0).getInput());
+		assertEquals(root.resolve("a/b/application-dev.properties"), report.getFiles().get(1).getInput());
+		assertEquals(root.resolve("c/application.properties"), report.getFiles().get(2).getInput());
+		assertEquals(1, report.getFailureCount());
+		assertEquals(1, report.getWarningCount());
+		assertStatus(report.getFiles().get(2).getStatus(), ConversionStatus.ERROR, "Direct assignment");
+		assertEquals(false, Files.exists(root.resolve("a/b/other.yml")));
+
+		long bytesRead = 0;
+		long bytesWritten = 0;
+		for (FileResult file : report.getFiles()) {
+			String expected = new PropertiesToYamlConverter().convert(file.getInput().toFile()).getYaml();
+			assertEquals(BatchConverter.outputFile(file.getInput()), file.getOutput());
+			assertEquals(expected, new String(Files.readAllBytes(file.getOutput()), StandardCharsets.UTF_8));
+			assertEquals(Files.size(file.getOutput()), file.getBytesWritten());
+			bytesRead += Files.size(file.getInput());
+			bytesWritten += file.getBytesWritten();
+		}
+		assertEquals(bytesRead, report.getBytesRead());
+		assertEquals(bytesWritten, report.getBytesWritten());
+		assertContains("Converted 3 files (1 failed, 1 with warnings)", report.toString());
+
+		//An aborted conversion leaves the existing yaml alone
+		Path yml = root.resolve("c/application.yml");
+		Files.write(yml, "a: good\n".getBytes(StandardCharsets.UTF_8));
+		PropertiesToYamlConverter failFast = PropertiesToYamlConverter.builder().failFast(true).build();
+		report = new BatchConverter(failFast, 2, BatchConverter.DEFAULT_PATTERN).convert(root);
+		assertEquals(1, report.getFailureCount());
+		assertEquals(null, report.getFiles().get(2).getOutput());
+		assertEquals("a: good\n", new String(Files.readAllBytes(yml), StandardCharsets.UTF_8));
+		assertEquals(2, root.resolve("c").toFile().list().length);
+
+		//A file the lexer rejects fails on its own
+		Files.write(root.resolve("a/application-bad.properties"), "x=\\u12".getBytes(StandardCharsets.UTF_8));
+		report = new BatchConverter(new PropertiesToYamlConverter(), 1, BatchConverter.DEFAULT_PATTERN).convert(root);
+		assertEquals(4, report.getFiles().size());
+		assertStatus(report.getFiles().get(0).getStatus(), ConversionStatus.ERROR, "Malformed \\uxxxx encoding");
+		assertEquals(false, Files.exists(root.resolve("a/application-bad.yml")));
+
+		//The yaml keeps the permissions of the file it replaces, and a new one gets the defaults
+		if (Files.getFileStore(root).supportsFileAttributeView("posix")) {
+			yml = root.resolve("a/application.yml");
+			Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-rw-r--");
+			Files.setPosixFilePermissions(yml, permissions);
+			Files.delete(root.resolve("a/b/application-dev.yml"));
+			Path created = Files.createFile(root.resolve("created"));
+			new BatchConverter(new PropertiesToYamlConverter(), 2, BatchConverter.DEFAULT_PATTERN).convert(root);
+			assertEquals(permissions, Files.getPosixFilePermissions(yml));
+			assertEquals(Files.getPosixFilePermissions(created), Files.getPosixFilePermissions(root.resolve("a/b/application-dev.yml")));
+		}
+	}
+
+	@Test public void parallelResolveMatchesSequential() throws Exception {
+		Random random = new Random(11);
+		String[] segments = { "a", "b", "c", "d", "0", "1", "[0]", "[1]", "[2]", "[12]" };
+		Map<String, Collection<String>> properties = new HashMap<>();
+		for (int i = 0; i < 5000; i++) {
+			StringBuilder key = new StringBuilder("k" + random.nextInt(50));
+			for (int depth = random.nextInt(4); depth > 0; depth--) {
+				String segment = segments[random.nextInt(segments.length)];
+				key.append(segment.startsWith("[") ? segment : "." + segment);
+			}
+			properties.computeIfAbsent(key.toString(), k -> new ArrayList<>()).add("v" + i);
+		}
+		for (YamlEngine engine : YamlEngine.values()) {
+			YamlConversionResult sequential = PropertiesToYamlConverter.builder().engine(engine)
+					.parallelThreshold(Integer.MAX_VALUE).build().convert(properties);
+			assertEquals(ConversionStatus.ERROR, sequential.getSeverity());
+			for (int threshold : new int[] { 1, 10, 1000 }) {
+				YamlConversionResult parallel = PropertiesToYamlConverter.builder().engine(engine)
+						.parallelThreshold(threshold).build().convert(properties);
+				assertEquals(sequential.getYaml(), parallel.getYaml());
+				assertEquals(messages(sequential.getStatus()), messages(parallel.getStatus()));
+			}
+		}
+	}
+
+	@Test public void spilledConversionMatchesInMemory() throws Exception {
+		Random random = new Random(13);
+		String[] segments = { "a", "b", "c", "0", "1", "[0]", "[1]", "[2]", "[12]" };
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			StringBuilder key = new StringBuilder("k" + random.nextInt(50));
+			for (int depth = random.nextInt(4); depth > 0; depth--) {
+				String segment = segments[random.nextInt(segments.length)];
+				key.append(segment.startsWith("[") ? segment : "." + segment);
+			}
+			text.append(key).append('=').append("v" + i).append('\n');
+		}
+		File propertiesFile = createFile("application.properties", text.toString());
+		YamlConversionResult inMemory = new PropertiesToYamlConverter().convert(propertiesFile);
+		assertEquals(ConversionStatus.ERROR, inMemory.getSeverity());
+
+		PropertiesToYamlConverter spilling = PropertiesToYamlConverter.builder().engine(YamlEngine.SWEEP).memoryBudget(4096).build();
+		YamlConversionResult spilled = spilling.convert(propertiesFile);
+		assertEquals(inMemory.getYaml(), spilled.getYaml());
+		assertEquals(messages(inMemory.getStatus()), messages(spilled.getStatus()));
+
+		StringBuilder streamed = new StringBuilder();
+		spilling.convert(propertiesFile, streamed);
+		assertEquals(inMemory.getYaml(), streamed.toString());
+
+		//Spills far more than SortedRuns.MAX_FAN_IN runs, which are merged in passes
+		spilled = PropertiesToYamlConverter.builder().engine(YamlEngine.SWEEP).memoryBudget(200).build().convert(propertiesFile);
+		assertEquals(inMemory.getYaml(), spilled.getYaml());
+		assertEquals(messages(inMemory.getStatus()), messages(spilled.getStatus()));
+	}
+
+	@Test public void keyOrders() throws Exception {
+		String properties =
+				"b=1\n" +
+				"a.z=2\n" +
+				"a.y=3\n" +
+				"c[1]=x\n" +
+				"c[0]=y\n" +
+				"m.x=4\n" +
+				"m[0]=5\n" +
+				"m.0=6\n";
+		for (YamlEngine engine : new YamlEngine[] { YamlEngine.NATIVE, YamlEngine.SNAKEYAML }) {
+			YamlConversionResult result = PropertiesToYamlConverter.builder().engine(engine)
+					.keyOrder(KeyOrder.INSERTION).build().convert(properties);
+			assertEquals(
+					"b: '1'\n" +
+					"a:\n" +
+					"  z: '2'\n" +
+					"  y: '3'\n" +
+					"c:\n" +
+					"- y\n" +
+					"- x\n" +
+					"m:\n" +
+					"  x: '4'\n" +
+					"  '0': '5'\n",
+					result.getYaml());
+			assertStatus(result.getStatus(), ConversionStatus.WARNING, "look like list items");
+		}
+
+		Map<String, Collection<String>> wide = new HashMap<>();
+		for (int i = 0; i < 500; i++) {
+			wide.put("wide.key" + i + (i % 7 == 0 ? "[" + i % 3 + "]" : ""), Collections.singletonList("v" + i));
+		}
+		Object expected = new Yaml().load(new PropertiesToYamlConverter().convert(wide).getYaml());
+		for (YamlEngine engine : YamlEngine.values()) {
+			for (KeyOrder order : KeyOrder.values()) {
+				PropertiesToYamlConverter.Builder builder = PropertiesToYamlConverter.builder().engine(engine).keyOrder(order);
+				if (engine == YamlEngine.SWEEP && order == KeyOrder.INSERTION) {
+					try {
+						builder.build();
+						throw new AssertionError("Insertion order isn't supported by " + engine);
+					} catch (IllegalArgumentException e) {
+						continue;
+					}
+				}
+				assertEquals(engine + " " + order, expected, new Yaml().load(builder.build().convert(wide).getYaml()));
+				if (engine == YamlEngine.SWEEP) {
+					YamlConversionResult spilled = builder.memoryBudget(4096).build().convert(wide);
+					assertEquals(builder.memoryBudget(Long.MAX_VALUE).build().convert(wide).getYaml(), spilled.getYaml());
+				}
+			}
+		}
+	}
+
+	@Test public void incrementalConversion() throws Exception {
+		Random random = new Random(12);
+		String[] segments = { "a", "b", "c", "long-key-" + String.join("", Collections.nCopies(120, "x")), "0", "[0]", "[1]", "[3]" };
+		String[] values = { "v", "true", "multi\nline", "", "- dash" };
+		IncrementalConverter incremental = new IncrementalConverter();
+		Map<String, Collection<String>> properties = new LinkedHashMap<>();
+		int reused = 0;
+		for (int step = 0; step < 300; step++) {
+			Map<String, Collection<String>> changed = new LinkedHashMap<>();
+			List<String> removed = new ArrayList<>();
+			for (int edit = random.nextInt(4); edit >= 0; edit--) {
+				StringBuilder key = new StringBuilder("k" + random.nextInt(6));
+				for (int depth = random.nextInt(4); depth > 0; depth--) {
+					String segment = segments[random.nextInt(segments.length)];
+					key.append(segment.startsWith("[") ? segment : "." + segment);
+				}
+				if (random.nextInt(4) == 0) {
+					removed.add(key.toString());
+					properties.remove(key.toString());
+					changed.remove(key.toString());
+				} else {
+					List<String> value = new ArrayList<>();
+					for (int i = random.nextInt(3) == 0 ? 2 : 1; i > 0; i--) {
+						value.add(values[random.nextInt(values.length)] + step);
+					}
+					changed.put(key.toString(), value);
+					removed.remove(key.toString());
+					properties.put(key.toString(), value);
+				}
+			}
+			YamlConversionResult result = step % 2 == 0
+					? incremental.update(changed, removed)
+					: incremental.convert(new LinkedHashMap<>(properties));
+			YamlConversionResult expected = new PropertiesToYamlConverter().convert(properties);
+			assertEquals(expected.getYaml(), result.getYaml());
+			assertEquals(messages(expected.getStatus()), messages(result.getStatus()));
+			reused += incremental.getReusedFragments();
+		}
+		assertTrue(reused > 0);
+	}
+
+	@Test public void conversionMetrics() throws Exception {
+		MetricsRecorder recorder = new MetricsRecorder();
+		for (YamlEngine engine : YamlEngine.values()) {
+			PropertiesToYamlConverter converter = PropertiesToYamlConverter.builder().engine(engine).listener(recorder).build();
+			File file = createFile("metrics.properties", "a=0\na.b=1\na.c[0]=2\na.c[1]=3\nd=4\nd=5\n");
+			YamlConversionResult result = converter.convert(file);
+			assertEquals(result.getYaml().length(), recorder.getCharsOut() / recorder.getConversionCount());
+		}
+		int n = YamlEngine.values().length;
+		assertEquals(n, recorder.getConversionCount());
+		assertEquals(6 * n, recorder.getPropertyCount());
+		//a, a.b, a.c, a.c[0], a.c[1] and d
+		assertEquals(6 * n, recorder.getNodeCount());
+		assertEquals(3, recorder.getDepths().getMax());
+		assertEquals(n, recorder.getMessageCount(MessageCode.SCALAR_AND_MAP));
+		assertEquals(n, recorder.getPhaseTimes(Phase.RESOLVE).getCount());
+		assertTrue(recorder.getPhaseTimes(Phase.WRITE).getMax() > 0);
+		assertTrue(recorder.getBytesIn() > 0);
+		String scrape = recorder.scrape();
+		assertContains("propstoyaml_conversions_total " + n + "\n", scrape);
+		assertContains("propstoyaml_phase_seconds_count{phase=\"parse_paths\"} " + n + "\n", scrape);
+		assertContains("propstoyaml_messages_total{code=\"scalar_and_map\"} " + n + "\n", scrape);
+	}
+
+	@Test public void flightRecorderEvents() throws Exception {
+		Path dump = Files.createTempFile("conversions", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("org.demo.propstoyaml.Conversion");
+			recording.enable("org.demo.propstoyaml.ConversionPhase");
+			recording.start();
+			new PropertiesToYamlConverter().convert("a=1\na.b=2\nc=3\n");
+			recording.stop();
+			recording.dump(dump);
+		}
+		List<String> phases = new ArrayList<>();
+		RecordedEvent conversion = null;
+		for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+			if (event.getEventType().getName().equals("org.demo.propstoyaml.Conversion")) {
+				conversion = event;
+			} else {
+				phases.add(event.getString("phase"));
+			}
+		}
+		Files.delete(dump);
+		assertEquals(Arrays.asList("load", "build", "emit"), phases);
+		assertEquals(3, conversion.getInt("propertyCount"));
+		assertEquals("ERROR", conversion.getString("severity"));
+		assertEquals("NATIVE", conversion.getString("engine"));
+	}
+
+	@Test public void yamlToPropertiesRoundTrip() throws Exception {
+		String properties =
+				"empty=\n" +
+				"key\\ with\\ space=v\\#\\!\n" +
+				"list[0]=a\n" +
+				"list[1]=b\\:c\n" +
+				"map[a.b].c=x\\ny\n" +
+				"server.port=8080\n";
+		String yaml = new PropertiesToYamlConverter().convert(properties).getYaml();
+		YamlToPropertiesConverter.PropertiesConversionResult result = new YamlToPropertiesConverter().convert(yaml);
+		assertOkStatus(result.getStatus());
+		assertEquals(properties, result.getProperties());
+		assertEquals(yaml, new PropertiesToYamlConverter().convert(result.getProperties()).getYaml());
+
+		//Keys that would be read back as a different structure are dropped
+		result = new YamlToPropertiesConverter().convert(
+				"a:\n" +
+				"  'k[1]': v\n" +
+				"  'p]q': w\n" +
+				"  '': x\n" +
+				"  ok: y\n");
+		assertEquals("a.ok=y\n", result.getProperties());
+		assertStatus(result.getStatus(), ConversionStatus.WARNING, "Key 'k[1]' at line 2, column 3 can't be written as part of a property name");
+		assertEquals(3, result.getStatus().getCount(MessageCode.UNSUPPORTED_NODE));
+		assertEquals("a:\n  ok: y\n", new PropertiesToYamlConverter().convert(result.getProperties()).getYaml());
+	}
+
+	@Test public void yamlToPropertiesMergeKeys() throws Exception {
+		//Explicit keys win over merged ones, wherever the merge key is
+		YamlToPropertiesConverter.PropertiesConversionResult result = new YamlToPropertiesConverter().convert(
+				"base: &b {x: 1, z: {a: 2}}\n" +
+				"d: {x: 9, <<: *b}\n");
+		assertOkStatus(result.getStatus());
+		assertEquals(
+				"base.x=1\n" +
+				"base.z.a=2\n" +
+				"d.x=9\n" +
+				"d.z.a=2\n",
+				result.getProperties());
+		assertEquals(
+				"base:\n" +
+				"  x: '1'\n" +
+				"  z:\n" +
+				"    a: '2'\n" +
+				"d:\n" +
+				"  x: '9'\n" +
+				"  z:\n" +
+				"    a: '2'\n",
+				new PropertiesToYamlConverter().convert(result.getProperties()).getYaml());
+
+		//Earlier maps in a merge list win over later ones
+		result = new YamlToPropertiesConverter().convert(
+				"a: &a {x: 1}\n" +
+				"b: &b {x: 2, y: {p: 2}}\n" +
+				"c: &c {<<: [*a, *b], y: {q: 3}}\n" +
+				"e: {<<: *c}\n");
+		assertOkStatus(result.getStatus());
+		assertEquals(
+				"a.x=1\n" +
+				"b.x=2\n" +
+				"b.y.p=2\n" +
+				"c.y.q=3\n" +
+				"c.x=1\n" +
+				"e.y.q=3\n" +
+				"e.x=1\n",
+				result.getProperties());
+
+		//Only so many keys are kept for a map before anything is merged into it
+		StringBuilder late = new StringBuilder("base: &b {k0: x, m: y}\nlate:\n");
+		StringBuilder early = new StringBuilder("base: &b {k0: x, m: y}\nearly:\n  <<: *b\n");
+		for (int i = 0; i < 1100; i++) {
+			late.append("  k").append(i).append(": ").append(i).append('\n');
+			early.append("  k").append(i).append(": ").append(i).append('\n');
+		}
+		result = new YamlToPropertiesConverter().convert(late.append("  <<: *b\n").toString());
+		assertStatus(result.getStatus(), ConversionStatus.WARNING, "Merge key at line 1103, column 3 comes after more than 1024 other keys");
+		assertTrue(!result.getProperties().contains("late.m="));
+		result = new YamlToPropertiesConverter().convert(early.toString());
+		assertOkStatus(result.getStatus());
+		assertTrue(result.getProperties().contains("early.k0=0\n"));
+		assertTrue(!result.getProperties().contains("early.k0=x"));
+		assertTrue(result.getProperties().endsWith("early.m=y\n"));
+	}
+
+	@Test public void yamlToPropertiesAnchorsAndProblems() throws Exception {
+		YamlToPropertiesConverter.PropertiesConversionResult result = new YamlToPropertiesConverter().convert(
+				"base: &b\n" +
+				"  x: 1\n" +
+				"  y: [2, 3]\n" +
+				"other:\n" +
+				"  <<: [*b, {w: 5}]\n" +
+				"? [complex]\n" +
+				": dropped\n" +
+				"ref: *b\n" +
+				"bad: *nope\n");
+		assertEquals(
+				"base.x=1\n" +
+				"base.y[0]=2\n" +
+				"base.y[1]=3\n" +
+				"other.x=1\n" +
+				"other.y[0]=2\n" +
+				"other.y[1]=3\n" +
+				"other.w=5\n" +
+				"ref.x=1\n" +
+				"ref.y[0]=2\n" +
+				"ref.y[1]=3\n",
+				result.getProperties());
+		assertStatus(result.getStatus(), ConversionStatus.ERROR, "Alias *nope at line 9, column 6 refers to an unknown anchor");
+		assertEquals(1, result.getStatus().getCount(MessageCode.UNSUPPORTED_NODE));
+
+		assertStatus(new YamlToPropertiesConverter().convert("a: [1\n").getStatus(), ConversionStatus.ERROR, "Problem parsing yaml");
+	}
+
+	@Test public void preservedComments() throws Exception {
+		File file = createFile("commented.properties",
+				"# Server settings\n" +
+				"server.port=8080\n" +
+				"! the name\n" +
+				"spring.application.name=demo\n" +
+				"list[0]=a\n" +
+				"# second item\n" +
+				"#\n" +
+				"list[1]=b\n" +
+				"# trailing\n");
+		YamlConversionResult result = PropertiesToYamlConverter.builder().preserveComments(true).build().convert(file);
+		assertOkStatus(result.getStatus());
+		assertEquals(
+				"list:\n" +
+				"- a\n" +
+				"# second item\n" +
+				"#\n" +
+				"- b\n" +
+				"server:\n" +
+				"  # Server settings\n" +
+				"  port: '8080'\n" +
+				"spring:\n" +
+				"  application:\n" +
+				"    # the name\n" +
+				"    name: demo\n" +
+				"# trailing\n",
+				result.getYaml());
+		YamlConversionResult plain = new PropertiesToYamlConverter().convert(file);
+		Object expected = new Yaml().load(plain.getYaml());
+		Object actual = new Yaml().load(result.getYaml());
+		assertEquals(expected, actual);
+
+		//Characters that would end the comment line or aren't printable
+		result = PropertiesToYamlConverter.builder().preserveComments(true).build().convert(
+				"# bell \u0007 nel \u0085 ls \u2028 lone \ud800 pair \ud83d\ude00\na=1\n");
+		assertEquals("# bell \ufffd nel   ls   lone \ufffd pair \ud83d\ude00\na: '1'\n", result.getYaml());
+		assertEquals(Collections.singletonMap("a", "1"), new Yaml().load(result.getYaml()));
+
+		//SnakeYAML can't write comments
+		result = PropertiesToYamlConverter.builder().engine(YamlEngine.SNAKEYAML).preserveComments(true).build().convert(file);
+		assertStatus(result.getStatus(), ConversionStatus.WARNING, "has comments, which will be lost");
+	}
+
+	@Test public void cachedConversion() throws Exception {
+		Path dir = Files.createTempDirectory("cache");
+		ConversionCache cache = new ConversionCache(1 << 20, dir);
+		PropertiesToYamlConverter converter = PropertiesToYamlConverter.builder().cache(cache).build();
+		YamlConversionResult first = converter.convert("a=1\na.b=2");
+		YamlConversionResult second = converter.convert("a=1\na.b=2");
+		assertEquals(first.getYaml(), second.getYaml());
+		assertEquals(messages(first.getStatus()), messages(second.getStatus()));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		//Options that change the result are part of the key
+		PropertiesToYamlConverter snakeYaml = PropertiesToYamlConverter.builder().engine(YamlEngine.SNAKEYAML).cache(cache).build();
+		snakeYaml.convert("a=1\na.b=2");
+		assertEquals(2, cache.getMissCount());
+
+		File file = createFile("cached.properties", "# comment\nx.y=z\n");
+		assertStatus(converter.convert(file).getStatus(), ConversionStatus.WARNING, "has comments");
+		assertStatus(converter.convert(file).getStatus(), ConversionStatus.WARNING, "has comments");
+		assertEquals(2, cache.getHitCount());
+		assertEquals(new PropertiesToYamlConverter().convert(file).getYaml(), converter.convert(file).getYaml());
+		//Files that can't be read aren't cached
+		int entries = cache.getEntryCount();
+		File missing = new File(file.getParentFile(), "missing.properties");
+		assertStatus(converter.convert(missing).getStatus(), ConversionStatus.ERROR, "Problem loading file");
+		assertEquals(entries, cache.getEntryCount());
+
+		//A new cache on the same directory finds the results after a 'restart'
+		ConversionCache restarted = new ConversionCache(1 << 20, dir);
+		YamlConversionResult fromDisk = PropertiesToYamlConverter.builder().cache(restarted).build().convert("a=1\na.b=2");
+		assertEquals(first.getYaml(), fromDisk.getYaml());
+		assertEquals(messages(first.getStatus()), messages(fromDisk.getStatus()));
+		assertEquals(1, restarted.getDiskHitCount());
+		ConversionMessage original = first.getStatus().getEntries().get(0);
+		ConversionMessage restored = fromDisk.getStatus().getEntries().get(0);
+		assertEquals(original.getCode(), restored.getCode());
+		assertEquals(original.getPath().toPropString(), restored.getPath().toPropString());
+		assertEquals(original.getValues(), restored.getValues());
+		//Statuses read back get the limits of the converter
+		PropertiesToYamlConverter.builder().failFast(true).cache(cache).build().convert("a=1\na.b=2");
+		fromDisk = PropertiesToYamlConverter.builder().failFast(true).cache(restarted).build().convert("a=1\na.b=2");
+		assertEquals(2, restarted.getDiskHitCount());
+		assertTrue(fromDisk.getStatus().isFailFast());
+		assertEquals(ConversionStatus.ERROR, fromDisk.getStatus().getSeverity());
+
+		//Least recently used results are evicted once over budget
+		ConversionCache small = new ConversionCache(1000);
+		PropertiesToYamlConverter bounded = PropertiesToYamlConverter.builder().cache(small).build();
+		for (int i = 0; i < 20; i++) {
+			bounded.convert("key=" + i);
+			bounded.convert("key=0");
+		}
+		assertTrue(small.getBytes() <= 1000);
+		assertTrue(small.getEvictionCount() > 0);
+		bounded.convert("key=0");
+		assertEquals(21, small.getHitCount());
+	}
+
+	@Test public void watchMode() throws Exception {
+		Path root = Files.createTempDirectory("watch");
+		Path input = root.resolve("application.properties");
+		Files.write(input, "a.b=1\nc=2\n".getBytes(StandardCharsets.UTF_8));
+		BlockingQueue<FileResult> results = new LinkedBlockingQueue<>();
+		try (PropertiesWatcher watcher = new PropertiesWatcher(Collections.singletonList(root), StandardCharsets.UTF_8,
+				BatchConverter.DEFAULT_PATTERN, 50, results::add)) {
+			watcher.start();
+			assertEquals(input, results.take().getInput());
+			assertEquals("a:\n  b: '1'\nc: '2'\n", new String(Files.readAllBytes(root.resolve("application.yml")), StandardCharsets.UTF_8));
+
+			//A burst of saves, with a name that is repeated and one spelled two ways
+			for (int i = 0; i < 5; i++) {
+				Files.write(input, ("# saved " + i + "\na.b=1\na[b]=2\na.b=3\nc=" + i + "\nd[0]=x\n").getBytes(StandardCharsets.UTF_8));
+			}
+			String expected = new PropertiesToYamlConverter(YamlEngine.NATIVE).convert(input.toFile()).getYaml();
+			FileResult result;
+			do {
+				result = results.poll(10, TimeUnit.SECONDS);
+				assertTrue(result != null);
+			} while (!expected.equals(new String(Files.readAllBytes(result.getOutput()), StandardCharsets.UTF_8)));
+			assertStatus(result.getStatus(), ConversionStatus.WARNING, "has comments");
+			assertTrue(watcher.getLatencies().getCount() >= 1);
+			assertTrue(watcher.getLatencies().getMin() >= TimeUnit.MILLISECONDS.toNanos(50));
+
+			//A file the lexer rejects is reported, and watching goes on
+			Files.write(input, "x=\\u12".getBytes(StandardCharsets.UTF_8));
+			do {
+				result = results.poll(10, TimeUnit.SECONDS);
+				assertTrue(result != null);
+			} while (result.getStatus().getSeverity() != ConversionStatus.ERROR);
+			assertStatus(result.getStatus(), ConversionStatus.ERROR, "Malformed \\uxxxx encoding");
+			Files.write(input, "x=fixed\n".getBytes(StandardCharsets.UTF_8));
+			do {
+				result = results.poll(10, TimeUnit.SECONDS);
+				assertTrue(result != null);
+			} while (result.getOutput() == null
+					|| !"x: fixed\n".equals(new String(Files.readAllBytes(result.getOutput()), StandardCharsets.UTF_8)));
+
+			//The yaml keeps its permissions
+			Path yml = root.resolve("application.yml");
+			if (Files.getFileStore(root).supportsFileAttributeView("posix")) {
+				Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-rw-r--");
+				Files.setPosixFilePermissions(yml, permissions);
+				Files.write(input, "x=again\n".getBytes(StandardCharsets.UTF_8));
+				do {
+					result = results.poll(10, TimeUnit.SECONDS);
+					assertTrue(result != null);
+				} while (!"x: again\n".equals(new String(Files.readAllBytes(yml), StandardCharsets.UTF_8)));
+				assertEquals(permissions, Files.getPosixFilePermissions(yml));
+			}
+
+			//A failed write is reported and leaves no temp file behind
+			Files.delete(yml);
+			Files.createDirectories(yml.resolve("blocking"));
+			Files.write(input, "x=blocked\n".getBytes(StandardCharsets.UTF_8));
+			do {
+				result = results.poll(10, TimeUnit.SECONDS);
+				assertTrue(result != null);
+			} while (result.getStatus().getSeverity() != ConversionStatus.ERROR);
+			assertStatus(result.getStatus(), ConversionStatus.ERROR, "Problem writing file");
+			String[] names = root.toFile().list();
+			Arrays.sort(names);
+			assertEquals(Arrays.asList("application.properties", "application.yml"), Arrays.asList(names));
+		}
+	}
+
+	@Test public void validation() throws Exception {
+		String properties =
+				"# comment\n" +
+				"a=1\n" +
+				"a.b=2\n" +
+				"s=3\n" +
+				"s[0]=4\n" +
+				"m[0]=5\n" +
+				"m.x=6\n" +
+				"ok.key=7\n";
+		Map<String, Collection<String>> multiple = new HashMap<>();
+		multiple.put("x.y", Arrays.asList("1", "2"));
+		multiple.put("x.z", Arrays.asList("3"));
+		File propertiesFile = createFile("application.properties", properties);
+		for (YamlEngine engine : YamlEngine.values()) {
+			for (boolean failFast : new boolean[] { false, true }) {
+				PropertiesToYamlConverter converter = PropertiesToYamlConverter.builder().engine(engine).failFast(failFast).build();
+				assertEquals(messages(converter.convert(propertiesFile).getStatus()), messages(converter.validate(propertiesFile)));
+				assertEquals(messages(converter.convert(properties).getStatus()), messages(converter.validate(properties)));
+				assertEquals(messages(converter.convert(multiple).getStatus()), messages(converter.validate(multiple)));
+			}
+			PropertiesToYamlConverter converter = new PropertiesToYamlConverter(engine);
+			assertStatus(converter.validate(propertiesFile), ConversionStatus.ERROR, "Direct assignment");
+			assertStatus(converter.validate(multiple), ConversionStatus.WARNING, "Multiple values");
+			assertOkStatus(converter.validate("a.b=1\na.c[0]=2"));
+			assertOkStatus(converter.validate(""));
+		}
+	}
+
+	@Test public void structuredMessages() throws Exception {
+		StringBuilder props = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			props.append("p" + i + "=scalar\np" + i + ".sub=map\n");
+		}
+		props.append("q[0]=item\nq.key=map\n");
+		PropertiesToYamlConverter capped = PropertiesToYamlConverter.builder().maxMessages(10).build();
+		ConversionStatus status = capped.convert(props.toString()).getStatus();
+		assertEquals(ConversionStatus.ERROR, status.getSeverity());
+		assertEquals(10, status.getEntries().size());
+		assertEquals(50, status.getCount(MessageCode.SCALAR_AND_MAP));
+		assertEquals(1, status.getCount(MessageCode.SEQUENCE_AND_MAP));
+		assertEquals(41, status.getDroppedCount());
+		ConversionMessage first = status.getEntries().get(0);
+		assertEquals(MessageCode.SCALAR_AND_MAP, first.getCode());
+		assertEquals("p0", first.getPath().toPropString());
+		assertEquals(Arrays.asList("scalar"), first.getValues());
+		assertContains("Direct assignment 'p0=scalar' can not be combined with sub-property assignment 'p0.sub...'", first.getMessage());
+
+		PropertiesToYamlConverter failFast = PropertiesToYamlConverter.builder().failFast(true).parallelThreshold(1).build();
+		YamlConversionResult result = failFast.convert(props.toString());
+		assertEquals("", result.getYaml());
+		assertEquals(1, result.getStatus().getEntries().size());
+		assertEquals("p0", result.getStatus().getEntries().get(0).getPath().toPropString());
+		YamlWriteResult written = failFast.convert(props.toString(), new StringBuilder());
+		assertEquals(0, written.getCharCount());
+		assertEquals(ConversionStatus.ERROR, written.getStatus().getSeverity());
+		//Warnings don't stop the conversion
+		assertEquals("q:\n  '0': item\n  key: map\n", failFast.convert("q[0]=item\nq.key=map\n").getYaml());
+		//The sweep engine checks before it writes
+		PropertiesToYamlConverter sweep = PropertiesToYamlConverter.builder().engine(YamlEngine.SWEEP).failFast(true).build();
+		written = sweep.convert(props.toString(), new StringBuilder());
+		assertEquals(0, written.getCharCount());
+		assertEquals(1, written.getStatus().getEntries().size());
+	}
+
+	private List<String> messages(ConversionStatus status) {
+		List<String> messages = new ArrayList<>();
+		for (ConversionMessage m : status.getEntries()) {
+			messages.add(m.getSeverity() + " " + m.getMessage());
+		}
+		return messages;
+	}
+
+	@Test public void segmentsAreShared() throws Exception {
+		SegmentPool pool = SegmentPool.shared();
+		long hits = pool.getHits();
+		YamlPath a = YamlPath.fromProperty("spring.datasource[0].enabled");
+		YamlPath b = YamlPath.fromProperty("spring.datasource[0].url");
+		assertTrue(a.getSegment(0) == b.getSegment(0));
+		assertTrue(a.getSegment(1) == b.getSegment(1));
+		assertTrue(a.getSegment(2) == b.getSegment(2));
+		assertTrue(YamlPathSegment.valueAt("enabled") == a.getSegment(3));
+		assertEquals(YamlPathSegment.valueAt(1000), YamlPathSegment.valueAt(1000));
+		assertTrue(pool.getHits() >= hits + 3);
+		assertTrue(pool.getHitRate() > 0);
+	}
+
+	@Test public void nativeEngineMatchesSnakeYaml() throws Exception {
+		String longText = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore";
+		String[] values = {
+				"", " ", "plain", "true", "NO", "~", "null", "123", "0x1F", "1.5e3", ".inf", "2017-01-02", "<<",
+				"- dash", "-dash", ": colon", "a: b", "a:b", "key #hash", "#hash", "?", "a,b", "[x]", "{y}",
+				"'quoted'", "it's", "\"double\"", "back\\slash", "tab\there", " leading", "trailing ",
+				"multi\nline", "multi\nline\n", "trailing space \nline", "\n", "cr\rhere", "bell\u0007",
+				"caf\u00e9", "nbsp\u00a0", "\u2028sep", "bom\ufeff", "--- doc", "... end", "@at", "`tick",
+				longText, "'" + longText + "'", longText + "\"" + longText, longText.replace(' ', '\n'),
+				longText + " \n" + longText, longText.replace(" ", "  "), longText.replace(" ", ":")
+		};
+		Properties props = new Properties();
+		for (int i = 0; i < values.length; i++) {
+			props.put("value.v" + i, values[i]);
+			props.put("keys." + values[i].replace(".", "").replace("[", "").replace("]", ""), "" + i);
+			props.put("list[" + i + "]", values[i]);
+		}
+		props.put("long." + longText.replace(" ", "-") + longText.replace(" ", "_"), "long-key");
+
+		String expected = new PropertiesToYamlConverter(YamlEngine.SNAKEYAML).convert(props).getYaml();
+		assertEquals(expected, new PropertiesToYamlConverter(YamlEngine.NATIVE).convert(props).getYaml());
+
+		Map<String, Collection<String>> multi = new HashMap<>();
+		multi.put("multi.values", Arrays.asList(values));
+		multi.put("[0]", Arrays.asList("root", "sequence"));
+		assertEquals(
+				new PropertiesToYamlConverter(YamlEngine.SNAKEYAML).convert(multi).getYaml(),
+				new PropertiesToYamlConverter(YamlEngine.NATIVE).convert(multi).getYaml());
+	}
+
+	@Test public void scalarStylesMatchSnakeYaml() throws Exception {
+		String[] fragments = {
+				"0", "1", "7", "9", "_", "+", "-", ".", ":", "e", "x", "b", "inf", "NaN", "2001-", "-12", ":30", "T", "Z",
+				"true", "Yes", "off", "null", "~", "<<", "!", "&", "*", "#", "?", ",", "[", "}", "'", "\"", "|", "%",
+				" ", "\t", "\n", "\r", "\u0085", "\u2028", "\u00e9", "\ud83d\ude00", "\ude00", "\u0007", "\ufeff",
+				"\ufffe", "---", "...", "\\"
+		};
+		Resolver resolver = new Resolver();
+		Random random = new Random(14);
+		Properties props = new Properties();
+		for (int i = 0; i < 20000; i++) {
+			StringBuilder value = new StringBuilder();
+			for (int n = random.nextInt(8); n > 0; n--) {
+				value.append(fragments[random.nextInt(fragments.length)]);
+			}
+			String s = value.toString();
+			ScalarAnalysis analysis = new ScalarAnalysis(s);
+			assertEquals(s, StreamReader.isPrintable(s), analysis.printable);
+			if (analysis.printable) {
+				assertEquals(s, Tag.STR.equals(resolver.resolve(NodeId.scalar, s, true)), analysis.plainImplicit);
+				props.put("value.v" + i, s);
+				props.put("keys." + s.replace(".", "").replace("[", "").replace("]", ""), "" + i);
+			}
+		}
+		assertEquals(
+				new PropertiesToYamlConverter(YamlEngine.SNAKEYAML).convert(props).getYaml(),
+				new PropertiesToYamlConverter(YamlEngine.NATIVE).convert(props).getYaml());
+	}
+
 	@Test public void emptyFileConversion() throws Exception {
 		doConversionTest(
 				""
@@ -97,6 +941,81 @@ public class ConvertPropertiesToYamlTest {
 		);
 	}
 
+	@Test public void streamedOutput() throws Exception {
+		StringBuilder props = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			props.append("server.names[" + i + "]=caf\\u00e9-" + i + "\n");
+			props.append("some.property" + i + "=\\ud83d\\ude00 value " + i + "\n");
+		}
+		File input = createFile("application.properties", props.toString());
+		for (YamlEngine engine : YamlEngine.values()) {
+			String expected = new PropertiesToYamlConverter(engine).convert(input).getYaml();
+			byte[] expectedBytes = expected.getBytes(StandardCharsets.UTF_8);
+
+			StringBuilder chars = new StringBuilder();
+			YamlWriteResult result = new PropertiesToYamlConverter(engine).convert(input, chars);
+			assertOkStatus(result.getStatus());
+			assertEquals(expected, chars.toString());
+			assertEquals(expected.length(), result.getCharCount());
+			assertEquals(-1, result.getByteCount());
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			result = new PropertiesToYamlConverter(engine).convert(input, bytes);
+			assertOkStatus(result.getStatus());
+			assertEquals(expected, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+			assertEquals(expected.length(), result.getCharCount());
+			assertEquals(expectedBytes.length, result.getByteCount());
+
+			File output = File.createTempFile("application", ".yml");
+			try (FileChannel channel = FileChannel.open(output.toPath(), StandardOpenOption.WRITE)) {
+				result = new PropertiesToYamlConverter(engine).convert(input, channel);
+			}
+			assertOkStatus(result.getStatus());
+			assertEquals(expected, new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8));
+			assertEquals(expectedBytes.length, result.getByteCount());
+			output.delete();
+		}
+	}
+
+	@Test public void fileCharsets() throws Exception {
+		//Big enough to be memory-mapped
+		StringBuilder props = new StringBuilder();
+		for (int i = 0; props.length() < PropertiesFileReader.MAP_THRESHOLD; i++) {
+			props.append("some.caf\u00e9" + (i % 500) + ".name[" + (i / 500) + "]=\u00fcber \u4e2d " + i + "\n");
+		}
+		String text = props.toString();
+		String expectedUnicode = new PropertiesToYamlConverter().convert(text).getYaml();
+		Charset[] charsets = { StandardCharsets.UTF_8, StandardCharsets.UTF_16LE, StandardCharsets.ISO_8859_1 };
+		for (Charset charset : charsets) {
+			File input = File.createTempFile("application", ".properties");
+			Files.write(input.toPath(), text.getBytes(charset));
+			String expected = charset.newEncoder().canEncode(text)
+					? expectedUnicode
+					: new PropertiesToYamlConverter().convert(new String(text.getBytes(charset), charset)).getYaml();
+			YamlConversionResult result = new PropertiesToYamlConverter().convert(input, charset);
+			assertOkStatus(result.getStatus());
+			assertEquals(expected, result.getYaml());
+			input.delete();
+		}
+
+		File small = createFile("application.properties", "");
+		Files.write(small.toPath(), "name=\u00fcber".getBytes(StandardCharsets.ISO_8859_1));
+		assertEquals("name: \u00fcber\n", new PropertiesToYamlConverter().convert(small, StandardCharsets.ISO_8859_1).getYaml());
+		Files.write(small.toPath(), "name=\u00fcber".getBytes(StandardCharsets.UTF_8));
+		assertEquals("name: \u00fcber\n", new PropertiesToYamlConverter().convert(small, StandardCharsets.UTF_8).getYaml());
+	}
+
+	@Test public void streamedOutputWriteProblem() throws Exception {
+		OutputStream broken = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("Disk full");
+			}
+		};
+		YamlWriteResult result = new PropertiesToYamlConverter().convert(createFile("application.properties", "some.property=value"), broken);
+		assertStatus(result.getStatus(), ConversionStatus.ERROR, "Problem writing yaml: Disk full");
+	}
+
 	@Ignore
 	@Test public void nonExistentInput() throws Exception {
 //		IProject project = projects.createProject("nonExistentInput");
@@ -153,6 +1072,33 @@ public class ConvertPropertiesToYamlTest {
 		);
 	}
 
+	@Test public void longSequences() throws Exception {
+		StringBuilder input = new StringBuilder();
+		StringBuilder expected = new StringBuilder("dense:\n");
+		for (int i = 0; i < 40; i++) {
+			expected.append("- v").append(i).append('\n');
+		}
+		for (int i = 39; i >= 0; i--) {
+			input.append("dense[").append(i).append("]=v").append(i).append('\n');
+		}
+		//Gaps are closed up, as with a few list items
+		expected.append("gappy:\n");
+		for (int i = 0; i < 20; i++) {
+			input.append("gappy[").append(i).append("]=v").append(i).append('\n');
+			expected.append("- v").append(i).append('\n');
+		}
+		input.append("gappy[1000]=last\n");
+		expected.append("- last\n");
+		do_conversionTest(input.toString(), expected.toString(), (status) -> assertOkStatus(status));
+
+		//Mixed with a map entry, list items become map entries
+		input.append("gappy.key=value\n");
+		YamlConversionResult result = new PropertiesToYamlConverter().convert(input.toString());
+		assertStatus(result.getStatus(), ConversionStatus.WARNING, "'gappy' has some entries that look like list items and others that look like map entries");
+		assertContains("  '1000': last\n", result.getYaml());
+		assertContains("  key: value\n", result.getYaml());
+	}
+
 	@Test public void mapAndSequenceConflict() throws Exception {
 		do_conversionTest(
 				"some.property.abc=val1\n" +
@@ -263,8 +1209,12 @@ Direct assignment 'some.property=a-scalar' can not be combined with sub-property
 
 	 */
 	private void doConversionTest(String input, String expectedOutput) throws Exception {
+		doConversionTest(input, expectedOutput, ConversionStatus.OK);
+	}
+
+	private void doConversionTest(String input, String expectedOutput, int expectedSeverity) throws Exception {
 		do_conversionTest(input, expectedOutput, (status) -> {
-			assertEquals(ConversionStatus.OK, status.getSeverity());
+			assertEquals(expectedSeverity, status.getSeverity());
 		});
 	}
 
@@ -275,6 +1225,14 @@ Direct assignment 'some.property=a-scalar' can not be combined with sub-property
 		YamlConversionResult result = new PropertiesToYamlConverter().convert(propertiesFile);
 		statusChecker.check(result.getStatus());
 		assertEquals(expectedOutput, result.getYaml());
+
+		YamlConversionResult snakeYamlResult = new PropertiesToYamlConverter(YamlEngine.SNAKEYAML).convert(propertiesFile);
+		statusChecker.check(snakeYamlResult.getStatus());
+		assertEquals(expectedOutput, snakeYamlResult.getYaml());
+
+		YamlConversionResult sweepResult = new PropertiesToYamlConverter(YamlEngine.SWEEP).convert(propertiesFile);
+		statusChecker.check(sweepResult.getStatus());
+		assertEquals(expectedOutput, sweepResult.getYaml());
 	}
 
 //	private void assertFile(IProject project, String path, String expectedContents) throws Exception {